@@ -1,5 +1,6 @@
 plugins {
     java
+    alias(libs.plugins.jmh)
 }
 
 group = "cn.sabercon"
@@ -32,3 +33,8 @@ tasks.withType<Test> {
 tasks.test {
     useJUnitPlatform()
 }
+
+jmh {
+    jmhVersion = libs.versions.jmh
+    jvmArgs.add("--enable-preview")
+}
@@ -0,0 +1,89 @@
+package cn.sabercon.minidb.btree;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the heap allocated by writes to an in-memory tree, which is meant to be run with {@code -prof gc}.
+ * <p>
+ * The keys and values are generated up front and the writes of an invocation are committed together,
+ * so that {@code gc.alloc.rate.norm} is mostly the allocation of the write path itself, which should stay
+ * close to the page buffers built for the copied nodes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@OperationsPerInvocation(WriteAllocationBenchmark.BATCH_SIZE)
+public class WriteAllocationBenchmark {
+
+    static final int BATCH_SIZE = 100;
+
+    static final int KEYS = 100_000;
+
+    BTree btree;
+
+    byte[][] keys;
+
+    byte[] value;
+
+    int next;
+
+    Runnable upserts;
+
+    Runnable deletesAndUpserts;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        btree = BTree.inMemory();
+        var random = ThreadLocalRandom.current();
+        keys = new byte[KEYS][];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = new byte[16];
+            random.nextBytes(keys[i]);
+        }
+        value = new byte[100];
+        random.nextBytes(value);
+        for (int i = 0; i < KEYS; i += 1000) {
+            var first = i;
+            btree.batch(() -> {
+                for (int j = first; j < first + 1000; j++) {
+                    btree.upsert(keys[j], value);
+                }
+            });
+        }
+
+        // Created once, so that the runnables are not counted
+        upserts = () -> {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                btree.upsert(nextKey(), value);
+            }
+        };
+        deletesAndUpserts = () -> {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                var key = nextKey();
+                btree.delete(key);
+                btree.upsert(key, value);
+            }
+        };
+    }
+
+    private byte[] nextKey() {
+        next = next + 1 == KEYS ? 0 : next + 1;
+        return keys[next];
+    }
+
+    @Benchmark
+    public void upsert() {
+        btree.batch(upserts);
+    }
+
+    @Benchmark
+    public void deleteAndUpsert() {
+        btree.batch(deletesAndUpserts);
+    }
+}
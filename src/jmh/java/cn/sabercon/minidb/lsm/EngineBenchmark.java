@@ -0,0 +1,263 @@
+package cn.sabercon.minidb.lsm;
+
+import cn.sabercon.minidb.base.FileBuffer;
+import cn.sabercon.minidb.base.KeyValueStore;
+import cn.sabercon.minidb.btree.BTree;
+import cn.sabercon.minidb.page.PageConstants;
+import cn.sabercon.minidb.page.PageManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the B+tree with the LSM tree on random writes and random lookups over preloaded keys.
+ * <p>
+ * Besides the throughput, the write amplification (bytes written to the files per byte written by the caller)
+ * and the read amplification (pages or blocks read per lookup) are reported by {@link Amplification} per iteration.
+ * <p>
+ * The bytes written by the B+tree are counted at its file buffer in whole pages, which covers the tree pages,
+ * the free list and the master page of each commit, as the LSM tree counts its log, flushes and compactions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class EngineBenchmark {
+
+    static final int PRELOADED_KEYS = 100_000;
+
+    static final int VALUE_SIZE = 100;
+
+    @Param({"btree", "lsm"})
+    String engine;
+
+    Path directory;
+
+    KeyValueStore store;
+
+    CountingFileBuffer fileBuffer;
+
+    CountingPageManager pageManager;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("minidb-engine-benchmark");
+        if (engine.equals("btree")) {
+            fileBuffer = new CountingFileBuffer(FileBuffer.from(directory.resolve("btree.minidb")));
+            pageManager = new CountingPageManager(PageManager.of(fileBuffer));
+            store = BTree.of(pageManager);
+        } else {
+            store = LsmStore.from(directory.resolve("lsm"));
+        }
+
+        for (int i = 0; i < PRELOADED_KEYS; i += 1000) {
+            var first = i;
+            store.batch(() -> {
+                for (int key = first; key < first + 1000; key++) {
+                    store.upsert(key(key), new byte[VALUE_SIZE]);
+                }
+            });
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (store instanceof LsmStore lsmStore) {
+            lsmStore.close();
+        } else {
+            ((BTree) store).close();
+        }
+    }
+
+    /**
+     * @return The bytes written to the files by the engine so far
+     */
+    long writtenBytes() {
+        return fileBuffer != null ? fileBuffer.writtenBytes : ((LsmStore) store).stats().writtenBytes();
+    }
+
+    /**
+     * @return The pages or blocks read by the engine so far
+     */
+    long reads() {
+        return pageManager != null ? pageManager.readPages : ((LsmStore) store).stats().blockReads();
+    }
+
+    private static byte[] key(int key) {
+        return String.format("key-%08d", key).getBytes();
+    }
+
+    @Benchmark
+    public void upsert(Amplification amplification) {
+        var key = key(ThreadLocalRandom.current().nextInt(PRELOADED_KEYS * 2));
+        var value = new byte[VALUE_SIZE];
+        ThreadLocalRandom.current().nextBytes(value);
+        store.upsert(key, value);
+        amplification.userBytes += key.length + value.length;
+    }
+
+    @Benchmark
+    public Optional<byte[]> find(Amplification amplification) {
+        amplification.lookups += 1;
+        return store.find(key(ThreadLocalRandom.current().nextInt(PRELOADED_KEYS)));
+    }
+
+    /**
+     * Reports the amplification of each iteration next to the throughput, where only the public methods are counters.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Amplification {
+
+        private EngineBenchmark benchmark;
+
+        private long writtenBytesBefore;
+
+        private long readsBefore;
+
+        long userBytes;
+
+        long lookups;
+
+        @Setup(Level.Iteration)
+        public void setUp(EngineBenchmark benchmark) {
+            this.benchmark = benchmark;
+            writtenBytesBefore = benchmark.writtenBytes();
+            readsBefore = benchmark.reads();
+            userBytes = 0;
+            lookups = 0;
+        }
+
+        public double writeAmplification() {
+            return userBytes == 0 ? 0.0 : (double) (benchmark.writtenBytes() - writtenBytesBefore) / userBytes;
+        }
+
+        public double readAmplification() {
+            return lookups == 0 ? 0.0 : (double) (benchmark.reads() - readsBefore) / lookups;
+        }
+    }
+
+    /**
+     * Counts the bytes written to the file of the B+tree, in whole pages as they are synced to the disk.
+     */
+    static class CountingFileBuffer implements FileBuffer {
+
+        private final FileBuffer buffer;
+
+        long writtenBytes;
+
+        CountingFileBuffer(FileBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public MemorySegment get(long offset, long byteSize) {
+            return buffer.get(offset, byteSize);
+        }
+
+        @Override
+        public void set(long pointer, MemorySegment data, long byteSize) {
+            var pageSize = PageConstants.PAGE_BYTE_SIZE;
+            writtenBytes += (byteSize + pageSize - 1) / pageSize * pageSize;
+            buffer.set(pointer, data, byteSize);
+        }
+
+        @Override
+        public long byteSize() {
+            return buffer.byteSize();
+        }
+
+        @Override
+        public void prefetch(long offset, long byteSize) {
+            buffer.prefetch(offset, byteSize);
+        }
+
+        @Override
+        public void flush() {
+            buffer.flush();
+        }
+
+        @Override
+        public void flush(long offset, long byteSize) {
+            buffer.flush(offset, byteSize);
+        }
+
+        @Override
+        public void close() {
+            buffer.close();
+        }
+    }
+
+    /**
+     * Counts the pages read by the B+tree.
+     */
+    static class CountingPageManager implements PageManager {
+
+        private final PageManager pageManager;
+
+        long readPages;
+
+        CountingPageManager(PageManager pageManager) {
+            this.pageManager = pageManager;
+        }
+
+        @Override
+        public long getRoot() {
+            return pageManager.getRoot();
+        }
+
+        @Override
+        public void setRoot(long root) {
+            pageManager.setRoot(root);
+        }
+
+        @Override
+        public MemorySegment getPage(long pointer) {
+            readPages += 1;
+            return pageManager.getPage(pointer);
+        }
+
+        @Override
+        public void prefetchPage(long pointer) {
+            pageManager.prefetchPage(pointer);
+        }
+
+        @Override
+        public void deletePage(long pointer) {
+            pageManager.deletePage(pointer);
+        }
+
+        @Override
+        public MemorySegment allocate(int pageCount) {
+            return pageManager.allocate(pageCount);
+        }
+
+        @Override
+        public long createPage(MemorySegment page) {
+            return pageManager.createPage(page);
+        }
+
+        @Override
+        public void flush() {
+            pageManager.flush();
+        }
+
+        @Override
+        public void rollback() {
+            pageManager.rollback();
+        }
+
+        @Override
+        public void close() {
+            pageManager.close();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package cn.sabercon.minidb.shard;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the write throughput scales with the number of shards, where every write is committed on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@Threads(8)
+public class ShardedWriteBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    int shards;
+
+    Path directory;
+
+    ShardedKeyValueStore store;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("minidb-shard-benchmark");
+        store = ShardedKeyValueStore.from(directory, Partitioner.hash(shards));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close();
+    }
+
+    @Benchmark
+    public void upsert() {
+        var random = ThreadLocalRandom.current();
+        var key = new byte[16];
+        var value = new byte[100];
+        random.nextBytes(key);
+        random.nextBytes(value);
+        store.upsert(key, value);
+    }
+
+    @Benchmark
+    public void batch() {
+        var random = ThreadLocalRandom.current();
+        store.batch(() -> {
+            for (int i = 0; i < 64; i++) {
+                var key = new byte[16];
+                random.nextBytes(key);
+                store.upsert(key, key);
+            }
+        });
+    }
+}
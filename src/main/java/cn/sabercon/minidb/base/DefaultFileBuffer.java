@@ -1,25 +1,64 @@
 package cn.sabercon.minidb.base;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 class DefaultFileBuffer implements FileBuffer {
 
     static final int MIN_BYTE_SIZE = 8 * 1024 * 1024;
 
+    /**
+     * Loads prefetched ranges, where page faults block the threads instead of the readers.
+     */
+    static final Executor PREFETCHER = Executors.newFixedThreadPool(4,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("minidb-prefetch-%d").build());
+
     private final Path path;
 
     private MemorySegment buffer;
 
+    /**
+     * A byte far beyond the end of the file, which is locked by the writer of the file.
+     * Nothing is mapped there, so the lock doesn't get in the way of the readers where locks are mandatory.
+     */
+    private static final long WRITER_LOCK_POSITION = Long.MAX_VALUE - 1;
+
+    /**
+     * The files open for writing in this JVM. A file lock is held on behalf of the whole JVM,
+     * so it can't tell two buffers of the same file apart, which are rejected here instead.
+     */
+    private static final Set<Path> OPEN_FILES = ConcurrentHashMap.newKeySet();
+
+    private final Path lockedPath;
+
+    private FileLock lock;
+
+    private boolean closed;
+
     DefaultFileBuffer(Path path) {
         this.path = path;
-        this.buffer = mapFile(path, 0);
+        this.lockedPath = path.toAbsolutePath().normalize();
+        Preconditions.checkState(OPEN_FILES.add(lockedPath), STR."\{path} is already open for writing in this JVM");
+        try {
+            this.lock = lockWriter(path);
+            this.buffer = mapFile(path, 0);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
     }
 
     @Override
@@ -39,11 +78,45 @@ class DefaultFileBuffer implements FileBuffer {
         return buffer.byteSize();
     }
 
+    @Override
+    public void prefetch(long offset, long byteSize) {
+        if (offset < 0 || offset + byteSize > buffer.byteSize()) return;
+
+        var segment = buffer.asSlice(offset, byteSize);
+        PREFETCHER.execute(segment::load);
+    }
+
     @Override
     public void flush() {
         buffer.force();
     }
 
+    @Override
+    public void flush(long offset, long byteSize) {
+        Preconditions.checkArgument(offset >= 0 && offset + byteSize <= buffer.byteSize());
+        buffer.asSlice(offset, byteSize).force();
+    }
+
+    /**
+     * Releases the writer lock. The mapped data stays valid until unreachable, but must not be used anymore.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+
+        closed = true;
+        try {
+            if (lock != null) {
+                lock.release();
+                lock.channel().close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            OPEN_FILES.remove(lockedPath);
+        }
+    }
+
     private void extendBuffer(long capacity) {
         if (capacity > buffer.byteSize()) {
             var minCap = Math.max(MIN_BYTE_SIZE, capacity);
@@ -51,6 +124,20 @@ class DefaultFileBuffer implements FileBuffer {
         }
     }
 
+    private static FileLock lockWriter(Path path) {
+        try {
+            var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            var lock = channel.tryLock(WRITER_LOCK_POSITION, 1, false);
+            if (lock == null) {
+                channel.close();
+                throw new IllegalStateException(STR."\{path} is being written by another process");
+            }
+            return lock;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     private static MemorySegment mapFile(Path path, long minCap) {
         try (var raf = new RandomAccessFile(path.toFile(), "rw")) {
             var channel = raf.getChannel();
@@ -64,7 +151,7 @@ class DefaultFileBuffer implements FileBuffer {
     /**
      * Returns a power-of-two size for the given target capacity.
      */
-    private static long bufferSize(long cap) {
+    static long bufferSize(long cap) {
         if (cap < 2) return cap;
         long n = -1L >>> Long.numberOfLeadingZeros(cap - 1);
         return n + 1;
@@ -3,12 +3,30 @@ package cn.sabercon.minidb.base;
 import java.lang.foreign.MemorySegment;
 import java.nio.file.Path;
 
-public interface FileBuffer {
+public interface FileBuffer extends AutoCloseable {
 
+    /**
+     * Opens the file for writing, which fails if another process or another buffer in this JVM
+     * has it open for writing, until that one is closed.
+     */
     static FileBuffer from(Path path) {
         return new DefaultFileBuffer(path);
     }
 
+    /**
+     * Opens the file for reading while another process may write it, where {@link #set} is not supported.
+     */
+    static FileBuffer readOnly(Path path) {
+        return new ReadOnlyFileBuffer(path);
+    }
+
+    /**
+     * Creates a buffer in memory without any file, whose data is lost once it is unreachable.
+     */
+    static FileBuffer inMemory() {
+        return new MemoryFileBuffer();
+    }
+
     MemorySegment get(long offset, long byteSize);
 
     void set(long pointer, MemorySegment data, long byteSize);
@@ -19,5 +37,26 @@ public interface FileBuffer {
 
     long byteSize();
 
+    /**
+     * Hints that the data in the range will be read soon, so it can be loaded into memory in the background.
+     * Ranges out of bounds are ignored.
+     */
+    default void prefetch(long offset, long byteSize) {
+    }
+
     void flush();
+
+    /**
+     * Flushes the data in the range only, which costs as much as the bytes changed in it rather than the whole file.
+     */
+    default void flush(long offset, long byteSize) {
+        flush();
+    }
+
+    /**
+     * Releases the file, so that it can be opened for writing again. The data set is not flushed.
+     */
+    @Override
+    default void close() {
+    }
 }
@@ -1,12 +1,135 @@
 package cn.sabercon.minidb.base;
 
+import cn.sabercon.minidb.util.Conversions;
+import cn.sabercon.minidb.util.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 public interface KeyValueStore {
 
+    /**
+     * The limits on the size of the keys and values, which are the same for all the stores,
+     * so that a B+tree node or a hash bucket with a single entry always fits on a single page,
+     * and the stores are interchangeable.
+     */
+    int MAX_KEY_SIZE = 1000;
+    int MAX_VALUE_SIZE = 3000;
+
     Optional<byte[]> find(byte[] key);
 
+    /**
+     * Looks up many keys at once.
+     *
+     * @return The values in the order of the keys, where the missing ones are empty
+     */
+    default List<Optional<byte[]>> findAll(Collection<byte[]> keys) {
+        return keys.stream().map(this::find).toList();
+    }
+
+    /**
+     * Iterates over the key-value pairs in ascending key order.
+     * The iterator reads the store lazily, so it must not be used after the store is modified.
+     *
+     * @param start The inclusive lower bound, or an empty array to start from the first key
+     * @param end   The exclusive upper bound, or {@code null} to scan to the last key
+     */
+    Iterator<Pair<byte[], byte[]>> scan(byte[] start, byte[] end);
+
     void upsert(byte[] key, byte[] value);
 
     boolean delete(byte[] key);
+
+    /**
+     * Computes the new value of a key from its current one, where an empty result deletes the key,
+     * and returning the given current value leaves the key untouched.
+     *
+     * @return The new value
+     */
+    default Optional<byte[]> compute(byte[] key, UnaryOperator<Optional<byte[]>> function) {
+        var value = find(key);
+        var newValue = function.apply(value);
+        if (newValue == value) return newValue;
+
+        if (newValue.isPresent()) {
+            upsert(key, newValue.get());
+        } else {
+            delete(key);
+        }
+        return newValue;
+    }
+
+    /**
+     * Inserts the key unless it exists.
+     *
+     * @return The existing value, or empty if the key is inserted
+     */
+    default Optional<byte[]> putIfAbsent(byte[] key, byte[] value) {
+        var existing = new AtomicReference<Optional<byte[]>>();
+        compute(key, current -> {
+            existing.set(current);
+            return current.isPresent() ? current : Optional.of(value);
+        });
+        return existing.get();
+    }
+
+    /**
+     * Sets the key to the new value only if its current value equals the expected one.
+     *
+     * @return Whether the value is replaced
+     */
+    default boolean replace(byte[] key, byte[] expected, byte[] newValue) {
+        var replaced = new AtomicBoolean();
+        compute(key, current -> {
+            if (current.isEmpty() || !Arrays.equals(current.get(), expected)) return current;
+            replaced.set(true);
+            return Optional.of(newValue);
+        });
+        return replaced.get();
+    }
+
+    /**
+     * Combines the current value of the key with the operand, see {@link MergeOperator}.
+     *
+     * @return The new value
+     */
+    default byte[] merge(byte[] key, byte[] operand, MergeOperator operator) {
+        return compute(key, current -> Optional.of(operator.merge(current, operand))).orElseThrow();
+    }
+
+    /**
+     * Deletes the keys in [start, end) in a batch.
+     *
+     * @param start The inclusive lower bound, or an empty array to delete from the first key
+     * @param end   The exclusive upper bound, or {@code null} to delete to the last key
+     * @return The number of keys deleted
+     */
+    default long deleteRange(byte[] start, byte[] end) {
+        var keys = new ArrayList<byte[]>();
+        scan(start, end).forEachRemaining(pair -> keys.add(pair.first()));
+        batch(() -> keys.forEach(this::delete));
+        return keys.size();
+    }
+
+    /**
+     * Deletes all the keys starting with the given prefix in a batch.
+     *
+     * @return The number of keys deleted
+     */
+    default long deletePrefix(byte[] prefix) {
+        return deleteRange(prefix, Conversions.successor(prefix));
+    }
+
+    /**
+     * Runs the writes so that they are committed together, or not at all if an exception is thrown.
+     * Nested batches join the outermost one.
+     */
+    void batch(Runnable writes);
 }
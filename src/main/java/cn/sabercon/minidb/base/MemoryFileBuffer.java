@@ -0,0 +1,62 @@
+package cn.sabercon.minidb.base;
+
+import com.google.common.base.Preconditions;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.List;
+
+import static cn.sabercon.minidb.base.DefaultFileBuffer.MIN_BYTE_SIZE;
+
+/**
+ * A buffer of off-heap memory without any file, which grows by chunks of {@link DefaultFileBuffer#MIN_BYTE_SIZE}
+ * and loses its data once unreachable.
+ * <p>
+ * The chunks are never copied when the buffer grows, and a read must stay within a chunk,
+ * which always holds for the pages, as the chunk size is a multiple of the page size.
+ */
+class MemoryFileBuffer implements FileBuffer {
+
+    private final List<MemorySegment> chunks = new ArrayList<>();
+
+    @Override
+    public MemorySegment get(long offset, long byteSize) {
+        Preconditions.checkArgument(offset + byteSize <= byteSize());
+        var inChunk = offset % MIN_BYTE_SIZE;
+        Preconditions.checkArgument(inChunk + byteSize <= MIN_BYTE_SIZE, "The range must be within a chunk");
+
+        return chunks.get((int) (offset / MIN_BYTE_SIZE)).asSlice(inChunk, byteSize);
+    }
+
+    @Override
+    public void set(long offset, MemorySegment data, long byteSize) {
+        extendBuffer(offset + byteSize);
+        // Copies chunk by chunk, as the data may span several ones
+        for (long copied = 0; copied < byteSize; ) {
+            var inChunk = (offset + copied) % MIN_BYTE_SIZE;
+            var length = Math.min(byteSize - copied, MIN_BYTE_SIZE - inChunk);
+            var chunk = chunks.get((int) ((offset + copied) / MIN_BYTE_SIZE));
+            MemorySegment.copy(data, copied, chunk, inChunk, length);
+            copied += length;
+        }
+    }
+
+    @Override
+    public long byteSize() {
+        return (long) MIN_BYTE_SIZE * chunks.size();
+    }
+
+    /**
+     * Does nothing, as there is no file to write to.
+     */
+    @Override
+    public void flush() {
+    }
+
+    private void extendBuffer(long capacity) {
+        while (capacity > byteSize()) {
+            chunks.add(Arena.ofAuto().allocate(MIN_BYTE_SIZE, Long.BYTES));
+        }
+    }
+}
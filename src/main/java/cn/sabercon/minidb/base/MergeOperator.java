@@ -0,0 +1,31 @@
+package cn.sabercon.minidb.base;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Bytes;
+import com.google.common.primitives.Longs;
+
+import java.util.Optional;
+
+/**
+ * Combines the current value of a key with an operand into the new value.
+ */
+@FunctionalInterface
+public interface MergeOperator {
+
+    /**
+     * Adds the operand to the counter, where both are 8-byte big-endian longs and a missing counter is zero.
+     */
+    MergeOperator INCREMENT = (value, operand) -> Longs.toByteArray(value.map(MergeOperator::toLong).orElse(0L) + toLong(operand));
+
+    /**
+     * Appends the operand to the value, where a missing value is empty.
+     */
+    MergeOperator APPEND = (value, operand) -> value.map(bytes -> Bytes.concat(bytes, operand)).orElse(operand);
+
+    byte[] merge(Optional<byte[]> value, byte[] operand);
+
+    private static long toLong(byte[] bytes) {
+        Preconditions.checkArgument(bytes.length == Long.BYTES);
+        return Longs.fromByteArray(bytes);
+    }
+}
@@ -0,0 +1,80 @@
+package cn.sabercon.minidb.base;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A buffer of a file written by another buffer, possibly in another process.
+ * <p>
+ * The file is mapped read-only as it is, and remapped when it has grown, so all the readers share the page cache
+ * of the OS with the writer.
+ */
+class ReadOnlyFileBuffer implements FileBuffer {
+
+    private final Path path;
+
+    private MemorySegment buffer;
+
+    ReadOnlyFileBuffer(Path path) {
+        this.path = path;
+        this.buffer = mapFile(path);
+    }
+
+    @Override
+    public MemorySegment get(long offset, long byteSize) {
+        if (offset + byteSize > buffer.byteSize()) {
+            buffer = mapFile(path);
+        }
+        Preconditions.checkArgument(offset + byteSize <= buffer.byteSize());
+        return buffer.asSlice(offset, byteSize);
+    }
+
+    @Override
+    public void set(long pointer, MemorySegment data, long byteSize) {
+        throw new UnsupportedOperationException("The buffer is read-only");
+    }
+
+    /**
+     * Checks the size of the file, so that the data written since the last mapping is visible.
+     */
+    @Override
+    public long byteSize() {
+        try {
+            if (Files.size(path) > buffer.byteSize()) {
+                buffer = mapFile(path);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffer.byteSize();
+    }
+
+    @Override
+    public void prefetch(long offset, long byteSize) {
+        if (offset < 0 || offset + byteSize > buffer.byteSize()) return;
+
+        var segment = buffer.asSlice(offset, byteSize);
+        DefaultFileBuffer.PREFETCHER.execute(segment::load);
+    }
+
+    /**
+     * Does nothing, as nothing is written.
+     */
+    @Override
+    public void flush() {
+    }
+
+    private static MemorySegment mapFile(Path path) {
+        try (var channel = FileChannel.open(path)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), Arena.ofAuto());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
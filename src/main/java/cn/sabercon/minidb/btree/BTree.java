@@ -2,34 +2,162 @@ package cn.sabercon.minidb.btree;
 
 import cn.sabercon.minidb.base.FileBuffer;
 import cn.sabercon.minidb.base.KeyValueStore;
+import cn.sabercon.minidb.page.AllocationMode;
 import cn.sabercon.minidb.page.PageManager;
 import cn.sabercon.minidb.page.PageType;
 import cn.sabercon.minidb.util.Pair;
-import cn.sabercon.minidb.util.Triple;
 import com.google.common.base.Preconditions;
 
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
 
 import static cn.sabercon.minidb.btree.BTreeConstants.DEFAULT_ROOT_NODE;
 import static cn.sabercon.minidb.btree.BTreeUtils.*;
 import static cn.sabercon.minidb.page.PageConstants.*;
 
-public class BTree implements KeyValueStore {
+public class BTree implements KeyValueStore, AutoCloseable {
+
+    /**
+     * A node is rebalanced with a sibling when it shrinks to this size, with a gap to the merged size below
+     * so that the nodes left are not rebalanced or split again soon.
+     */
+    private static final int MAX_UNDERFULL_BYTES = PAGE_BYTE_SIZE / 4;
+
+    /**
+     * Two nodes are merged when they fit in this size, or their items are redistributed otherwise.
+     */
+    private static final int MAX_MERGED_BYTES = PAGE_BYTE_SIZE * 3 / 4;
+
+    /**
+     * The max times a read is run, where it only fails when the writer keeps committing during all of them.
+     */
+    static final int MAX_READ_ATTEMPTS = 100;
 
     private final PageManager pageManager;
 
-    BTree(PageManager pageManager) {
+    private final SplitPolicy splitPolicy;
+
+    /**
+     * The number of nested batches running, where the root is only flushed when it is zero.
+     */
+    private int batchDepth;
+
+    BTree(PageManager pageManager, SplitPolicy splitPolicy) {
         this.pageManager = pageManager;
+        this.splitPolicy = splitPolicy;
     }
 
+    BTree(PageManager pageManager) {
+        this(pageManager, SplitPolicy.DEFAULT);
+    }
+
+    public static BTree of(PageManager pageManager) {
+        return new BTree(pageManager);
+    }
+
+    public static BTree of(PageManager pageManager, SplitPolicy splitPolicy) {
+        return new BTree(pageManager, splitPolicy);
+    }
+
+    /**
+     * Keeps the recently read pages in a {@code .hot} file next to the given one,
+     * which are preloaded in the background when the file is reopened.
+     * The file is saved periodically and on {@link #close()}.
+     */
     public static BTree from(Path path) {
         var buffer = FileBuffer.from(path);
-        return new BTree(PageManager.of(buffer));
+        var hotPagesFile = path.resolveSibling(STR."\{path.getFileName()}.hot");
+        return BTree.of(PageManager.of(buffer, hotPagesFile));
+    }
+
+    /**
+     * Places the pages of each commit as the given mode decides, see {@link #clean(double)} for the append-only one.
+     */
+    public static BTree from(Path path, AllocationMode mode) {
+        return BTree.of(PageManager.of(FileBuffer.from(path), mode));
+    }
+
+    /**
+     * Creates a tree in memory without any file, for temporary data that is lost once the tree is unreachable.
+     */
+    public static BTree inMemory() {
+        return BTree.of(PageManager.of(FileBuffer.inMemory()));
+    }
+
+    /**
+     * Opens the file to read while another process writes it, where all the writes fail.
+     * A read which finds that the writer has committed since the last check runs again on the latest commit,
+     * as the pages of the old one may be reused.
+     *
+     * @param refreshInterval The min time between two checks for the commits of the writer before a read,
+     *                        where zero checks before every read
+     * @see #refresh()
+     */
+    public static BTree readOnly(Path path, Duration refreshInterval) {
+        return BTree.of(PageManager.readOnly(FileBuffer.readOnly(path), refreshInterval));
     }
 
-    private BTreeNode getRoot() {
+    /**
+     * Picks up the latest commit of the writer now, for a store opened by {@link #readOnly}.
+     */
+    public void refresh() {
+        pageManager.refresh();
+    }
+
+    /**
+     * Runs the read again on the latest commit when the pages read may have been reused by the writer,
+     * which only happens to a store opened by {@link #readOnly}.
+     */
+    <T> T read(Supplier<T> reader) {
+        return read(reader, () -> {
+        });
+    }
+
+    /**
+     * Checks the pages once after the whole read, where a read of reused pages may also fail in any way,
+     * such as reading out of the page, so a failure is only thrown if the pages were still valid.
+     *
+     * @param restart Resets the state of the reader before it runs again on the latest commit
+     */
+    <T> T read(Supplier<T> reader, Runnable restart) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                var result = reader.get();
+                if (!pageManager.readsStale()) return result;
+            } catch (RuntimeException | AssertionError e) {
+                if (attempt == MAX_READ_ATTEMPTS || !pageManager.readsStale()) throw e;
+            }
+            if (attempt == MAX_READ_ATTEMPTS) {
+                throw new ConcurrentModificationException("The pages being read keep being reused by the writer");
+            }
+            pageManager.refresh();
+            restart.run();
+        }
+    }
+
+    /**
+     * Closes the page manager, after which the tree must not be used anymore.
+     */
+    @Override
+    public void close() {
+        pageManager.close();
+    }
+
+    BTreeNode getRoot() {
         var root = pageManager.getRoot();
         return root == NULL_POINTER ? DEFAULT_ROOT_NODE : getNode(root);
     }
@@ -41,13 +169,19 @@ public class BTree implements KeyValueStore {
         }
 
         pageManager.setRoot(root);
-        pageManager.flush();
+        if (batchDepth == 0) {
+            pageManager.flush();
+        }
     }
 
-    private BTreeNode getNode(long pointer) {
+    BTreeNode getNode(long pointer) {
         return BTreeNode.of(pageManager.getPage(pointer));
     }
 
+    void prefetchNode(long pointer) {
+        pageManager.prefetchPage(pointer);
+    }
+
     private void deleteNode(long pointer) {
         pageManager.deletePage(pointer);
     }
@@ -57,30 +191,197 @@ public class BTree implements KeyValueStore {
         return pageManager.createPage(node.data());
     }
 
-    private Pair<byte[], Long> save(BTreeNode node) {
+    private ChildPointer save(BTreeNode node, byte[] key) {
         Preconditions.checkArgument(node.items() > 0);
-        return Pair.of(node.getKey(0), createNode(node));
+        return new ChildPointer(key, createNode(node), node.keyCount());
+    }
+
+    /**
+     * Saves adjacent nodes, where a leaf after another one is pointed to by the shortest separator of the two
+     * instead of its first key.
+     */
+    private List<ChildPointer> save(List<BTreeNode> nodes) {
+        var pointers = new ArrayList<ChildPointer>(nodes.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            var node = nodes.get(i);
+            var key = i > 0 && node.type() == PageType.BTREE_LEAF
+                    ? separator(nodes.get(i - 1).getKey(nodes.get(i - 1).items() - 1), node.getKey(0))
+                    : node.getKey(0);
+            pointers.add(save(node, key));
+        }
+        return pointers;
+    }
+
+    /**
+     * @param appended Whether the node is at the right edge of the tree and the key written is its last key
+     */
+    private List<BTreeNode> splitNode(BTreeNode node, boolean appended) {
+        var fillFactor = appended ? splitPolicy.appendFillFactor() : splitPolicy.fillFactor();
+        return split(pageManager, node, fillFactor);
     }
 
-    private List<Pair<byte[], Long>> save(List<BTreeNode> nodes) {
-        return nodes.stream().map(this::save).toList();
+    private static boolean isLastKey(BTreeNode node, byte[] key) {
+        return node.lookUp(key) == node.items() - 1;
     }
 
-    private void updateRoot(BTreeNode node) {
+    private void updateRoot(BTreeNode node, boolean appended) {
         if (node.type() == PageType.BTREE_INTERNAL && node.items() == 1) {
             setRoot(node.getPointer(0));
+        } else if (node.bytes() <= PAGE_BYTE_SIZE) {
+            setRoot(createNode(node));
         } else {
-            var nodes = split(node);
-            var newRoot = nodes.size() == 1 ? nodes.getFirst() : createRoot(save(nodes));
+            var nodes = splitNode(node, appended);
+            var newRoot = nodes.size() == 1 ? nodes.getFirst() : createRoot(pageManager, save(nodes));
             setRoot(createNode(newRoot));
         }
     }
 
+    /**
+     * Loads all the internal nodes into memory level by level, where the nodes of a level are loaded in parallel.
+     * It removes most of the page faults of lookups on a cold file, as leaves are only a single read away then.
+     */
+    public void warmUp() {
+        read(() -> {
+            warmUpLevels();
+            return null;
+        });
+    }
+
+    private void warmUpLevels() {
+        var height = height();
+        var level = List.of(getRoot());
+        // Stops at the level right above the leaves
+        for (int depth = 1; depth < height - 1; depth++) {
+            var pointers = new ArrayList<Long>();
+            for (var node : level) {
+                for (int i = 0; i < node.items(); i++) {
+                    pointers.add(node.getPointer(i));
+                }
+            }
+            pointers.forEach(this::prefetchNode);
+            // Reading the nodes of the next level waits for them to be loaded
+            level = pointers.stream().map(this::getNode).toList();
+        }
+    }
+
+    /**
+     * Moves the live pages out of the sparse segments of the file, so that the segments become entirely free
+     * and the append-only allocation can fill them again. It reads the whole tree, so it is meant to be run
+     * from time to time between the writes, as the cleaner of a file written by {@link AllocationMode#APPEND}.
+     *
+     * @param minFreeRatio The min fraction of free pages in a segment to be cleaned
+     */
+    public void clean(double minFreeRatio) {
+        relocate(pageManager.sparseSegments(minFreeRatio));
+        pageManager.reclaimSegments();
+    }
+
+    /**
+     * Moves the live pages of the tree out of the given segments in a batch, without reclaiming the segments,
+     * for the trees sharing a file, whose segments are only free once all the trees are moved.
+     *
+     * @param segments The numbers of the segments, see {@link PageManager#sparseSegments(double)}
+     */
+    public void relocate(Set<Long> segments) {
+        if (segments.isEmpty() || pageManager.getRoot() == NULL_POINTER) return;
+
+        batch(() -> {
+            var root = pageManager.getRoot();
+            var relocatedRoot = relocate(root, segments);
+            if (relocatedRoot != root) {
+                setRoot(relocatedRoot);
+            }
+        });
+    }
+
+    /**
+     * Copies the node if it is in one of the segments or any of its children is copied.
+     *
+     * @return The pointer of the node, which is a new one if copied
+     */
+    private long relocate(long pointer, Set<Long> segments) {
+        var node = getNode(pointer);
+        var relocated = segments.contains(pointer / SEGMENT_PAGE_COUNT);
+        long[] kids = null;
+        if (node.type() == PageType.BTREE_INTERNAL) {
+            kids = new long[node.items()];
+            for (int i = 0; i < node.items(); i++) {
+                kids[i] = relocate(node.getPointer(i), segments);
+                relocated |= kids[i] != node.getPointer(i);
+            }
+        }
+        if (!relocated) return pointer;
+
+        deleteNode(pointer);
+        return createNode(BTreeUtils.copy(pageManager, node, kids));
+    }
+
+    /**
+     * @return The number of levels, where all the leaves are at the bottom one
+     */
+    private int height() {
+        var height = 1;
+        for (var node = getRoot(); node.type() == PageType.BTREE_INTERNAL; node = getNode(node.getPointer(0))) {
+            height += 1;
+        }
+        return height;
+    }
+
     @Override
     public Optional<byte[]> find(byte[] key) {
         checkKeySize(key);
 
-        return doFind(getRoot(), key);
+        return read(() -> doFind(getRoot(), key));
+    }
+
+    /**
+     * Sorts the keys and walks the tree once, where each node is visited once for all the keys in its range,
+     * and the children of a node are prefetched before descending into them.
+     */
+    @Override
+    public List<Optional<byte[]>> findAll(Collection<byte[]> keys) {
+        var keyList = List.copyOf(keys);
+        keyList.forEach(BTreeUtils::checkKeySize);
+
+        var order = IntStream.range(0, keyList.size())
+                .boxed()
+                .sorted(Comparator.<Integer, byte[]>comparing(keyList::get, Arrays::compareUnsigned))
+                .mapToInt(Integer::intValue)
+                .toArray();
+        return read(() -> {
+            var results = new ArrayList<Optional<byte[]>>(Collections.nCopies(keyList.size(), Optional.empty()));
+            doFindAll(getRoot(), keyList, order, 0, order.length, results);
+            return results;
+        });
+    }
+
+    /**
+     * Looks up the keys {@code keys[order[from]], ..., keys[order[to - 1]]}, which are in ascending order.
+     */
+    private void doFindAll(BTreeNode node, List<byte[]> keys, int[] order, int from, int to, List<Optional<byte[]>> results) {
+        if (node.type() == PageType.BTREE_LEAF) {
+            for (int i = from; i < to; i++) {
+                results.set(order[i], findInLeaf(node, keys.get(order[i])));
+            }
+            return;
+        }
+
+        // Groups the keys by the children they belong to, as [index, from, to]
+        var groups = new ArrayList<int[]>();
+        for (int i = from; i < to; ) {
+            var index = node.lookUp(keys.get(order[i]));
+            var j = i + 1;
+            while (j < to && (index + 1 == node.items() || node.compareKey(index + 1, keys.get(order[j])) > 0)) {
+                j += 1;
+            }
+            groups.add(new int[]{index, i, j});
+            i = j;
+        }
+
+        groups.forEach(group -> prefetchNode(node.getPointer(group[0])));
+        for (var group : groups) {
+            doFindAll(getNode(node.getPointer(group[0])), keys, order, group[1], group[2], results);
+        }
     }
 
     private Optional<byte[]> doFind(BTreeNode node, byte[] key) {
@@ -97,96 +398,386 @@ public class BTree implements KeyValueStore {
         return doFind(getNode(pointer), key);
     }
 
+    @Override
+    public Iterator<Pair<byte[], byte[]>> scan(byte[] start, byte[] end) {
+        Preconditions.checkArgument(start.length <= MAX_KEY_SIZE);
+
+        return new BTreeIterator(this, start, end);
+    }
+
+    /**
+     * @return The number of keys
+     */
+    public long count() {
+        // Excludes the empty key of the default root node
+        return read(() -> getRoot().keyCount() - 1);
+    }
+
+    /**
+     * @param end The exclusive upper bound, or {@code null} to count to the last key
+     * @return The number of keys in the range [start, end)
+     */
+    public long count(byte[] start, byte[] end) {
+        return read(() -> {
+            var endRank = end == null ? count() : rank(end);
+            return Math.max(0, endRank - rank(start));
+        });
+    }
+
+    /**
+     * Sums up the key counts of the children on the left of the path to the key,
+     * so it only visits a single path.
+     *
+     * @return The number of keys less than the given key
+     */
+    public long rank(byte[] key) {
+        Preconditions.checkArgument(key.length <= MAX_KEY_SIZE);
+        if (key.length == 0) return 0;
+
+        return read(() -> {
+            var node = getRoot();
+            var rank = 0L;
+            while (node.type() == PageType.BTREE_INTERNAL) {
+                var index = node.lookUp(key);
+                for (int i = 0; i < index; i++) {
+                    rank += node.getCount(i);
+                }
+                node = getNode(node.getPointer(index));
+            }
+
+            var index = node.lookUp(key);
+            rank += node.compareKey(index, key) < 0 ? index + 1 : index;
+            // Excludes the empty key of the default root node, which is less than any other key
+            return rank - 1;
+        });
+    }
+
+    /**
+     * @return The key at the given position in key order
+     */
+    public byte[] keyAt(long index) {
+        return read(() -> {
+            Objects.checkIndex(index, count());
+
+            var node = getRoot();
+            // Skips the empty key of the default root node
+            var remaining = index + 1;
+            while (node.type() == PageType.BTREE_INTERNAL) {
+                var i = 0;
+                while (remaining >= node.getCount(i)) {
+                    remaining -= node.getCount(i);
+                    i += 1;
+                }
+                node = getNode(node.getPointer(i));
+            }
+            return node.getKey((int) remaining);
+        });
+    }
+
     @Override
     public void upsert(byte[] key, byte[] value) {
         checkKeySize(key);
         checkValueSize(value);
 
-        var updatedRoot = doUpsert(getRoot(), key, value);
-        updateRoot(updatedRoot);
+        var updatedRoot = doUpsert(getRoot(), key, value, true);
+        updateRoot(updatedRoot, isLastKey(updatedRoot, key));
+    }
+
+    /**
+     * @param rightmost Whether the node is at the right edge of the tree
+     */
+    private BTreeNode doUpsert(BTreeNode node, byte[] key, byte[] value, boolean rightmost) {
+        return switch (node.type()) {
+            case BTREE_LEAF -> upsertInLeaf(pageManager, node, key, value);
+            case BTREE_INTERNAL -> upsertInInternal(node, key, value, rightmost);
+            default -> throw new AssertionError();
+        };
+    }
+
+    private BTreeNode upsertInInternal(BTreeNode node, byte[] key, byte[] value, boolean rightmost) {
+        var index = node.lookUp(key);
+        var pointer = node.getPointer(index);
+        var kidRightmost = rightmost && index == node.items() - 1;
+        var updatedKid = doUpsert(getNode(pointer), key, value, kidRightmost);
+        deleteNode(pointer);
+
+        if (updatedKid.bytes() <= PAGE_BYTE_SIZE) {
+            return updateChild(pageManager, node, index, createNode(updatedKid), updatedKid.keyCount());
+        }
+        var appended = kidRightmost && isLastKey(updatedKid, key);
+        var pointers = save(splitNode(updatedKid, appended)).toArray(ChildPointer[]::new);
+        return updateInInternal(pageManager, node, index, pointers);
+    }
+
+    /**
+     * Reads and rewrites the key in a single descent.
+     */
+    @Override
+    public Optional<byte[]> compute(byte[] key, UnaryOperator<Optional<byte[]>> function) {
+        checkKeySize(key);
+
+        var computation = doCompute(getRoot(), key, function, true);
+        if (computation.node().isPresent()) {
+            var updatedRoot = computation.node().get();
+            updateRoot(updatedRoot, computation.value().isPresent() && isLastKey(updatedRoot, key));
+        }
+        return computation.value();
     }
 
-    private BTreeNode doUpsert(BTreeNode node, byte[] key, byte[] value) {
+    /**
+     * @param node  The updated node, or empty if nothing is changed
+     * @param value The new value of the key
+     */
+    private record Computation(Optional<BTreeNode> node, Optional<byte[]> value) {
+    }
+
+    private Computation doCompute(BTreeNode node, byte[] key, UnaryOperator<Optional<byte[]>> function, boolean rightmost) {
         return switch (node.type()) {
-            case BTREE_LEAF -> upsertInLeaf(node, key, value);
-            case BTREE_INTERNAL -> upsertInInternal(node, key, value);
+            case BTREE_LEAF -> computeInLeaf(node, key, function);
+            case BTREE_INTERNAL -> computeInInternal(node, key, function, rightmost);
             default -> throw new AssertionError();
         };
     }
 
-    private BTreeNode upsertInInternal(BTreeNode node, byte[] key, byte[] value) {
+    private Computation computeInLeaf(BTreeNode node, byte[] key, UnaryOperator<Optional<byte[]>> function) {
+        var value = findInLeaf(node, key);
+        var newValue = function.apply(value);
+        if (newValue == value) {
+            return new Computation(Optional.empty(), newValue);
+        }
+
+        if (newValue.isPresent()) {
+            return new Computation(Optional.of(upsertInLeaf(pageManager, node, key, newValue.get())), newValue);
+        } else {
+            return new Computation(Optional.ofNullable(deleteInLeaf(pageManager, node, key)), newValue);
+        }
+    }
+
+    private Computation computeInInternal(BTreeNode node, byte[] key, UnaryOperator<Optional<byte[]>> function, boolean rightmost) {
         var index = node.lookUp(key);
         var pointer = node.getPointer(index);
-        var updatedKid = doUpsert(getNode(pointer), key, value);
+        var kidRightmost = rightmost && index == node.items() - 1;
+        var computation = doCompute(getNode(pointer), key, function, kidRightmost);
+        if (computation.node().isEmpty()) return computation;
+        var updatedKid = computation.node().get();
         deleteNode(pointer);
 
-        @SuppressWarnings("unchecked") Pair<byte[], Long>[] pointers = save(split(updatedKid)).toArray(Pair[]::new);
-        return updateInInternal(node, index, pointers);
+        var appended = kidRightmost && computation.value().isPresent() && isLastKey(updatedKid, key);
+        return new Computation(Optional.of(updateKid(node, index, updatedKid, appended)), computation.value());
+    }
+
+    @Override
+    public void batch(Runnable writes) {
+        batchDepth += 1;
+        try {
+            writes.run();
+        } catch (RuntimeException | Error e) {
+            if (batchDepth == 1) {
+                pageManager.rollback();
+            }
+            throw e;
+        } finally {
+            batchDepth -= 1;
+        }
+
+        if (batchDepth == 0) {
+            pageManager.flush();
+        }
     }
 
     @Override
     public boolean delete(byte[] key) {
         checkKeySize(key);
 
-        var deletionResult = doDelete(getRoot(), key);
-        if (deletionResult.isEmpty()) return false;
+        var updatedRoot = doDelete(getRoot(), key);
+        if (updatedRoot == null) return false;
 
-        var updatedRoot = deletionResult.get();
-        updateRoot(updatedRoot);
+        updateRoot(updatedRoot, false);
         return true;
     }
 
-    private Optional<BTreeNode> doDelete(BTreeNode node, byte[] key) {
+    /**
+     * Only rewrites the paths to the two bounds, where the subtrees in between are detached as a whole,
+     * and their pages are freed by reading only the internal nodes.
+     */
+    @Override
+    public long deleteRange(byte[] start, byte[] end) {
+        Preconditions.checkArgument(start.length <= MAX_KEY_SIZE);
+        Preconditions.checkArgument(end == null || end.length <= MAX_KEY_SIZE);
+        if (end != null && Arrays.compareUnsigned(start, end) >= 0) return 0;
+
+        var root = getRoot();
+        var deletionResult = doDeleteRange(root, start, end, height());
+        if (deletionResult.isEmpty()) return 0;
+
+        var updatedRoot = deletionResult.get();
+        var deleted = root.keyCount() - updatedRoot.keyCount();
+        // Drops the levels left with a single child
+        while (updatedRoot.type() == PageType.BTREE_INTERNAL && updatedRoot.items() == 1) {
+            var pointer = updatedRoot.getPointer(0);
+            var kid = getNode(pointer);
+            if (kid.type() == PageType.BTREE_LEAF || kid.items() > 1) break;
+            deleteNode(pointer);
+            updatedRoot = kid;
+        }
+        updateRoot(updatedRoot, false);
+        return deleted;
+    }
+
+    private Optional<BTreeNode> doDeleteRange(BTreeNode node, byte[] start, byte[] end, int height) {
+        return switch (node.type()) {
+            case BTREE_LEAF -> deleteRangeInLeaf(pageManager, node, start, end);
+            case BTREE_INTERNAL -> deleteRangeInInternal(node, start, end, height);
+            default -> throw new AssertionError();
+        };
+    }
+
+    /**
+     * A boundary kid of a range deletion, where the pointer is null if the kid is updated and not saved yet.
+     */
+    private record BoundaryKid(BTreeNode node, ChildPointer pointer) {
+    }
+
+    private Optional<BTreeNode> deleteRangeInInternal(BTreeNode node, byte[] start, byte[] end, int height) {
+        var first = node.lookUp(start);
+        var last = end == null ? node.items() - 1 : ceilingIndex(node, end) - 1;
+        if (last < first) return Optional.empty();
+
+        // The kids between the two boundary kids are covered by the range as a whole.
+        for (int i = first + 1; i < last; i++) {
+            freeSubtree(node.getPointer(i), height - 1);
+        }
+        var changed = last - first > 1;
+
+        var kids = new ArrayList<BoundaryKid>();
+        for (var index : first == last ? List.of(first) : List.of(first, last)) {
+            var pointer = node.getPointer(index);
+            var kid = getNode(pointer);
+            var deletionResult = doDeleteRange(kid, start, end, height - 1);
+            if (deletionResult.isEmpty()) {
+                kids.add(new BoundaryKid(kid, new ChildPointer(node.getKey(index), pointer, node.getCount(index))));
+                continue;
+            }
+
+            changed = true;
+            deleteNode(pointer);
+            var updatedKid = deletionResult.get();
+            if (updatedKid.items() > 0) {
+                kids.add(new BoundaryKid(updatedKid, null));
+            }
+        }
+        if (!changed) return Optional.empty();
+
+        var pointers = new ArrayList<ChildPointer>();
+        var underfull = kids.stream().anyMatch(kid -> kid.node().bytes() <= MAX_UNDERFULL_BYTES);
+        if (kids.size() == 2 && underfull) {
+            // The boundary kids are adjacent now, so they are rebalanced like on deletion
+            kids.stream().filter(kid -> kid.pointer() != null).forEach(kid -> deleteNode(kid.pointer().pointer()));
+            var left = kids.get(0).node();
+            var right = kids.get(1).node();
+            var nodes = left.bytes() + right.bytes() - HEADER_SIZE <= MAX_MERGED_BYTES
+                    ? List.of(merge(pageManager, left, right))
+                    : redistribute(pageManager, left, right);
+            pointers.addAll(save(nodes));
+        } else {
+            for (var kid : kids) {
+                if (kid.pointer() != null) {
+                    pointers.add(kid.pointer());
+                } else {
+                    pointers.addAll(save(splitNode(kid.node(), false)));
+                }
+            }
+        }
+        return Optional.of(updateInInternal(pageManager, node, first, last - first + 1, pointers.toArray(ChildPointer[]::new)));
+    }
+
+    /**
+     * Frees all the pages of a subtree, where the leaves are freed by their pointers without being read.
+     */
+    private void freeSubtree(long pointer, int height) {
+        if (height > 1) {
+            var node = getNode(pointer);
+            for (int i = 0; i < node.items(); i++) {
+                freeSubtree(node.getPointer(i), height - 1);
+            }
+        }
+        deleteNode(pointer);
+    }
+
+    /**
+     * @return The updated node, or null if the key doesn't exist, which saves an {@link Optional} on every level
+     */
+    private BTreeNode doDelete(BTreeNode node, byte[] key) {
         return switch (node.type()) {
-            case BTREE_LEAF -> deleteInLeaf(node, key);
+            case BTREE_LEAF -> deleteInLeaf(pageManager, node, key);
             case BTREE_INTERNAL -> deleteInInternal(node, key);
             default -> throw new AssertionError();
         };
     }
 
-    private Optional<BTreeNode> deleteInInternal(BTreeNode node, byte[] key) {
+    private BTreeNode deleteInInternal(BTreeNode node, byte[] key) {
         var index = node.lookUp(key);
         var pointer = node.getPointer(index);
-        var deletionResult = doDelete(getNode(pointer), key);
-        if (deletionResult.isEmpty()) return Optional.empty();
-        var updatedKid = deletionResult.get();
+        var updatedKid = doDelete(getNode(pointer), key);
+        if (updatedKid == null) return null;
         deleteNode(pointer);
 
-        var mergeableResult = mergeableSibling(node, updatedKid, index);
-        if (mergeableResult.isPresent()) {
-            var sibling = mergeableResult.get();
-            var siblingIndex = sibling.first();
-            var siblingPointer = sibling.second();
-            var siblingNode = sibling.third();
+        return updateKid(node, index, updatedKid, false);
+    }
 
-            var merged = index > siblingIndex ? merge(siblingNode, updatedKid) : merge(updatedKid, siblingNode);
+    /**
+     * Replaces the kid at the given index with its updated version, which is rebalanced with a sibling
+     * if it becomes underfull, or split if it becomes oversized.
+     *
+     * @param appended Whether the kid is at the right edge of the tree and the key written is its last key
+     */
+    private BTreeNode updateKid(BTreeNode node, int index, BTreeNode updatedKid, boolean appended) {
+        var siblingIndex = rebalancingSibling(node, updatedKid, index);
+        if (siblingIndex >= 0) {
+            var siblingPointer = node.getPointer(siblingIndex);
+            var siblingNode = getNode(siblingPointer);
+
+            var left = index > siblingIndex ? siblingNode : updatedKid;
+            var right = index > siblingIndex ? updatedKid : siblingNode;
+            var nodes = left.bytes() + right.bytes() - HEADER_SIZE <= MAX_MERGED_BYTES
+                    ? List.of(merge(pageManager, left, right))
+                    : redistribute(pageManager, left, right);
             deleteNode(siblingPointer);
-            return Optional.of(updateInInternal(node, Math.min(index, siblingIndex), 2, save(merged)));
+            var pointers = save(nodes).toArray(ChildPointer[]::new);
+            return updateInInternal(pageManager, node, Math.min(index, siblingIndex), 2, pointers);
         } else if (updatedKid.items() == 0) {
             assert node.items() == 1;
             assert index == 0;
-            return Optional.of(updateInInternal(node, index));
+            return updateInInternal(pageManager, node, index);
+        } else if (updatedKid.bytes() <= PAGE_BYTE_SIZE) {
+            return updateChild(pageManager, node, index, createNode(updatedKid), updatedKid.keyCount());
         } else {
-            @SuppressWarnings("unchecked") Pair<byte[], Long>[] pointers = save(split(updatedKid)).toArray(Pair[]::new);
-            return Optional.of(updateInInternal(node, index, pointers));
+            var pointers = save(splitNode(updatedKid, appended)).toArray(ChildPointer[]::new);
+            return updateInInternal(pageManager, node, index, pointers);
         }
     }
 
-    private Optional<Triple<Integer, Long, BTreeNode>> mergeableSibling(BTreeNode parent, BTreeNode kid, int index) {
-        if (kid.bytes() > PAGE_BYTE_SIZE / 4) {
-            return Optional.empty();
+    /**
+     * Finds the smaller adjacent sibling of an underfull kid, which is merged with it or shares its items with it.
+     *
+     * @return The index of the sibling, or -1 if the kid is not underfull or has no sibling
+     */
+    private int rebalancingSibling(BTreeNode parent, BTreeNode kid, int index) {
+        if (kid.bytes() > MAX_UNDERFULL_BYTES) {
+            return -1;
         }
 
-        for (var siblingIndex : List.of(index - 1, index + 1)) {
+        var result = -1;
+        var resultBytes = 0;
+        for (var siblingIndex = index - 1; siblingIndex <= index + 1; siblingIndex += 2) {
             if (siblingIndex < 0 || siblingIndex >= parent.items()) continue;
 
-            var siblingPointer = parent.getPointer(siblingIndex);
-            var sibling = getNode(siblingPointer);
-            if (sibling.bytes() + kid.bytes() - HEADER_SIZE <= PAGE_BYTE_SIZE) {
-                return Optional.of(Triple.of(siblingIndex, siblingPointer, sibling));
+            var siblingBytes = getNode(parent.getPointer(siblingIndex)).bytes();
+            if (result < 0 || siblingBytes < resultBytes) {
+                result = siblingIndex;
+                resultBytes = siblingBytes;
             }
         }
-
-        return Optional.empty();
+        return result;
     }
 }
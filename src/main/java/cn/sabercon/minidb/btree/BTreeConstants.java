@@ -1,7 +1,10 @@
 package cn.sabercon.minidb.btree;
 
+import cn.sabercon.minidb.page.PageAllocator;
 import cn.sabercon.minidb.page.PageType;
 
+import static cn.sabercon.minidb.page.PageConstants.POINTER_SIZE;
+
 final class BTreeConstants {
 
     private BTreeConstants() {
@@ -10,20 +13,26 @@ final class BTreeConstants {
 
     static final int OFFSET_SIZE = Integer.BYTES;
     static final int LENGTH_SIZE = Integer.BYTES;
+    /**
+     * Each key also keeps its first 8 bytes as a big-endian unsigned long in a contiguous array,
+     * so that most comparisons during a lookup don't need to touch the key itself.
+     */
+    static final int PREFIX_SIZE = Long.BYTES;
+    /**
+     * Internal nodes keep the number of keys in each subtree next to the pointer to it.
+     */
+    static final int COUNT_SIZE = Long.BYTES;
 
+    static final int LEAF_FIXED_ITEM_BYTES = PREFIX_SIZE + OFFSET_SIZE;
     /**
-     * We add some constraints on the size of the keys and values.
-     * So that a node with a single KV pair always fits on a single page.
-     * If you need to support bigger keys or bigger values,
-     * you have to allocate extra pages for them and that adds complexity.
+     * Internal nodes keep the child pointers and the counts in dense arrays, which are read in place on a descent.
      */
-    static final int MAX_KEY_SIZE = 1000;
-    static final int MAX_VALUE_SIZE = 3000;
+    static final int INTERNAL_FIXED_ITEM_BYTES = PREFIX_SIZE + POINTER_SIZE + COUNT_SIZE + OFFSET_SIZE;
 
     static final BTreeNode DEFAULT_ROOT_NODE;
 
     static {
-        var rootNode = BTreeNode.of(PageType.BTREE_LEAF, 1, 1);
+        var rootNode = BTreeNode.of(PageAllocator.HEAP, PageType.BTREE_LEAF, 1, 1);
         var emptyBytes = new byte[0];
         rootNode.appendValue(0, emptyBytes, emptyBytes);
         DEFAULT_ROOT_NODE = rootNode;
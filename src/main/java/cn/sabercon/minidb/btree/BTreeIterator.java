@@ -0,0 +1,168 @@
+package cn.sabercon.minidb.btree;
+
+import cn.sabercon.minidb.page.PageType;
+import cn.sabercon.minidb.util.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks the leaves of a tree in key order by keeping the path from the root to the current leaf.
+ * <p>
+ * Once the scan moves past its first leaf, it prefetches the next children of the nodes on the path,
+ * in a window that doubles every time the scan moves to another leaf.
+ * So short scans never read ahead, while long scans keep more and more pages loading in the background.
+ * <p>
+ * When the pages being read may be reused by the writer of a read-only store, the scan seeks again
+ * on the latest commit right after the last key returned.
+ */
+class BTreeIterator implements Iterator<Pair<byte[], byte[]>> {
+
+    private static final byte[] EMPTY_KEY = new byte[0];
+
+    static final int INITIAL_READAHEAD = 4;
+    static final int MAX_READAHEAD = 64;
+
+    private final BTree tree;
+
+    private final byte[] start;
+
+    private final byte[] end;
+
+    /**
+     * The last key returned, after which the scan seeks again when the pages read may have been reused.
+     */
+    private byte[] lastKey;
+
+    private final List<Level> path = new ArrayList<>();
+
+    /**
+     * The number of children to prefetch after the current one in each node on the path.
+     */
+    private int readahead;
+
+    BTreeIterator(BTree tree, byte[] start, byte[] end) {
+        this.tree = tree;
+        this.start = start;
+        this.end = end;
+        seekLatest();
+    }
+
+    /**
+     * Seeks on the latest commit right after the last key returned.
+     */
+    private void seekLatest() {
+        // The smallest key greater than the last one returned
+        var key = lastKey == null ? start : Arrays.copyOf(lastKey, lastKey.length + 1);
+        tree.read(() -> {
+            path.clear();
+            readahead = 0;
+            seek(key);
+            return null;
+        });
+    }
+
+    private void seek(byte[] start) {
+        var node = tree.getRoot();
+        while (true) {
+            var index = node.lookUp(start);
+            path.add(new Level(node, index));
+            if (node.type() == PageType.BTREE_LEAF) break;
+            node = tree.getNode(node.getPointer(index));
+        }
+
+        // The looked up key is the greatest key that is less than or equal to the start key,
+        // which may also be the empty key of the default root node.
+        var leaf = path.getLast();
+        if (leaf.node.compareKey(leaf.index, start) < 0 || leaf.node.compareKey(leaf.index, EMPTY_KEY) == 0) {
+            advance();
+        }
+    }
+
+    private void advance() {
+        // Moves up until a node still has keys on the right
+        var leafDone = false;
+        while (!path.isEmpty()) {
+            var level = path.getLast();
+            level.index += 1;
+            if (level.index < level.node.items()) break;
+            path.removeLast();
+            leafDone = true;
+        }
+        if (path.isEmpty()) return;
+
+        if (leafDone) {
+            readahead = readahead == 0 ? INITIAL_READAHEAD : Math.min(2 * readahead, MAX_READAHEAD);
+        }
+
+        // Moves down to the leftmost leaf of the subtree
+        var level = path.getLast();
+        while (level.node.type() == PageType.BTREE_INTERNAL) {
+            readAhead(level);
+            level = new Level(tree.getNode(level.node.getPointer(level.index)), 0);
+            path.add(level);
+        }
+    }
+
+    /**
+     * Prefetches the children after the current one in the window, skipping the ones prefetched already
+     * and the ones starting at or after the end key.
+     */
+    private void readAhead(Level level) {
+        var last = Math.min(level.node.items() - 1, level.index + readahead);
+        for (int i = Math.max(level.prefetched, level.index) + 1; i <= last; i++) {
+            if (end != null && level.node.compareKey(i, end) >= 0) break;
+            tree.prefetchNode(level.node.getPointer(i));
+            level.prefetched = i;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return tree.read(this::hasNextOnPath, this::seekLatest);
+    }
+
+    private boolean hasNextOnPath() {
+        if (path.isEmpty()) return false;
+
+        var leaf = path.getLast();
+        return end == null || leaf.node.compareKey(leaf.index, end) < 0;
+    }
+
+    @Override
+    public Pair<byte[], byte[]> next() {
+        var kv = tree.read(() -> {
+            if (!hasNextOnPath()) {
+                throw new NoSuchElementException();
+            }
+
+            var leaf = path.getLast();
+            var next = Pair.of(leaf.node.getKey(leaf.index), leaf.node.getVal(leaf.index));
+            advance();
+            return next;
+        }, this::seekLatest);
+        lastKey = kv.first();
+        return kv;
+    }
+
+    private static final class Level {
+
+        private final BTreeNode node;
+
+        private int index;
+
+        /**
+         * The index of the last child prefetched.
+         */
+        private int prefetched;
+
+        private Level(BTreeNode node, int index) {
+            this.node = node;
+            this.index = index;
+            this.prefetched = index;
+        }
+    }
+}
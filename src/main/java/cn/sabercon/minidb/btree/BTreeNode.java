@@ -1,20 +1,24 @@
 package cn.sabercon.minidb.btree;
 
 import cn.sabercon.minidb.page.Page;
+import cn.sabercon.minidb.page.PageAllocator;
 import cn.sabercon.minidb.page.PageType;
-import cn.sabercon.minidb.util.Conversions;
-import cn.sabercon.minidb.util.Pair;
 import com.google.common.base.Preconditions;
 
 import java.lang.foreign.MemorySegment;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 
-import static cn.sabercon.minidb.btree.BTreeConstants.LENGTH_SIZE;
-import static cn.sabercon.minidb.btree.BTreeConstants.OFFSET_SIZE;
+import static cn.sabercon.minidb.btree.BTreeConstants.*;
 import static cn.sabercon.minidb.page.PageConstants.*;
 
+/**
+ * A node of the B+tree, laid out as the header, the fixed-width arrays of the items and then the variable-width data.
+ * <p>
+ * A leaf keeps the prefixes and the end offsets in the arrays, and each pair as the key length, the key and the value.
+ * An internal node keeps the prefixes, the child pointers, the subtree counts and the end offsets in the arrays,
+ * and only the keys in the data, as the length of a key follows from its offsets.
+ */
 class BTreeNode extends Page {
 
     private BTreeNode(MemorySegment data) {
@@ -25,12 +29,11 @@ class BTreeNode extends Page {
         return new BTreeNode(data);
     }
 
-    static BTreeNode of(PageType type, int keys, int pageCount) {
+    static BTreeNode of(PageAllocator allocator, PageType type, int keys, int pageCount) {
         Preconditions.checkArgument(type == PageType.BTREE_INTERNAL || type == PageType.BTREE_LEAF);
         Preconditions.checkArgument(pageCount == 1 || pageCount == 2);
 
-        var data = MemorySegment.ofArray(new byte[PAGE_BYTE_SIZE * pageCount]);
-        var node = BTreeNode.of(data);
+        var node = BTreeNode.of(allocator.allocate(pageCount));
         node.putInt(0, type.value());
         node.putInt(NODE_TYPE_SIZE, keys);
         return node;
@@ -44,9 +47,39 @@ class BTreeNode extends Page {
         return getInt(NODE_TYPE_SIZE);
     }
 
+    private boolean isInternal() {
+        return getInt(0) == PageType.BTREE_INTERNAL.value();
+    }
+
+    /**
+     * @return The bytes taken by each item in the fixed-width arrays
+     */
+    int fixedItemBytes() {
+        return isInternal() ? INTERNAL_FIXED_ITEM_BYTES : LEAF_FIXED_ITEM_BYTES;
+    }
+
+    private int prefixPos(int index) {
+        Objects.checkIndex(index, items());
+        return HEADER_SIZE + PREFIX_SIZE * index;
+    }
+
+    private int pointerPos(int index) {
+        Objects.checkIndex(index, items());
+        return HEADER_SIZE + PREFIX_SIZE * items() + POINTER_SIZE * index;
+    }
+
+    private int countPos(int index) {
+        Objects.checkIndex(index, items());
+        return HEADER_SIZE + (PREFIX_SIZE + POINTER_SIZE) * items() + COUNT_SIZE * index;
+    }
+
     private int offsetPos(int index) {
         Objects.checkIndex(index, items());
-        return HEADER_SIZE + OFFSET_SIZE * index;
+        return HEADER_SIZE + (fixedItemBytes() - OFFSET_SIZE) * items() + OFFSET_SIZE * index;
+    }
+
+    long getPrefix(int index) {
+        return getLong(prefixPos(index));
     }
 
     int getStartOffset(int index) {
@@ -58,61 +91,117 @@ class BTreeNode extends Page {
     }
 
     private int kvStartPos(int index) {
-        return HEADER_SIZE + OFFSET_SIZE * items() + getStartOffset(index);
+        return HEADER_SIZE + fixedItemBytes() * items() + getStartOffset(index);
     }
 
     private int kvEndPos(int index) {
-        return HEADER_SIZE + OFFSET_SIZE * items() + getEndOffset(index);
+        return HEADER_SIZE + fixedItemBytes() * items() + getEndOffset(index);
+    }
+
+    private int keyStartPos(int index) {
+        var kvStartPos = kvStartPos(index);
+        return isInternal() ? kvStartPos : kvStartPos + LENGTH_SIZE;
+    }
+
+    private int keyLength(int index) {
+        return isInternal() ? getEndOffset(index) - getStartOffset(index) : getInt(kvStartPos(index));
     }
 
     byte[] getKey(int index) {
+        return getBytes(keyStartPos(index), keyLength(index));
+    }
+
+    /**
+     * Compares the key at the given index with the given key in place, as unsigned bytes.
+     */
+    int compareKey(int index, byte[] key) {
+        return compareBytes(keyStartPos(index), keyLength(index), key);
+    }
+
+    private int valStartPos(int index) {
         var kvStartPos = kvStartPos(index);
-        var keyStartPos = kvStartPos + LENGTH_SIZE;
         var keyLength = getInt(kvStartPos);
-        return getBytes(keyStartPos, keyLength);
+        return kvStartPos + LENGTH_SIZE + keyLength;
     }
 
     byte[] getVal(int index) {
-        var kvStartPos = kvStartPos(index);
-        var kvEndPos = kvEndPos(index);
-        var keyLength = getInt(kvStartPos);
-        var valStartPos = kvStartPos + LENGTH_SIZE + keyLength;
-        var valLength = kvEndPos - valStartPos;
+        var valStartPos = valStartPos(index);
+        var valLength = kvEndPos(index) - valStartPos;
         return getBytes(valStartPos, valLength);
     }
 
     long getPointer(int index) {
-        return Conversions.toLong(getVal(index));
+        return getLong(pointerPos(index));
     }
 
-    void appendValue(int index, byte[] key, byte[] val) {
+    /**
+     * @return The number of keys in the subtree of the child at the given index
+     */
+    long getCount(int index) {
+        return getLong(countPos(index));
+    }
+
+    /**
+     * @return The number of keys in the subtree, including the empty key of the default root node
+     */
+    long keyCount() {
+        if (type() == PageType.BTREE_LEAF) {
+            return items();
+        }
+
+        var count = 0L;
+        for (int i = 0; i < items(); i++) {
+            count += getCount(i);
+        }
+        return count;
+    }
+
+    /**
+     * Sets the prefix, the offset and the key, and leaves the value to the caller.
+     *
+     * @return The position of the value
+     */
+    private int appendKey(int index, byte[] key, int valLength) {
         Objects.checkIndex(index, items());
 
+        // Sets prefix
+        putLong(prefixPos(index), prefixOf(key));
+
         // Sets offset
-        var endOffset = getStartOffset(index) + LENGTH_SIZE + key.length + val.length;
+        var endOffset = getStartOffset(index) + LENGTH_SIZE + key.length + valLength;
         putInt(offsetPos(index), endOffset);
 
-        // Sets key-value pair
+        // Sets key
         var kvStartPos = kvStartPos(index);
         putInt(kvStartPos, key.length);
         putBytes(kvStartPos + LENGTH_SIZE, key);
-        putBytes(kvStartPos + LENGTH_SIZE + key.length, val);
+        return kvStartPos + LENGTH_SIZE + key.length;
     }
 
-    void appendPointer(int index, byte[] key, long pointer) {
-        appendValue(index, key, Conversions.toBytes(pointer));
+    void appendValue(int index, byte[] key, byte[] val) {
+        var valStartPos = appendKey(index, key, val.length);
+        putBytes(valStartPos, val);
     }
 
-    void appendValues(int index, List<Pair<byte[], byte[]>> keyValues) {
-        for (var kv : keyValues) {
-            appendValue(index, kv.first(), kv.second());
-            index += 1;
-        }
+    void appendPointer(int index, ChildPointer child) {
+        Objects.checkIndex(index, items());
+
+        var key = child.key();
+        putLong(prefixPos(index), prefixOf(key));
+        putLong(pointerPos(index), child.pointer());
+        putLong(countPos(index), child.count());
+        putInt(offsetPos(index), getStartOffset(index) + key.length);
+        putBytes(kvStartPos(index), key);
+    }
+
+    void setChild(int index, long pointer, long count) {
+        putLong(pointerPos(index), pointer);
+        putLong(countPos(index), count);
     }
 
-    void appendPointers(int index, List<Pair<byte[], Long>> keyPointers) {
-        for (var kv : keyPointers) {
-            appendPointer(index, kv.first(), kv.second());
+    void appendPointers(int index, List<ChildPointer> children) {
+        for (var child : children) {
+            appendPointer(index, child);
             index += 1;
         }
     }
@@ -121,15 +210,21 @@ class BTreeNode extends Page {
         Objects.checkFromToIndex(start, end, src.items());
         Preconditions.checkArgument(index + end - start <= items());
 
-        // Copies offsets
+        // Copies the fixed-width arrays
+        var internal = isInternal();
         var offsetDiff = getStartOffset(index) - src.getStartOffset(start);
         for (int dstI = index, srcI = start; srcI < end; dstI++, srcI++) {
+            putLong(prefixPos(dstI), src.getPrefix(srcI));
+            if (internal) {
+                putLong(pointerPos(dstI), src.getPointer(srcI));
+                putLong(countPos(dstI), src.getCount(srcI));
+            }
             var srcEndOffset = src.getEndOffset(srcI);
             var dstEndOffset = srcEndOffset + offsetDiff;
             putInt(offsetPos(dstI), dstEndOffset);
         }
 
-        // Copies key-value pairs
+        // Copies key-value pairs, or keys of an internal node
         var srcKvStartPos = src.kvStartPos(start);
         var srcKvEndPos = src.kvStartPos(end);
         var kvsLength = srcKvEndPos - srcKvStartPos;
@@ -149,12 +244,16 @@ class BTreeNode extends Page {
      * @return The index of the greatest key that is less than or equal to the given key
      */
     int lookUp(byte[] key) {
-        // Uses binary search
+        // Uses binary search on the prefixes and only compares whole keys on ties
+        var prefix = prefixOf(key);
         var lo = 0;
         var hi = items();
         while (lo < hi - 1) {
             var mid = (lo + hi) / 2;
-            var comparison = Arrays.compare(getKey(mid), key);
+            var comparison = Long.compareUnsigned(getPrefix(mid), prefix);
+            if (comparison == 0) {
+                comparison = compareKey(mid, key);
+            }
             if (comparison < 0) {
                 lo = mid;
             } else if (comparison > 0) {
@@ -165,4 +264,20 @@ class BTreeNode extends Page {
         }
         return lo;
     }
+
+    /**
+     * Packs the first 8 bytes of the key into a big-endian long, padding with zeros.
+     * Since keys are ordered as unsigned bytes, comparing two prefixes as unsigned longs
+     * gives the order of the keys unless the prefixes are equal.
+     */
+    static long prefixOf(byte[] key) {
+        var prefix = 0L;
+        for (int i = 0; i < PREFIX_SIZE; i++) {
+            prefix <<= Byte.SIZE;
+            if (i < key.length) {
+                prefix |= Byte.toUnsignedLong(key[i]);
+            }
+        }
+        return prefix;
+    }
 }
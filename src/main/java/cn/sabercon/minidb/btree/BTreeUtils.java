@@ -1,17 +1,19 @@
 package cn.sabercon.minidb.btree;
 
-import cn.sabercon.minidb.util.Conversions;
+import cn.sabercon.minidb.page.PageAllocator;
 import cn.sabercon.minidb.util.Pair;
 import com.google.common.base.Preconditions;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 
+import static cn.sabercon.minidb.base.KeyValueStore.MAX_KEY_SIZE;
+import static cn.sabercon.minidb.base.KeyValueStore.MAX_VALUE_SIZE;
 import static cn.sabercon.minidb.btree.BTreeConstants.*;
-import static cn.sabercon.minidb.page.PageConstants.HEADER_SIZE;
-import static cn.sabercon.minidb.page.PageConstants.PAGE_BYTE_SIZE;
+import static cn.sabercon.minidb.page.PageConstants.*;
 import static cn.sabercon.minidb.page.PageType.BTREE_INTERNAL;
 import static cn.sabercon.minidb.page.PageType.BTREE_LEAF;
 
@@ -21,6 +23,8 @@ final class BTreeUtils {
         throw new UnsupportedOperationException();
     }
 
+    private static final byte[] EMPTY_KEY = new byte[0];
+
     private static int pageCount(int bytes) {
         Preconditions.checkArgument(bytes <= 2 * PAGE_BYTE_SIZE);
         return bytes <= PAGE_BYTE_SIZE ? 1 : 2;
@@ -34,20 +38,48 @@ final class BTreeUtils {
         Preconditions.checkArgument(value.length <= MAX_VALUE_SIZE);
     }
 
-    @SafeVarargs
-    private static BTreeNode replace(BTreeNode node, int startIndex, int replaced, Pair<byte[], byte[]>... kvs) {
+    /**
+     * @return The bytes taken by a key-value pair in a leaf, including its prefix, offset and length
+     */
+    private static int entryBytes(int keyLength, int valLength) {
+        return LEAF_FIXED_ITEM_BYTES + LENGTH_SIZE + keyLength + valLength;
+    }
+
+    /**
+     * @return The bytes taken by a child in an internal node, including its key, prefix, pointer, count and offset
+     */
+    private static int childEntryBytes(int keyLength) {
+        return INTERNAL_FIXED_ITEM_BYTES + keyLength;
+    }
+
+    /**
+     * Appends the added items to the new node, starting from the given index.
+     */
+    private interface Appender {
+
+        void append(BTreeNode node, int index);
+    }
+
+    private static BTreeNode replace(PageAllocator allocator, BTreeNode node, int startIndex, int replaced, int added, int addedBytes, Appender appender) {
+        var newNode = replaceStart(allocator, node, startIndex, replaced, added, addedBytes);
+        appender.append(newNode, startIndex);
+        newNode.appendRange(startIndex + added, node, startIndex + replaced, node.items());
+        return newNode;
+    }
+
+    /**
+     * Creates the new node of a replacement with the items before the replaced ones, where the added items
+     * and then the ones after the replaced ones are left to the caller.
+     */
+    private static BTreeNode replaceStart(PageAllocator allocator, BTreeNode node, int startIndex, int replaced, int added, int addedBytes) {
         var endIndex = startIndex + replaced;
         Objects.checkFromToIndex(startIndex, endIndex, node.items());
 
-        var addedBytes = (OFFSET_SIZE + LENGTH_SIZE) * kvs.length +
-                Arrays.stream(kvs).mapToInt(kv -> kv.first().length + kv.second().length).sum();
-        var replacedBytes = OFFSET_SIZE * replaced + node.getStartOffset(endIndex) - node.getStartOffset(startIndex);
+        var replacedBytes = node.fixedItemBytes() * replaced + node.getStartOffset(endIndex) - node.getStartOffset(startIndex);
         var newBytes = node.bytes() + addedBytes - replacedBytes;
 
-        var newNode = BTreeNode.of(node.type(), node.items() + kvs.length - replaced, pageCount(newBytes));
+        var newNode = BTreeNode.of(allocator, node.type(), node.items() + added - replaced, pageCount(newBytes));
         newNode.appendRange(0, node, 0, startIndex);
-        newNode.appendValues(startIndex, List.of(kvs));
-        newNode.appendRange(startIndex + kvs.length, node, endIndex, node.items());
         return newNode;
     }
 
@@ -56,68 +88,136 @@ final class BTreeUtils {
         checkKeySize(key);
 
         var index = node.lookUp(key);
-        if (Arrays.equals(key, node.getKey(index))) {
+        if (node.compareKey(index, key) == 0) {
             return Optional.of(node.getVal(index));
         } else {
             return Optional.empty();
         }
     }
 
-    static BTreeNode upsertInLeaf(BTreeNode node, byte[] key, byte[] value) {
+    static BTreeNode upsertInLeaf(PageAllocator allocator, BTreeNode node, byte[] key, byte[] value) {
         Preconditions.checkArgument(node.type() == BTREE_LEAF);
         checkKeySize(key);
         checkValueSize(value);
 
         var index = node.lookUp(key);
-        var kv = Pair.of(key, value);
-        if (Arrays.equals(key, node.getKey(index))) {
-            return replace(node, index, 1, kv);
-        } else {
-            return replace(node, index + 1, 0, kv);
+        var replaced = node.compareKey(index, key) == 0 ? 1 : 0;
+        var startIndex = index + 1 - replaced;
+        // Appends in place rather than through an appender, as a capturing lambda is allocated on every write
+        var newNode = replaceStart(allocator, node, startIndex, replaced, 1, entryBytes(key.length, value.length));
+        newNode.appendValue(startIndex, key, value);
+        newNode.appendRange(startIndex + 1, node, startIndex + replaced, node.items());
+        return newNode;
+    }
+
+    /**
+     * @return The index of the first key greater than or equal to the given key, or the number of items if none
+     */
+    static int ceilingIndex(BTreeNode node, byte[] key) {
+        var index = node.lookUp(key);
+        return node.compareKey(index, key) < 0 ? index + 1 : index;
+    }
+
+    /**
+     * Deletes the keys in [start, end), but never the empty key of the default root node.
+     *
+     * @param end The exclusive upper bound, or {@code null} to delete to the last key
+     */
+    static Optional<BTreeNode> deleteRangeInLeaf(PageAllocator allocator, BTreeNode node, byte[] start, byte[] end) {
+        Preconditions.checkArgument(node.type() == BTREE_LEAF);
+
+        var first = ceilingIndex(node, start);
+        if (first == 0 && node.items() > 0 && node.compareKey(0, EMPTY_KEY) == 0) {
+            first = 1;
         }
+        var last = end == null ? node.items() : ceilingIndex(node, end);
+        if (first >= last) {
+            return Optional.empty();
+        }
+        return Optional.of(replace(allocator, node, first, last - first, 0, 0, (_, _) -> {}));
     }
 
-    static Optional<BTreeNode> deleteInLeaf(BTreeNode node, byte[] key) {
+    /**
+     * @return The updated node, or null if the key doesn't exist
+     */
+    static BTreeNode deleteInLeaf(PageAllocator allocator, BTreeNode node, byte[] key) {
         Preconditions.checkArgument(node.type() == BTREE_LEAF);
         checkKeySize(key);
 
         var index = node.lookUp(key);
-        if (Arrays.equals(key, node.getKey(index))) {
-            return Optional.of(replace(node, index, 1));
+        if (node.compareKey(index, key) == 0) {
+            return replace(allocator, node, index, 1, 0, 0, (_, _) -> {});
         } else {
-            return Optional.empty();
+            return null;
         }
     }
 
-    @SafeVarargs
-    static BTreeNode updateInInternal(BTreeNode node, int index, int replaced, Pair<byte[], Long>... keyPointers) {
+    /**
+     * Finds the shortest key greater than the left key and not greater than the right one,
+     * which separates the two in an internal node with fewer bytes than the right key.
+     */
+    static byte[] separator(byte[] left, byte[] right) {
+        Preconditions.checkArgument(Arrays.compareUnsigned(left, right) < 0);
+
+        return Arrays.copyOf(right, Arrays.mismatch(left, right) + 1);
+    }
+
+    /**
+     * Replaces the children in the range with the given ones, where the first one keeps the key in the node
+     * if it is shorter, as the key still separates the replaced children from the ones before.
+     */
+    static BTreeNode updateInInternal(PageAllocator allocator, BTreeNode node, int index, int replaced, ChildPointer... children) {
         Preconditions.checkArgument(node.type() == BTREE_INTERNAL);
 
-        @SuppressWarnings("unchecked") Pair<byte[], byte[]>[] kvs = Arrays.stream(keyPointers)
-                .map(kv -> Pair.of(kv.first(), Conversions.toBytes(kv.second())))
-                .toArray(Pair[]::new);
-        return replace(node, index, replaced, kvs);
+        if (children.length > 0 && node.getKey(index).length < children[0].key().length) {
+            children = children.clone();
+            children[0] = new ChildPointer(node.getKey(index), children[0].pointer(), children[0].count());
+        }
+
+        var addedBytes = 0;
+        for (var child : children) {
+            addedBytes += childEntryBytes(child.key().length);
+        }
+        return replace(allocator, node, index, replaced, children.length, addedBytes,
+                (newNode, i) -> newNode.appendPointers(i, Arrays.asList(children)));
     }
 
-    @SafeVarargs
-    static BTreeNode updateInInternal(BTreeNode node, int index, Pair<byte[], Long>... keyPointers) {
-        return updateInInternal(node, index, 1, keyPointers);
+    static BTreeNode updateInInternal(PageAllocator allocator, BTreeNode node, int index, ChildPointer... children) {
+        return updateInInternal(allocator, node, index, 1, children);
     }
 
-    static BTreeNode createRoot(List<Pair<byte[], Long>> pointers) {
-        var root = BTreeNode.of(BTREE_INTERNAL, pointers.size(), 1);
-        root.appendPointers(0, pointers);
+    /**
+     * Points the child at the given index to another page, keeping its key, which copies the node as it is
+     * and only overwrites the child arrays.
+     */
+    static BTreeNode updateChild(PageAllocator allocator, BTreeNode node, int index, long pointer, long count) {
+        Preconditions.checkArgument(node.type() == BTREE_INTERNAL);
+
+        var newNode = BTreeNode.of(allocator, BTREE_INTERNAL, node.items(), pageCount(node.bytes()));
+        newNode.appendRange(0, node, 0, node.items());
+        newNode.setChild(index, pointer, count);
+        return newNode;
+    }
+
+    static BTreeNode createRoot(PageAllocator allocator, List<ChildPointer> children) {
+        var root = BTreeNode.of(allocator, BTREE_INTERNAL, children.size(), 1);
+        root.appendPointers(0, children);
         return root;
     }
 
-    static List<BTreeNode> split(BTreeNode node) {
+    /**
+     * Splits an oversized node into nodes fitting in a page.
+     *
+     * @param fillFactor How full the left page is left, as long as the right node fits in a page
+     */
+    static List<BTreeNode> split(PageAllocator allocator, BTreeNode node, double fillFactor) {
         Preconditions.checkArgument(node.bytes() + HEADER_SIZE <= 2 * PAGE_BYTE_SIZE);
 
         if (node.bytes() <= PAGE_BYTE_SIZE) {
             return List.of(node);
         }
 
-        var nodes = split2(node);
+        var nodes = split2(allocator, node, findSplitIndex(node, fillFactor));
         var left = nodes.first();
         var right = nodes.second();
         assert right.bytes() <= PAGE_BYTE_SIZE;
@@ -125,36 +225,59 @@ final class BTreeUtils {
             return List.of(left, right);
         }
 
-        var leftNodes = split2(left);
+        var leftNodes = split2(allocator, left, findMiddleIndex(left));
         assert leftNodes.first().bytes() <= PAGE_BYTE_SIZE;
         assert leftNodes.second().bytes() <= PAGE_BYTE_SIZE;
         return List.of(leftNodes.first(), leftNodes.second(), right);
     }
 
-    private static Pair<BTreeNode, BTreeNode> split2(BTreeNode node) {
-        Preconditions.checkArgument(node.items() >= 2);
-
-        var splitIndex = findSplitIndex(node);
+    private static Pair<BTreeNode, BTreeNode> split2(PageAllocator allocator, BTreeNode node, int splitIndex) {
+        Preconditions.checkArgument(splitIndex > 0 && splitIndex < node.items());
 
-        var leftBytes = HEADER_SIZE + OFFSET_SIZE * splitIndex + node.getStartOffset(splitIndex);
-        var left = BTreeNode.of(node.type(), splitIndex, pageCount(leftBytes));
+        var leftBytes = HEADER_SIZE + bytesBefore(node, splitIndex);
+        var left = BTreeNode.of(allocator, node.type(), splitIndex, pageCount(leftBytes));
         left.appendRange(0, node, 0, splitIndex);
 
-        var right = BTreeNode.of(node.type(), node.items() - splitIndex, 1);
+        var right = BTreeNode.of(allocator, node.type(), node.items() - splitIndex, 1);
         right.appendRange(0, node, splitIndex, node.items());
 
         return Pair.of(left, right);
     }
 
-    private static int findSplitIndex(BTreeNode node) {
+    /**
+     * @return The bytes taken by the items before the given index, excluding the header
+     */
+    private static int bytesBefore(BTreeNode node, int index) {
+        return node.fixedItemBytes() * index + node.getStartOffset(index);
+    }
+
+    private static int findMiddleIndex(BTreeNode node) {
+        return findIndex(node, (node.bytes() - HEADER_SIZE + 1) / 2);
+    }
+
+    private static int findSplitIndex(BTreeNode node, double fillFactor) {
+        // The items not kept on the left must fit in the right page.
+        var minIndex = findIndex(node, node.bytes() - PAGE_BYTE_SIZE);
+        // Takes the last index whose items before it fit in the target bytes.
+        var targetBytes = (int) (fillFactor * PAGE_BYTE_SIZE) - HEADER_SIZE;
+        var index = findIndex(node, targetBytes + 1) - 1;
+        if (index < node.items() - 1 && bytesBefore(node, index + 1) <= targetBytes) {
+            index += 1;
+        }
+        return Math.max(Math.max(index, 1), minIndex);
+    }
+
+    /**
+     * @return The first index in [1, items - 1] whose items before it take at least the target bytes,
+     * or the last one if there is no such index
+     */
+    private static int findIndex(BTreeNode node, int targetBytes) {
         // Uses binary search
         var lo = 1;
         var hi = node.items() - 1;
-        var target = (node.bytes() - HEADER_SIZE + 1) / 2;
         while (lo < hi) {
             var mid = (lo + hi) / 2;
-            var bytes = OFFSET_SIZE * mid + node.getStartOffset(mid);
-            if (bytes < target) {
+            if (bytesBefore(node, mid) < targetBytes) {
                 lo = mid + 1;
             } else {
                 hi = mid;
@@ -163,13 +286,50 @@ final class BTreeUtils {
         return lo;
     }
 
-    static BTreeNode merge(BTreeNode left, BTreeNode right) {
+    /**
+     * Copies a node fitting in a page, where the children of an internal node point to the given pointers instead.
+     */
+    static BTreeNode copy(PageAllocator allocator, BTreeNode node, long[] pointers) {
+        if (node.type() == BTREE_INTERNAL) {
+            var children = new ArrayList<ChildPointer>(node.items());
+            for (int i = 0; i < node.items(); i++) {
+                children.add(new ChildPointer(node.getKey(i), pointers[i], node.getCount(i)));
+            }
+            return createRoot(allocator, children);
+        }
+
+        var copy = BTreeNode.of(allocator, BTREE_LEAF, node.items(), 1);
+        copy.appendRange(0, node, 0, node.items());
+        return copy;
+    }
+
+    /**
+     * Merges two adjacent nodes into one, which may take two pages.
+     */
+    static BTreeNode merge(PageAllocator allocator, BTreeNode left, BTreeNode right) {
         Preconditions.checkArgument(left.type() == right.type());
-        Preconditions.checkArgument(left.bytes() + right.bytes() - HEADER_SIZE <= PAGE_BYTE_SIZE);
 
-        var newNode = BTreeNode.of(left.type(), left.items() + right.items(), 1);
+        var bytes = left.bytes() + right.bytes() - HEADER_SIZE;
+        var newNode = BTreeNode.of(allocator, left.type(), left.items() + right.items(), pageCount(bytes));
         newNode.appendRange(0, left, 0, left.items());
         newNode.appendRange(left.items(), right, 0, right.items());
         return newNode;
     }
+
+    /**
+     * Moves items between two adjacent nodes so that they take about the same bytes.
+     */
+    static List<BTreeNode> redistribute(PageAllocator allocator, BTreeNode left, BTreeNode right) {
+        var merged = merge(allocator, left, right);
+        if (merged.items() < 2) {
+            return List.of(merged);
+        }
+
+        var nodes = split2(allocator, merged, findMiddleIndex(merged));
+        if (nodes.first().bytes() <= PAGE_BYTE_SIZE) {
+            return List.of(nodes.first(), nodes.second());
+        }
+        // A large item in the middle, where the left node is split again
+        return split(allocator, merged, 0.5);
+    }
 }
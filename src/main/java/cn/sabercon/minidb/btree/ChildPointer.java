@@ -0,0 +1,11 @@
+package cn.sabercon.minidb.btree;
+
+/**
+ * A reference from an internal node to one of its children.
+ *
+ * @param key   A key not greater than the keys of the child and greater than the ones of the child before it,
+ *              which is often shorter than the first key of the child
+ * @param count The number of keys in the subtree of the child
+ */
+record ChildPointer(byte[] key, long pointer, long count) {
+}
@@ -0,0 +1,27 @@
+package cn.sabercon.minidb.btree;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Decides how full the left node is left when an oversized node is split, where the rest goes to the right node.
+ *
+ * @param fillFactor       The fill factor of the left page in general
+ * @param appendFillFactor The fill factor of the left page when the node is at the right edge of the tree,
+ *                         and the key written is after all the others, which packs increasing keys densely
+ */
+public record SplitPolicy(double fillFactor, double appendFillFactor) {
+
+    /**
+     * Splits nodes in half, but fills the pages up when appending.
+     */
+    public static final SplitPolicy DEFAULT = new SplitPolicy(0.5, 1.0);
+
+    public SplitPolicy {
+        Preconditions.checkArgument(fillFactor > 0 && fillFactor <= 1);
+        Preconditions.checkArgument(appendFillFactor > 0 && appendFillFactor <= 1);
+    }
+
+    public static SplitPolicy of(double fillFactor, double appendFillFactor) {
+        return new SplitPolicy(fillFactor, appendFillFactor);
+    }
+}
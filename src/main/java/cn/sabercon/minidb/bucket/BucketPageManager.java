@@ -0,0 +1,96 @@
+package cn.sabercon.minidb.bucket;
+
+import cn.sabercon.minidb.page.PageManager;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Set;
+
+/**
+ * The view of the shared page manager for a bucket or the catalog, where the root of a bucket is kept
+ * in the catalog, and the flushes are left to the store so that a batch across buckets is a single commit.
+ */
+class BucketPageManager implements PageManager {
+
+    private final BucketStore store;
+
+    private final PageManager pageManager;
+
+    /**
+     * The name of the bucket in the catalog, or null for the catalog itself, whose root is the one of the file.
+     */
+    private final byte[] key;
+
+    BucketPageManager(BucketStore store, PageManager pageManager, byte[] key) {
+        this.store = store;
+        this.pageManager = pageManager;
+        this.key = key;
+    }
+
+    @Override
+    public void refresh() {
+        pageManager.refresh();
+    }
+
+    @Override
+    public long getRoot() {
+        return key == null ? pageManager.getRoot() : store.rootOf(key);
+    }
+
+    @Override
+    public void setRoot(long root) {
+        if (key == null) {
+            pageManager.setRoot(root);
+        } else {
+            store.setRootOf(key, root);
+        }
+    }
+
+    @Override
+    public MemorySegment getPage(long pointer) {
+        return pageManager.getPage(pointer);
+    }
+
+    @Override
+    public void prefetchPage(long pointer) {
+        pageManager.prefetchPage(pointer);
+    }
+
+    @Override
+    public void deletePage(long pointer) {
+        pageManager.deletePage(pointer);
+    }
+
+    @Override
+    public MemorySegment allocate(int pageCount) {
+        return pageManager.allocate(pageCount);
+    }
+
+    @Override
+    public long createPage(MemorySegment page) {
+        return pageManager.createPage(page);
+    }
+
+    @Override
+    public void flush() {
+        store.commit();
+    }
+
+    /**
+     * Discards the changes of all the buckets since the last commit, as they share it,
+     * which is left to the end of the batch of the store if one is running.
+     */
+    @Override
+    public void rollback() {
+        store.rollbackBucket();
+    }
+
+    @Override
+    public Set<Long> sparseSegments(double minFreeRatio) {
+        return pageManager.sparseSegments(minFreeRatio);
+    }
+
+    @Override
+    public void reclaimSegments() {
+        store.reclaimSegments();
+    }
+}
@@ -0,0 +1,234 @@
+package cn.sabercon.minidb.bucket;
+
+import cn.sabercon.minidb.base.FileBuffer;
+import cn.sabercon.minidb.btree.BTree;
+import cn.sabercon.minidb.page.AllocationMode;
+import cn.sabercon.minidb.page.PageManager;
+import cn.sabercon.minidb.util.Conversions;
+import com.google.common.base.Preconditions;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static cn.sabercon.minidb.page.PageConstants.NULL_POINTER;
+
+/**
+ * Named B+trees in a single file, which share the page manager, the free list and the commits.
+ * <p>
+ * The root of the file is a catalog tree mapping the name of each bucket to the root of its tree,
+ * so such a file can't be opened as a single {@link BTree}. A write to a bucket outside a batch is committed
+ * on its own, and all the writes in a {@link #batch} are committed with a single flush whatever buckets they go to.
+ */
+public class BucketStore implements AutoCloseable {
+
+    private static final byte[] EMPTY_KEY = new byte[0];
+
+    private final PageManager pageManager;
+
+    private final BTree catalog;
+
+    private final Map<String, BTree> buckets = new HashMap<>();
+
+    /**
+     * The number of nested batches running, where the changes are only flushed when it is zero.
+     */
+    private int batchDepth;
+
+    /**
+     * Whether a batch of a single bucket has failed within the running batch,
+     * which is then rolled back as a whole when it ends.
+     */
+    private boolean batchFailed;
+
+    BucketStore(PageManager pageManager) {
+        this.pageManager = pageManager;
+        this.catalog = BTree.of(new BucketPageManager(this, pageManager, null));
+    }
+
+    public static BucketStore of(PageManager pageManager) {
+        return new BucketStore(pageManager);
+    }
+
+    public static BucketStore from(Path path) {
+        return new BucketStore(PageManager.of(FileBuffer.from(path)));
+    }
+
+    /**
+     * Places the pages of each commit as the given mode decides, see {@link #clean(double)} for the append-only one.
+     */
+    public static BucketStore from(Path path, AllocationMode mode) {
+        return new BucketStore(PageManager.of(FileBuffer.from(path), mode));
+    }
+
+    private static byte[] toKey(String name) {
+        Preconditions.checkArgument(!name.isEmpty());
+        return Conversions.toBytes(name);
+    }
+
+    /**
+     * @throws IllegalArgumentException If the bucket exists
+     */
+    public BTree createBucket(String name) {
+        var key = toKey(name);
+        Preconditions.checkArgument(catalog.find(key).isEmpty(), STR."Bucket \{name} already exists");
+
+        batch(() -> catalog.upsert(key, Conversions.toBytes(NULL_POINTER)));
+        return openBucket(name, key);
+    }
+
+    /**
+     * @return The tree of the bucket, which must not be used after the bucket is deleted
+     */
+    public Optional<BTree> bucket(String name) {
+        var key = toKey(name);
+        return catalog.find(key).map(_ -> openBucket(name, key));
+    }
+
+    private BTree openBucket(String name, byte[] key) {
+        return buckets.computeIfAbsent(name, _ -> BTree.of(new BucketPageManager(this, pageManager, key)));
+    }
+
+    /**
+     * Frees all the pages of the bucket and removes it from the catalog in a single commit.
+     *
+     * @return Whether the bucket existed
+     */
+    public boolean deleteBucket(String name) {
+        var key = toKey(name);
+        if (catalog.find(key).isEmpty()) return false;
+
+        var bucket = openBucket(name, key);
+        batch(() -> {
+            bucket.deleteRange(EMPTY_KEY, null);
+            // Only the root with the empty key is left
+            var root = rootOf(key);
+            if (root != NULL_POINTER) {
+                pageManager.deletePage(root);
+            }
+            catalog.delete(key);
+        });
+        buckets.remove(name);
+        return true;
+    }
+
+    /**
+     * @return The names of the buckets in the order of their UTF-8 bytes
+     */
+    public List<String> bucketNames() {
+        var names = new ArrayList<String>();
+        catalog.scan(EMPTY_KEY, null).forEachRemaining(pair -> names.add(Conversions.toString(pair.first())));
+        return names;
+    }
+
+    /**
+     * Moves the live pages of the catalog and all the buckets out of the sparse segments of the file in one commit,
+     * and reclaims the segments then, as a segment may hold the pages of any of them.
+     * Cleaning a single bucket by {@link BTree#clean(double)} only frees the segments holding no other pages.
+     *
+     * @param minFreeRatio The min fraction of free pages in a segment to be cleaned
+     * @see BTree#clean(double)
+     */
+    public void clean(double minFreeRatio) {
+        Preconditions.checkState(batchDepth == 0, "The file can't be cleaned in a batch");
+
+        var segments = pageManager.sparseSegments(minFreeRatio);
+        if (!segments.isEmpty()) {
+            batch(() -> {
+                // The buckets go first, as moving a bucket rewrites its root in the catalog
+                bucketNames().forEach(name -> openBucket(name, toKey(name)).relocate(segments));
+                catalog.relocate(segments);
+            });
+        }
+        pageManager.reclaimSegments();
+    }
+
+    /**
+     * Runs the writes to any of the buckets, which are committed together, or discarded together if any fails.
+     * A failed batch of a single bucket within it discards the whole batch as well, even if its failure is caught.
+     *
+     * @throws IllegalStateException If a batch of a single bucket within it has failed
+     */
+    public void batch(Runnable writes) {
+        batchDepth += 1;
+        try {
+            writes.run();
+        } catch (RuntimeException | Error e) {
+            if (batchDepth == 1) {
+                rollback();
+            }
+            throw e;
+        } finally {
+            batchDepth -= 1;
+        }
+
+        if (batchDepth == 0 && batchFailed) {
+            rollback();
+            throw new IllegalStateException("The batch is discarded, as a batch of a bucket failed in it");
+        }
+        commit();
+    }
+
+    /**
+     * Discards the changes since the last commit, or marks the running batch as failed, which discards them
+     * when it ends, as discarding them now would also drop the writes to the other buckets made in it so far.
+     */
+    void rollbackBucket() {
+        if (batchDepth == 0) {
+            rollback();
+        } else {
+            batchFailed = true;
+        }
+    }
+
+    private void rollback() {
+        batchFailed = false;
+        pageManager.rollback();
+    }
+
+    /**
+     * Reclaims the free segments for a bucket or the catalog cleaned on its own, which commits.
+     */
+    void reclaimSegments() {
+        Preconditions.checkState(batchDepth == 0, "Segments can't be reclaimed in a batch");
+        pageManager.reclaimSegments();
+    }
+
+    /**
+     * Flushes the changes unless a batch is running, in which case they are flushed at the end of it.
+     */
+    void commit() {
+        if (batchDepth == 0) {
+            pageManager.flush();
+        }
+    }
+
+    /**
+     * Closes the file, after which none of the buckets can be used anymore.
+     */
+    @Override
+    public void close() {
+        pageManager.close();
+    }
+
+    long rootOf(byte[] key) {
+        return catalog.find(key)
+                .map(Conversions::toLong)
+                .orElseThrow(() -> new IllegalStateException(STR."Bucket \{Conversions.toString(key)} is deleted"));
+    }
+
+    /**
+     * Records the root in the catalog without flushing, as the bucket flushes right after setting its root.
+     */
+    void setRootOf(byte[] key, long root) {
+        batchDepth += 1;
+        try {
+            catalog.upsert(key, Conversions.toBytes(root));
+        } finally {
+            batchDepth -= 1;
+        }
+    }
+}
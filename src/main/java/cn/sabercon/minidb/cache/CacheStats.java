@@ -0,0 +1,16 @@
+package cn.sabercon.minidb.cache;
+
+/**
+ * @param hits      The number of lookups served by the cache
+ * @param misses    The number of lookups read from the store
+ * @param evictions The number of entries evicted to make room for more frequent ones
+ * @param entries   The number of entries cached
+ * @param bytes     The bytes taken by the entries cached
+ */
+public record CacheStats(long hits, long misses, long evictions, long entries, long bytes) {
+
+    public double hitRate() {
+        var lookups = hits + misses;
+        return lookups == 0 ? 1.0 : (double) hits / lookups;
+    }
+}
@@ -0,0 +1,218 @@
+package cn.sabercon.minidb.cache;
+
+import cn.sabercon.minidb.base.KeyValueStore;
+import cn.sabercon.minidb.util.Pair;
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * Caches the values of the most frequently read keys in front of a store, within a budget of bytes.
+ * <p>
+ * The entries are kept in LRU order, and a new entry is only admitted if it is read more often than
+ * the entries it would evict, as estimated by a {@link FrequencySketch} (TinyLFU).
+ * Writes invalidate their keys, and in a batch the keys written are read from the store until it ends,
+ * so that the cache never holds a value which is not committed.
+ * Like the stores it wraps, it is not thread-safe.
+ */
+public class CachedKeyValueStore implements KeyValueStore {
+
+    /**
+     * The estimated bytes taken by an entry besides its key and value.
+     */
+    static final int ENTRY_OVERHEAD = 64;
+
+    private final KeyValueStore store;
+
+    private final long maxBytes;
+
+    private final FrequencySketch sketch;
+
+    private final LinkedHashMap<ByteBuffer, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    /**
+     * The keys written in the running batch, or null if not in a batch.
+     */
+    private Set<ByteBuffer> batchWrites;
+
+    /**
+     * Whether a range is deleted in the running batch, where the cache is bypassed until it ends.
+     */
+    private boolean batchBypass;
+
+    CachedKeyValueStore(KeyValueStore store, long maxBytes) {
+        Preconditions.checkArgument(maxBytes > 0);
+        this.store = store;
+        this.maxBytes = maxBytes;
+        // The most entries the budget can hold, when the keys and values are tiny
+        this.sketch = new FrequencySketch(maxBytes / ENTRY_OVERHEAD);
+    }
+
+    public static CachedKeyValueStore of(KeyValueStore store, long maxBytes) {
+        return new CachedKeyValueStore(store, maxBytes);
+    }
+
+    public CacheStats stats() {
+        return new CacheStats(hits, misses, evictions, entries.size(), bytes);
+    }
+
+    private boolean bypassed(ByteBuffer key) {
+        return batchWrites != null && (batchBypass || batchWrites.contains(key));
+    }
+
+    @Override
+    public Optional<byte[]> find(byte[] key) {
+        var wrappedKey = ByteBuffer.wrap(key);
+        if (bypassed(wrappedKey)) return store.find(key);
+
+        sketch.increment(key);
+        var value = entries.get(wrappedKey);
+        if (value != null) {
+            hits += 1;
+            return Optional.of(value.clone());
+        }
+
+        misses += 1;
+        var result = store.find(key);
+        result.ifPresent(v -> admit(key, v));
+        return result;
+    }
+
+    @Override
+    public List<Optional<byte[]>> findAll(Collection<byte[]> keys) {
+        var keyList = List.copyOf(keys);
+        var results = new ArrayList<Optional<byte[]>>(keyList.size());
+        var missedPositions = new ArrayList<Integer>();
+        for (var key : keyList) {
+            var wrappedKey = ByteBuffer.wrap(key);
+            var value = bypassed(wrappedKey) ? null : entries.get(wrappedKey);
+            if (value != null) {
+                hits += 1;
+                sketch.increment(key);
+                results.add(Optional.of(value.clone()));
+            } else {
+                missedPositions.add(results.size());
+                results.add(Optional.empty());
+            }
+        }
+        if (missedPositions.isEmpty()) return results;
+
+        var missedKeys = missedPositions.stream().map(keyList::get).toList();
+        var missedValues = store.findAll(missedKeys);
+        for (int i = 0; i < missedPositions.size(); i++) {
+            var key = missedKeys.get(i);
+            var value = missedValues.get(i);
+            results.set(missedPositions.get(i), value);
+            if (bypassed(ByteBuffer.wrap(key))) continue;
+
+            misses += 1;
+            sketch.increment(key);
+            value.ifPresent(v -> admit(key, v));
+        }
+        return results;
+    }
+
+    private void admit(byte[] key, byte[] value) {
+        var size = sizeOf(key, value);
+        // The same key may be missed more than once by a single lookup
+        if (size > maxBytes || entries.containsKey(ByteBuffer.wrap(key))) return;
+
+        var frequency = sketch.frequency(key);
+        var iterator = entries.entrySet().iterator();
+        var freed = 0L;
+        var victims = new ArrayList<Map.Entry<ByteBuffer, byte[]>>();
+        while (bytes - freed + size > maxBytes) {
+            var victim = iterator.next();
+            // Keeps the victims read at least as often as the new key
+            if (sketch.frequency(victim.getKey().array()) >= frequency) return;
+            victims.add(victim);
+            freed += sizeOf(victim.getKey().array(), victim.getValue());
+        }
+
+        victims.forEach(victim -> entries.remove(victim.getKey()));
+        evictions += victims.size();
+        bytes -= freed;
+        entries.put(ByteBuffer.wrap(key.clone()), value.clone());
+        bytes += size;
+    }
+
+    private void invalidate(byte[] key) {
+        var wrappedKey = ByteBuffer.wrap(key);
+        var value = entries.remove(wrappedKey);
+        if (value != null) {
+            bytes -= sizeOf(key, value);
+        }
+        if (batchWrites != null) {
+            batchWrites.add(ByteBuffer.wrap(key.clone()));
+        }
+    }
+
+    private static long sizeOf(byte[] key, byte[] value) {
+        return key.length + value.length + ENTRY_OVERHEAD;
+    }
+
+    @Override
+    public Iterator<Pair<byte[], byte[]>> scan(byte[] start, byte[] end) {
+        return store.scan(start, end);
+    }
+
+    @Override
+    public void upsert(byte[] key, byte[] value) {
+        invalidate(key);
+        store.upsert(key, value);
+    }
+
+    @Override
+    public boolean delete(byte[] key) {
+        invalidate(key);
+        return store.delete(key);
+    }
+
+    @Override
+    public Optional<byte[]> compute(byte[] key, UnaryOperator<Optional<byte[]>> function) {
+        invalidate(key);
+        return store.compute(key, function);
+    }
+
+    @Override
+    public long deleteRange(byte[] start, byte[] end) {
+        entries.entrySet().removeIf(entry -> {
+            var key = entry.getKey().array();
+            var inRange = Arrays.compareUnsigned(key, start) >= 0 && (end == null || Arrays.compareUnsigned(key, end) < 0);
+            if (inRange) {
+                bytes -= sizeOf(key, entry.getValue());
+            }
+            return inRange;
+        });
+        if (batchWrites != null) {
+            batchBypass = true;
+        }
+        return store.deleteRange(start, end);
+    }
+
+    @Override
+    public void batch(Runnable writes) {
+        if (batchWrites != null) {
+            store.batch(writes);
+            return;
+        }
+
+        batchWrites = new HashSet<>();
+        try {
+            store.batch(writes);
+        } finally {
+            batchWrites = null;
+            batchBypass = false;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package cn.sabercon.minidb.cache;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * A count-min sketch estimating how often each key is accessed, in 4-bit counters packed sixteen to a long.
+ * All the counters are halved periodically, so that the estimates follow the recent accesses.
+ * <p>
+ * Each long holds four counters of each row, where a key picks a long per row and one of its four counters in it.
+ */
+class FrequencySketch {
+
+    static final int DEPTH = 4;
+
+    static final int MAX_COUNT = 15;
+
+    /**
+     * The longs taken per expected entry, giving each row sixteen counters per entry,
+     * so that the counters stay sparse for the keys read but not cached, which are many more than the cached ones.
+     */
+    static final int LONGS_PER_ENTRY = 4;
+
+    static final int MAX_TABLE_SIZE = 1 << 20;
+
+    private static final long RESET_MASK = 0x7777_7777_7777_7777L;
+
+    private final long[] table;
+
+    private final int mask;
+
+    private final int resetSize;
+
+    private int additions;
+
+    /**
+     * @param expectedEntries The number of entries expected to be cached
+     */
+    FrequencySketch(long expectedEntries) {
+        var longs = Math.clamp(LONGS_PER_ENTRY * expectedEntries, 4, MAX_TABLE_SIZE);
+        var size = Integer.highestOneBit(longs - 1) << 1;
+        this.table = new long[size];
+        this.mask = size - 1;
+        // Samples ten accesses per counter of a row before halving
+        this.resetSize = 10 * 4 * size;
+    }
+
+    int tableSize() {
+        return table.length;
+    }
+
+    int frequency(byte[] key) {
+        var hash = hash(key);
+        var frequency = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            frequency = Math.min(frequency, count(index(hash, i), offset(hash, i)));
+        }
+        return frequency;
+    }
+
+    void increment(byte[] key) {
+        var hash = hash(key);
+        var added = false;
+        for (int i = 0; i < DEPTH; i++) {
+            var index = index(hash, i);
+            var offset = offset(hash, i);
+            if (count(index, offset) < MAX_COUNT) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+
+        if (added && ++additions >= resetSize) {
+            reset();
+        }
+    }
+
+    private int count(int index, int offset) {
+        return (int) (table[index] >>> offset) & MAX_COUNT;
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private static long hash(byte[] key) {
+        return Hashing.murmur3_128().hashBytes(key).asLong();
+    }
+
+    /**
+     * Derives the index of the long of each row from two halves of the hash.
+     */
+    private int index(long hash, int row) {
+        var hash1 = (int) hash;
+        var hash2 = (int) (hash >>> 32);
+        return (hash1 + row * hash2) & mask;
+    }
+
+    /**
+     * Derives the bit offset of the counter of each row in its long from the rehashed bits,
+     * where each row owns four consecutive counters of the long.
+     */
+    private static int offset(long hash, int row) {
+        var rehash = hash * 0x9E37_79B9_7F4A_7C15L;
+        var counter = (row << 2) + (int) ((rehash >>> (row << 3)) & 3);
+        return counter << 2;
+    }
+}
@@ -0,0 +1,118 @@
+package cn.sabercon.minidb.hash;
+
+import cn.sabercon.minidb.page.Page;
+import cn.sabercon.minidb.page.PageAllocator;
+import cn.sabercon.minidb.page.PageType;
+import com.google.common.base.Preconditions;
+
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static cn.sabercon.minidb.page.PageConstants.*;
+
+/**
+ * A page of entries in no particular order, which may point to an overflow page of the same bucket.
+ * <p>
+ * Layout: HEADER | local depth(4) | bytes(4) | overflow pointer(8) | entries,
+ * where an entry is hash(4) | key length(4) | value length(4) | key | value.
+ */
+class HashBucket extends Page {
+
+    static final int ENTRY_HEADER_SIZE = Integer.BYTES * 3;
+
+    private static final int LOCAL_DEPTH_POS = HEADER_SIZE;
+    private static final int BYTES_POS = LOCAL_DEPTH_POS + Integer.BYTES;
+    private static final int OVERFLOW_POS = BYTES_POS + Integer.BYTES;
+    static final int ENTRIES_POS = OVERFLOW_POS + POINTER_SIZE;
+
+    private HashBucket(MemorySegment data) {
+        super(data);
+    }
+
+    static HashBucket of(MemorySegment data) {
+        return new HashBucket(data);
+    }
+
+    static HashBucket of(PageAllocator allocator, int localDepth, long overflow, List<HashEntry> entries) {
+        Preconditions.checkArgument(bytesOf(entries) <= PAGE_BYTE_SIZE);
+
+        var bucket = HashBucket.of(allocator.allocate(1));
+        bucket.putInt(0, PageType.HASH_BUCKET.value());
+        bucket.putInt(NODE_TYPE_SIZE, entries.size());
+        bucket.putInt(LOCAL_DEPTH_POS, localDepth);
+        bucket.putLong(OVERFLOW_POS, overflow);
+        var pos = ENTRIES_POS;
+        for (var entry : entries) {
+            bucket.putInt(pos, entry.hash());
+            bucket.putInt(pos + Integer.BYTES, entry.key().length);
+            bucket.putInt(pos + Integer.BYTES * 2, entry.value().length);
+            bucket.putBytes(pos + ENTRY_HEADER_SIZE, entry.key());
+            bucket.putBytes(pos + ENTRY_HEADER_SIZE + entry.key().length, entry.value());
+            pos += entry.bytes();
+        }
+        bucket.putInt(BYTES_POS, pos);
+        return bucket;
+    }
+
+    /**
+     * @return The bytes of a page holding the given entries
+     */
+    static int bytesOf(List<HashEntry> entries) {
+        return ENTRIES_POS + entries.stream().mapToInt(HashEntry::bytes).sum();
+    }
+
+    PageType type() {
+        return PageType.of(getInt(0));
+    }
+
+    int items() {
+        return getInt(NODE_TYPE_SIZE);
+    }
+
+    /**
+     * @return The number of leading bits shared by the hashes of all the keys in the bucket
+     */
+    int localDepth() {
+        return getInt(LOCAL_DEPTH_POS);
+    }
+
+    int bytes() {
+        return getInt(BYTES_POS);
+    }
+
+    long overflow() {
+        return getLong(OVERFLOW_POS);
+    }
+
+    /**
+     * Compares the hashes first, so that the keys are only compared when the hashes match.
+     */
+    Optional<byte[]> find(int hash, byte[] key) {
+        var pos = ENTRIES_POS;
+        for (int i = 0; i < items(); i++) {
+            var keyLength = getInt(pos + Integer.BYTES);
+            var valueLength = getInt(pos + Integer.BYTES * 2);
+            var keyPos = pos + ENTRY_HEADER_SIZE;
+            if (getInt(pos) == hash && keyLength == key.length && compareBytes(keyPos, keyLength, key) == 0) {
+                return Optional.of(getBytes(keyPos + keyLength, valueLength));
+            }
+            pos = keyPos + keyLength + valueLength;
+        }
+        return Optional.empty();
+    }
+
+    List<HashEntry> entries() {
+        var entries = new ArrayList<HashEntry>(items());
+        var pos = ENTRIES_POS;
+        for (int i = 0; i < items(); i++) {
+            var keyLength = getInt(pos + Integer.BYTES);
+            var valueLength = getInt(pos + Integer.BYTES * 2);
+            var keyPos = pos + ENTRY_HEADER_SIZE;
+            entries.add(new HashEntry(getInt(pos), getBytes(keyPos, keyLength), getBytes(keyPos + keyLength, valueLength)));
+            pos = keyPos + keyLength + valueLength;
+        }
+        return entries;
+    }
+}
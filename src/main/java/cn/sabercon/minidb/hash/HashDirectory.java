@@ -0,0 +1,76 @@
+package cn.sabercon.minidb.hash;
+
+import cn.sabercon.minidb.page.Page;
+import cn.sabercon.minidb.page.PageAllocator;
+import cn.sabercon.minidb.page.PageType;
+import com.google.common.base.Preconditions;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+import static cn.sabercon.minidb.page.PageConstants.*;
+
+/**
+ * A page of pointers, either to the directory pages from the root or to the buckets from a directory page.
+ * <p>
+ * Layout: HEADER | depth(4) | padding(4) | pointers
+ */
+class HashDirectory extends Page {
+
+    /**
+     * The max number of pointers in a page, a power of two so that the directory is split evenly into pages.
+     */
+    static final int CAPACITY = 256;
+
+    private static final int DEPTH_SIZE = Integer.BYTES * 2;
+
+    private HashDirectory(MemorySegment data) {
+        super(data);
+    }
+
+    static HashDirectory of(MemorySegment data) {
+        return new HashDirectory(data);
+    }
+
+    static HashDirectory of(PageAllocator allocator, int depth, long[] pointers) {
+        Preconditions.checkArgument(pointers.length <= CAPACITY);
+
+        var directory = HashDirectory.of(allocator.allocate(1));
+        directory.putInt(0, PageType.HASH_DIRECTORY.value());
+        directory.putInt(NODE_TYPE_SIZE, pointers.length);
+        directory.putInt(HEADER_SIZE, depth);
+        for (int i = 0; i < pointers.length; i++) {
+            directory.putLong(pointerPos(i), pointers[i]);
+        }
+        return directory;
+    }
+
+    PageType type() {
+        return PageType.of(getInt(0));
+    }
+
+    int items() {
+        return getInt(NODE_TYPE_SIZE);
+    }
+
+    /**
+     * @return The number of leading bits of the hashes used to index the whole directory
+     */
+    int depth() {
+        return getInt(HEADER_SIZE);
+    }
+
+    long getPointer(int index) {
+        Objects.checkIndex(index, items());
+        return getLong(pointerPos(index));
+    }
+
+    long[] pointers() {
+        return IntStream.range(0, items()).mapToLong(this::getPointer).toArray();
+    }
+
+    private static int pointerPos(int index) {
+        return HEADER_SIZE + DEPTH_SIZE + POINTER_SIZE * index;
+    }
+}
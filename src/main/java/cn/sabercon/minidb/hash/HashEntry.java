@@ -0,0 +1,11 @@
+package cn.sabercon.minidb.hash;
+
+/**
+ * A key-value pair in a bucket, together with the hash of the key.
+ */
+record HashEntry(int hash, byte[] key, byte[] value) {
+
+    int bytes() {
+        return HashBucket.ENTRY_HEADER_SIZE + key.length + value.length;
+    }
+}
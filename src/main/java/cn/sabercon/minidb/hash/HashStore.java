@@ -0,0 +1,374 @@
+package cn.sabercon.minidb.hash;
+
+import cn.sabercon.minidb.base.FileBuffer;
+import cn.sabercon.minidb.base.KeyValueStore;
+import cn.sabercon.minidb.page.PageManager;
+import cn.sabercon.minidb.util.Pair;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static cn.sabercon.minidb.page.PageConstants.NULL_POINTER;
+import static cn.sabercon.minidb.page.PageConstants.PAGE_BYTE_SIZE;
+
+/**
+ * A key-value store keeping the pairs in an extendible hash table, for the workloads of point lookups only.
+ * <p>
+ * The directory maps the leading bits of the hash of a key to its bucket, and is split into pages
+ * which are pointed to by the root page. So a lookup reads three pages however many keys there are,
+ * while a scan has to read and sort all the pairs. A full bucket is split in two by one more bit,
+ * and the directory doubles when the bucket is already split by as many bits as the directory.
+ * Once the directory reaches its max depth, or the keys share the same hash, the full buckets chain
+ * overflow pages instead. Like {@link cn.sabercon.minidb.btree.BTree}, the pages are copied on write,
+ * and the changes are flushed on every write outside a batch.
+ */
+public class HashStore implements KeyValueStore, AutoCloseable {
+
+    /**
+     * The root page points to at most 2^16 / {@link HashDirectory#CAPACITY} directory pages.
+     */
+    static final int MAX_DEPTH = 16;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_32_fixed();
+
+    private final PageManager pageManager;
+
+    private final int maxDepth;
+
+    /**
+     * The number of nested batches running, where the root is only flushed when it is zero.
+     */
+    private int batchDepth;
+
+    HashStore(PageManager pageManager, int maxDepth) {
+        Preconditions.checkArgument(maxDepth >= 0 && maxDepth <= MAX_DEPTH);
+        this.pageManager = pageManager;
+        this.maxDepth = maxDepth;
+    }
+
+    public static HashStore of(PageManager pageManager) {
+        return new HashStore(pageManager, MAX_DEPTH);
+    }
+
+    /**
+     * Keeps the recently read pages in a {@code .hot} file next to the given one,
+     * which are preloaded in the background when the file is reopened.
+     */
+    public static HashStore from(Path path) {
+        var buffer = FileBuffer.from(path);
+        var hotPagesFile = path.resolveSibling(STR."\{path.getFileName()}.hot");
+        return HashStore.of(PageManager.of(buffer, hotPagesFile));
+    }
+
+    /**
+     * Closes the page manager, after which the store must not be used anymore.
+     */
+    @Override
+    public void close() {
+        pageManager.close();
+    }
+
+    private static int hash(byte[] key) {
+        return HASH_FUNCTION.hashBytes(key).asInt();
+    }
+
+    private static int directoryIndex(int hash, int depth) {
+        return depth == 0 ? 0 : hash >>> (Integer.SIZE - depth);
+    }
+
+    private static void checkKeySize(byte[] key) {
+        Preconditions.checkArgument(key.length > 0 && key.length <= MAX_KEY_SIZE);
+    }
+
+    private static void checkValueSize(byte[] value) {
+        Preconditions.checkArgument(value.length <= MAX_VALUE_SIZE);
+    }
+
+    private HashDirectory getDirectory(long pointer) {
+        return HashDirectory.of(pageManager.getPage(pointer));
+    }
+
+    private HashBucket getBucket(long pointer) {
+        return HashBucket.of(pageManager.getPage(pointer));
+    }
+
+    private void setRoot(long root) {
+        var oldRoot = pageManager.getRoot();
+        if (oldRoot != NULL_POINTER && oldRoot != root) {
+            pageManager.deletePage(oldRoot);
+        }
+
+        pageManager.setRoot(root);
+        if (batchDepth == 0) {
+            pageManager.flush();
+        }
+    }
+
+    /**
+     * @return The number of leading bits of the hashes used to index the directory
+     */
+    int depth() {
+        var root = pageManager.getRoot();
+        return root == NULL_POINTER ? 0 : getDirectory(root).depth();
+    }
+
+    private long bucketPointer(int hash) {
+        var root = getDirectory(pageManager.getRoot());
+        var index = directoryIndex(hash, root.depth());
+        var directory = getDirectory(root.getPointer(index / HashDirectory.CAPACITY));
+        return directory.getPointer(index % HashDirectory.CAPACITY);
+    }
+
+    @Override
+    public Optional<byte[]> find(byte[] key) {
+        checkKeySize(key);
+        if (pageManager.getRoot() == NULL_POINTER) return Optional.empty();
+
+        var hash = hash(key);
+        for (var pointer = bucketPointer(hash); pointer != NULL_POINTER; ) {
+            var bucket = getBucket(pointer);
+            var value = bucket.find(hash, key);
+            if (value.isPresent()) return value;
+            pointer = bucket.overflow();
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Reads and sorts all the pairs in range, as the buckets are not in the order of the keys.
+     */
+    @Override
+    public Iterator<Pair<byte[], byte[]>> scan(byte[] start, byte[] end) {
+        Preconditions.checkArgument(start.length <= MAX_KEY_SIZE);
+        Preconditions.checkArgument(end == null || end.length <= MAX_KEY_SIZE);
+
+        var pairs = new ArrayList<Pair<byte[], byte[]>>();
+        var root = pageManager.getRoot();
+        if (root == NULL_POINTER) return pairs.iterator();
+
+        var buckets = new LinkedHashSet<Long>();
+        for (var directoryPointer : getDirectory(root).pointers()) {
+            buckets.addAll(Longs.asList(getDirectory(directoryPointer).pointers()));
+        }
+        for (var bucket : buckets) {
+            for (var entry : readChain(bucket, 0).entries()) {
+                var key = entry.key();
+                if (Arrays.compareUnsigned(key, start) >= 0 && (end == null || Arrays.compareUnsigned(key, end) < 0)) {
+                    pairs.add(Pair.of(key, entry.value()));
+                }
+            }
+        }
+        pairs.sort(Comparator.<Pair<byte[], byte[]>, byte[]>comparing(Pair::first, Arrays::compareUnsigned));
+        return pairs.iterator();
+    }
+
+    @Override
+    public void upsert(byte[] key, byte[] value) {
+        checkKeySize(key);
+        checkValueSize(value);
+
+        var hash = hash(key);
+        var directory = new Directory();
+        var chain = readChain(directory.get(hash), directory.depth);
+        var entries = chain.entries();
+        entries.removeIf(entry -> entry.hash() == hash && Arrays.equals(entry.key(), key));
+        entries.add(new HashEntry(hash, key, value));
+        writeBucket(directory, hash, chain, entries);
+        directory.save();
+    }
+
+    @Override
+    public boolean delete(byte[] key) {
+        checkKeySize(key);
+        if (pageManager.getRoot() == NULL_POINTER) return false;
+
+        var hash = hash(key);
+        var directory = new Directory();
+        var chain = readChain(directory.get(hash), directory.depth);
+        var entries = chain.entries();
+        if (!entries.removeIf(entry -> entry.hash() == hash && Arrays.equals(entry.key(), key))) return false;
+
+        // The buckets are never merged, as they are likely to be filled again
+        writeBucket(directory, hash, chain, entries);
+        directory.save();
+        return true;
+    }
+
+    /**
+     * A bucket with all its overflow pages.
+     *
+     * @param pointers The pointers of the pages, starting with the head
+     */
+    private record Chain(List<Long> pointers, int localDepth, List<HashEntry> entries) {
+    }
+
+    /**
+     * @param localDepth The local depth of the bucket if it doesn't exist yet
+     */
+    private Chain readChain(long head, int localDepth) {
+        var pointers = new ArrayList<Long>();
+        var entries = new ArrayList<HashEntry>();
+        for (var pointer = head; pointer != NULL_POINTER; ) {
+            var bucket = getBucket(pointer);
+            pointers.add(pointer);
+            entries.addAll(bucket.entries());
+            localDepth = bucket.localDepth();
+            pointer = bucket.overflow();
+        }
+        return new Chain(pointers, localDepth, entries);
+    }
+
+    /**
+     * Replaces the bucket of the given hash with the given entries,
+     * splitting it until the half containing the hash fits in a page or can't be split any more.
+     */
+    private void writeBucket(Directory directory, int hash, Chain chain, List<HashEntry> entries) {
+        chain.pointers().forEach(pageManager::deletePage);
+
+        var localDepth = chain.localDepth();
+        while (HashBucket.bytesOf(entries) > PAGE_BYTE_SIZE && localDepth < maxDepth) {
+            if (localDepth == directory.depth) {
+                directory.grow();
+            }
+            var bit = Integer.SIZE - 1 - localDepth;
+            localDepth += 1;
+            var halves = entries.stream().collect(Collectors.partitioningBy(entry -> ((entry.hash() ^ hash) >>> bit & 1) == 0));
+            directory.set(hash ^ (1 << bit), localDepth, writeChain(localDepth, halves.get(false)));
+            entries = halves.get(true);
+        }
+        directory.set(hash, localDepth, writeChain(localDepth, entries));
+    }
+
+    /**
+     * Packs the entries into pages from the last one, so that each page can point to the next one.
+     *
+     * @return The pointer of the head page
+     */
+    private long writeChain(int localDepth, List<HashEntry> entries) {
+        var pointer = NULL_POINTER;
+        var end = entries.size();
+        do {
+            var start = end;
+            var bytes = HashBucket.ENTRIES_POS;
+            while (start > 0 && bytes + entries.get(start - 1).bytes() <= PAGE_BYTE_SIZE) {
+                start -= 1;
+                bytes += entries.get(start).bytes();
+            }
+            var bucket = HashBucket.of(pageManager, localDepth, pointer, entries.subList(start, end));
+            pointer = pageManager.createPage(bucket.data());
+            end = start;
+        } while (end > 0);
+        return pointer;
+    }
+
+    @Override
+    public void batch(Runnable writes) {
+        batchDepth += 1;
+        try {
+            writes.run();
+        } catch (RuntimeException | Error e) {
+            if (batchDepth == 1) {
+                pageManager.rollback();
+            }
+            throw e;
+        } finally {
+            batchDepth -= 1;
+        }
+
+        if (batchDepth == 0) {
+            pageManager.flush();
+        }
+    }
+
+    /**
+     * The directory being updated by a write, where only the directory pages updated are copied.
+     */
+    private class Directory {
+
+        private int depth;
+
+        /**
+         * The pointers of the directory pages, or null pointers for the new ones.
+         */
+        private final List<Long> pagePointers = new ArrayList<>();
+
+        private final Map<Integer, long[]> updatedPages = new HashMap<>();
+
+        Directory() {
+            var root = pageManager.getRoot();
+            if (root == NULL_POINTER) {
+                pagePointers.add(NULL_POINTER);
+                updatedPages.put(0, new long[]{NULL_POINTER});
+            } else {
+                var directory = getDirectory(root);
+                depth = directory.depth();
+                pagePointers.addAll(Longs.asList(directory.pointers()));
+            }
+        }
+
+        private long get(int hash) {
+            var index = directoryIndex(hash, depth);
+            var updated = updatedPages.get(index / HashDirectory.CAPACITY);
+            return updated != null
+                    ? updated[index % HashDirectory.CAPACITY]
+                    : getDirectory(pagePointers.get(index / HashDirectory.CAPACITY)).getPointer(index % HashDirectory.CAPACITY);
+        }
+
+        /**
+         * Points all the indexes sharing the leading bits of the given hash to the given bucket.
+         */
+        private void set(int hash, int localDepth, long bucket) {
+            var count = 1 << (depth - localDepth);
+            var start = directoryIndex(hash, depth) & -count;
+            for (int i = start; i < start + count; i++) {
+                var page = updatedPages.computeIfAbsent(i / HashDirectory.CAPACITY, p -> getDirectory(pagePointers.get(p)).pointers());
+                page[i % HashDirectory.CAPACITY] = bucket;
+            }
+        }
+
+        /**
+         * Doubles the directory by one more bit, which copies all the directory pages.
+         */
+        private void grow() {
+            Preconditions.checkState(depth < MAX_DEPTH);
+
+            var size = 1 << depth;
+            var pointers = new long[size * 2];
+            for (int i = 0; i < size; i++) {
+                var updated = updatedPages.get(i / HashDirectory.CAPACITY);
+                var bucket = updated != null
+                        ? updated[i % HashDirectory.CAPACITY]
+                        : getDirectory(pagePointers.get(i / HashDirectory.CAPACITY)).getPointer(i % HashDirectory.CAPACITY);
+                pointers[i * 2] = bucket;
+                pointers[i * 2 + 1] = bucket;
+            }
+
+            pagePointers.stream().filter(pointer -> pointer != NULL_POINTER).forEach(pageManager::deletePage);
+            pagePointers.clear();
+            updatedPages.clear();
+            depth += 1;
+            var pageSize = Math.min(pointers.length, HashDirectory.CAPACITY);
+            for (int page = 0; page * pageSize < pointers.length; page++) {
+                pagePointers.add(NULL_POINTER);
+                updatedPages.put(page, Arrays.copyOfRange(pointers, page * pageSize, (page + 1) * pageSize));
+            }
+        }
+
+        private void save() {
+            updatedPages.forEach((page, pointers) -> {
+                var oldPointer = pagePointers.get(page);
+                if (oldPointer != NULL_POINTER) {
+                    pageManager.deletePage(oldPointer);
+                }
+                pagePointers.set(page, pageManager.createPage(HashDirectory.of(pageManager, depth, pointers).data()));
+            });
+            var root = HashDirectory.of(pageManager, depth, Longs.toArray(pagePointers));
+            setRoot(pageManager.createPage(root.data()));
+        }
+    }
+}
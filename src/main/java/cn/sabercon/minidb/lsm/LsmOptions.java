@@ -0,0 +1,37 @@
+package cn.sabercon.minidb.lsm;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Decides when the memtable is flushed and when the levels are compacted.
+ *
+ * @param memtableBytes    The bytes of the memtable at which it is flushed to a table in level 0
+ * @param level0Tables     The number of tables in level 0 at which they are merged into level 1
+ * @param level1Bytes      The max bytes of level 1, where each deeper level may be bigger by the multiplier
+ * @param levelMultiplier  The ratio of the max bytes of a level to the ones of the level above it
+ * @param tableBytes       The bytes at which a table written by a compaction is closed and the next one started
+ */
+public record LsmOptions(long memtableBytes, int level0Tables, long level1Bytes, int levelMultiplier, long tableBytes) {
+
+    public static final LsmOptions DEFAULT = new LsmOptions(4 << 20, 4, 16 << 20, 10, 2 << 20);
+
+    public LsmOptions {
+        Preconditions.checkArgument(memtableBytes > 0);
+        Preconditions.checkArgument(level0Tables > 0);
+        Preconditions.checkArgument(level1Bytes > 0);
+        Preconditions.checkArgument(levelMultiplier > 1);
+        Preconditions.checkArgument(tableBytes > 0);
+    }
+
+    public static LsmOptions of(long memtableBytes, int level0Tables, long level1Bytes, int levelMultiplier, long tableBytes) {
+        return new LsmOptions(memtableBytes, level0Tables, level1Bytes, levelMultiplier, tableBytes);
+    }
+
+    long maxBytes(int level) {
+        var bytes = level1Bytes;
+        for (int i = 1; i < level; i++) {
+            bytes *= levelMultiplier;
+        }
+        return bytes;
+    }
+}
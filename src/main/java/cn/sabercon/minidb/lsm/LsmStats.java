@@ -0,0 +1,18 @@
+package cn.sabercon.minidb.lsm;
+
+/**
+ * @param userBytes    The bytes of the keys and values written by the callers
+ * @param writtenBytes The bytes written to the files, by the log, the flushes and the compactions
+ * @param lookups      The number of keys looked up
+ * @param blockReads   The number of table blocks read by the lookups, where the Bloom filters rule out the others
+ */
+public record LsmStats(long userBytes, long writtenBytes, long lookups, long blockReads) {
+
+    public double writeAmplification() {
+        return userBytes == 0 ? 0.0 : (double) writtenBytes / userBytes;
+    }
+
+    public double readAmplification() {
+        return lookups == 0 ? 0.0 : (double) blockReads / lookups;
+    }
+}
@@ -0,0 +1,587 @@
+package cn.sabercon.minidb.lsm;
+
+import cn.sabercon.minidb.base.KeyValueStore;
+import cn.sabercon.minidb.util.Pair;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A key-value store built as a log-structured merge tree, for the workloads dominated by writes.
+ * <p>
+ * The writes are logged and put into a sorted memtable, which is flushed to a table in level 0 once it is full.
+ * A background thread merges the tables of level 0 into level 1 once there are enough of them,
+ * and each deeper level into the next one once it outgrows its size, where every level but level 0
+ * is a single sorted run split into tables. So a write only appends to the log, and is rewritten about once
+ * per level later, while a lookup reads at most one block of each table whose Bloom filter may contain the key.
+ * The {@code MANIFEST} file lists the tables of each level.
+ * Like the other stores, it is not thread-safe, apart from its own background thread.
+ */
+public class LsmStore implements KeyValueStore, AutoCloseable {
+
+    /**
+     * The value of a deleted key, compared by identity, which hides the older values until it is compacted away.
+     */
+    static final byte[] TOMBSTONE = new byte[0];
+
+    /**
+     * The estimated bytes taken by a memtable entry besides its key and value.
+     */
+    static final int ENTRY_OVERHEAD = 32;
+
+    private static final Comparator<byte[]> KEY_ORDER = Arrays::compareUnsigned;
+
+    private static final byte[] EMPTY_KEY = new byte[0];
+
+    private static final String MANIFEST = "MANIFEST";
+
+    private static final String TABLE_SUFFIX = ".sst";
+
+    private static final String LOG_SUFFIX = ".log";
+
+    private final Path directory;
+
+    private final LsmOptions options;
+
+    private final ExecutorService compactor;
+
+    private final Object lock = new Object();
+
+    private final AtomicLong nextFileNumber;
+
+    private final LongAdder userBytes = new LongAdder();
+
+    private final LongAdder writtenBytes = new LongAdder();
+
+    private final LongAdder lookups = new LongAdder();
+
+    private final LongAdder blockReads = new LongAdder();
+
+    private NavigableMap<byte[], byte[]> memtable = new TreeMap<>(KEY_ORDER);
+
+    private long memtableBytes;
+
+    private WriteAheadLog log;
+
+    /**
+     * The writes of the running batch, or null if not in a batch.
+     */
+    private NavigableMap<byte[], byte[]> batchWrites;
+
+    /**
+     * Replaced by the caller when the memtable is frozen, and by the background thread when a flush
+     * or a compaction is done, both holding the lock.
+     */
+    private volatile Version version;
+
+    private volatile Throwable failure;
+
+    /**
+     * The tables of the store, together with the memtable being flushed.
+     *
+     * @param immutable The full memtable being flushed, or null if none
+     * @param level0    The tables of level 0 from the newest to the oldest, which may overlap
+     * @param levels    The tables of level 1 and deeper, each level in ascending key order without overlaps
+     */
+    private record Version(NavigableMap<byte[], byte[]> immutable, List<SSTable> level0, List<List<SSTable>> levels) {
+    }
+
+    LsmStore(Path directory, LsmOptions options) {
+        this.directory = directory;
+        this.options = options;
+        this.compactor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("minidb-lsm-%d").build());
+
+        List<Path> files;
+        try {
+            Files.createDirectories(directory);
+            try (var paths = Files.list(directory)) {
+                files = paths.toList();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        var manifest = readManifest();
+        var liveTables = manifest.stream().flatMap(List::stream).collect(Collectors.toSet());
+        var maxNumber = Stream.concat(liveTables.stream(), files.stream().map(LsmStore::fileNumber).filter(Objects::nonNull))
+                .mapToLong(Long::longValue)
+                .max()
+                .orElse(0);
+        this.nextFileNumber = new AtomicLong(maxNumber + 1);
+
+        // The tables not in the manifest are left by an interrupted flush or compaction
+        files.stream()
+                .filter(path -> path.getFileName().toString().endsWith(TABLE_SUFFIX) && !liveTables.contains(fileNumber(path)))
+                .forEach(LsmStore::deleteFile);
+
+        var level0 = manifest.isEmpty() ? List.<SSTable>of() : manifest.getFirst().stream().map(this::openTable).toList();
+        var levels = manifest.stream().skip(1).map(level -> level.stream().map(this::openTable).toList()).toList();
+        this.version = new Version(null, level0, levels);
+
+        var logs = files.stream()
+                .filter(path -> path.getFileName().toString().endsWith(LOG_SUFFIX))
+                .sorted(Comparator.comparing(LsmStore::fileNumber))
+                .toList();
+        logs.forEach(path -> WriteAheadLog.replay(path, memtable::put));
+        if (!memtable.isEmpty()) {
+            // Flushes the replayed writes at once, so that the old logs can be deleted
+            version = new Version(null, prepend(writeTable(memtable), level0), levels);
+            writeManifest(version);
+            memtable = new TreeMap<>(KEY_ORDER);
+        }
+        logs.forEach(LsmStore::deleteFile);
+        this.log = new WriteAheadLog(filePath(nextFileNumber.getAndIncrement(), LOG_SUFFIX));
+
+        compactor.execute(background(this::compact));
+    }
+
+    public static LsmStore of(Path directory, LsmOptions options) {
+        return new LsmStore(directory, options);
+    }
+
+    /**
+     * Keeps the tables and the logs in the given directory.
+     */
+    public static LsmStore from(Path directory) {
+        return of(directory, LsmOptions.DEFAULT);
+    }
+
+    public LsmStats stats() {
+        return new LsmStats(userBytes.sum(), writtenBytes.sum(), lookups.sum(), blockReads.sum());
+    }
+
+    /**
+     * @return The number of tables in each level, starting from level 0
+     */
+    List<Integer> tableCounts() {
+        var current = version;
+        return Stream.concat(Stream.of(current.level0()), current.levels().stream()).map(List::size).toList();
+    }
+
+    /**
+     * Waits until the flushes and compactions scheduled so far are done.
+     */
+    void awaitBackground() {
+        try {
+            compactor.submit(() -> {
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IllegalStateException(e.getCause());
+        }
+        checkFailure();
+    }
+
+    private static void checkKeySize(byte[] key) {
+        Preconditions.checkArgument(key.length > 0 && key.length <= MAX_KEY_SIZE);
+    }
+
+    private static void checkValueSize(byte[] value) {
+        Preconditions.checkArgument(value.length <= MAX_VALUE_SIZE);
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("The background flush or compaction failed", failure);
+        }
+    }
+
+    @Override
+    public Optional<byte[]> find(byte[] key) {
+        checkKeySize(key);
+
+        var value = batchWrites == null ? null : batchWrites.get(key);
+        if (value == null) {
+            lookups.increment();
+            value = memtable.get(key);
+        }
+        if (value == null) {
+            value = lookup(version, key);
+        }
+        return value == null || value == TOMBSTONE ? Optional.empty() : Optional.of(value.clone());
+    }
+
+    /**
+     * Looks up the key from the newest tables to the oldest ones, and stops at the first one having it.
+     */
+    private byte[] lookup(Version current, byte[] key) {
+        if (current.immutable() != null) {
+            var value = current.immutable().get(key);
+            if (value != null) return value;
+        }
+        for (var table : current.level0()) {
+            var value = table.find(key, blockReads);
+            if (value != null) return value;
+        }
+        for (var run : current.levels()) {
+            var index = floorTable(run, key);
+            if (index < 0) continue;
+            var value = run.get(index).find(key, blockReads);
+            if (value != null) return value;
+        }
+        return null;
+    }
+
+    /**
+     * @return The index of the last table in a run whose first key is not after the given key, or -1 if none
+     */
+    private static int floorTable(List<SSTable> run, byte[] key) {
+        int low = 0, high = run.size() - 1;
+        while (low <= high) {
+            var mid = (low + high) >>> 1;
+            if (KEY_ORDER.compare(run.get(mid).firstKey(), key) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    @Override
+    public Iterator<Pair<byte[], byte[]>> scan(byte[] start, byte[] end) {
+        Preconditions.checkArgument(start.length <= MAX_KEY_SIZE);
+        Preconditions.checkArgument(end == null || end.length <= MAX_KEY_SIZE);
+
+        var current = version;
+        var iterators = new ArrayList<Iterator<Pair<byte[], byte[]>>>();
+        if (batchWrites != null) {
+            iterators.add(pairs(batchWrites, start));
+        }
+        iterators.add(pairs(memtable, start));
+        if (current.immutable() != null) {
+            iterators.add(pairs(current.immutable(), start));
+        }
+        current.level0().forEach(table -> iterators.add(table.iterator(start)));
+        current.levels().forEach(run -> iterators.add(runIterator(run, start)));
+
+        var merged = new MergingIterator(iterators);
+        return new AbstractIterator<>() {
+            @Override
+            protected Pair<byte[], byte[]> computeNext() {
+                while (merged.hasNext()) {
+                    var pair = merged.next();
+                    if (end != null && KEY_ORDER.compare(pair.first(), end) >= 0) break;
+                    if (pair.second() != TOMBSTONE) return pair;
+                }
+                return endOfData();
+            }
+        };
+    }
+
+    private static Iterator<Pair<byte[], byte[]>> pairs(NavigableMap<byte[], byte[]> map, byte[] start) {
+        return Iterators.transform(map.tailMap(start, true).entrySet().iterator(), entry -> Pair.of(entry.getKey(), entry.getValue()));
+    }
+
+    private static Iterator<Pair<byte[], byte[]>> runIterator(List<SSTable> run, byte[] start) {
+        var first = Math.max(floorTable(run, start), 0);
+        return Iterators.concat(run.subList(first, run.size()).stream().map(table -> table.iterator(start)).iterator());
+    }
+
+    @Override
+    public void upsert(byte[] key, byte[] value) {
+        checkKeySize(key);
+        checkValueSize(value);
+
+        write(key.clone(), value.clone());
+    }
+
+    @Override
+    public boolean delete(byte[] key) {
+        checkKeySize(key);
+        if (find(key).isEmpty()) return false;
+
+        write(key.clone(), TOMBSTONE);
+        return true;
+    }
+
+    private void write(byte[] key, byte[] value) {
+        if (batchWrites != null) {
+            batchWrites.put(key, value);
+            return;
+        }
+
+        var writes = new TreeMap<byte[], byte[]>(KEY_ORDER);
+        writes.put(key, value);
+        commit(writes);
+    }
+
+    /**
+     * Buffers the writes until the batch ends, and then logs them as a single record.
+     */
+    @Override
+    public void batch(Runnable writes) {
+        if (batchWrites != null) {
+            writes.run();
+            return;
+        }
+
+        NavigableMap<byte[], byte[]> batch;
+        batchWrites = new TreeMap<>(KEY_ORDER);
+        try {
+            writes.run();
+            batch = batchWrites;
+        } finally {
+            batchWrites = null;
+        }
+        if (!batch.isEmpty()) {
+            commit(batch);
+        }
+    }
+
+    private void commit(NavigableMap<byte[], byte[]> writes) {
+        checkFailure();
+
+        writtenBytes.add(log.append(writes));
+        writes.forEach((key, value) -> {
+            userBytes.add(key.length + value.length);
+            memtable.put(key, value);
+            memtableBytes += key.length + value.length + ENTRY_OVERHEAD;
+        });
+        if (memtableBytes >= options.memtableBytes()) {
+            freezeMemtable();
+        }
+    }
+
+    /**
+     * Hands the memtable over to the background thread to be flushed, after the last one is flushed.
+     */
+    private void freezeMemtable() {
+        synchronized (lock) {
+            while (version.immutable() != null) {
+                checkFailure();
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+            }
+            version = new Version(memtable, version.level0(), version.levels());
+        }
+
+        var frozen = memtable;
+        var frozenLog = log;
+        memtable = new TreeMap<>(KEY_ORDER);
+        memtableBytes = 0;
+        log = new WriteAheadLog(filePath(nextFileNumber.getAndIncrement(), LOG_SUFFIX));
+        compactor.execute(background(() -> {
+            flush(frozen, frozenLog);
+            compact();
+        }));
+    }
+
+    private Runnable background(Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException | Error e) {
+                failure = e;
+                synchronized (lock) {
+                    lock.notifyAll();
+                }
+            }
+        };
+    }
+
+    private void flush(NavigableMap<byte[], byte[]> frozen, WriteAheadLog frozenLog) {
+        var table = writeTable(frozen);
+        synchronized (lock) {
+            version = new Version(null, prepend(table, version.level0()), version.levels());
+            writeManifest(version);
+            lock.notifyAll();
+        }
+        frozenLog.delete();
+    }
+
+    private void compact() {
+        while (true) {
+            var current = version;
+            if (current.level0().size() >= options.level0Tables()) {
+                compactLevel(current, 0);
+                continue;
+            }
+
+            var oversized = IntStream.range(0, current.levels().size())
+                    .filter(i -> bytesOf(current.levels().get(i)) > options.maxBytes(i + 1))
+                    .findFirst();
+            if (oversized.isEmpty()) return;
+            compactLevel(current, oversized.getAsInt() + 1);
+        }
+    }
+
+    /**
+     * Merges all the tables of a level into the next level, which is rewritten as a whole.
+     * Only runs on the background thread, so no other thread changes the levels meanwhile.
+     */
+    private void compactLevel(Version current, int level) {
+        var upper = level == 0 ? current.level0() : current.levels().get(level - 1);
+        var lower = level < current.levels().size() ? current.levels().get(level) : List.<SSTable>of();
+
+        var iterators = new ArrayList<Iterator<Pair<byte[], byte[]>>>();
+        if (level == 0) {
+            upper.forEach(table -> iterators.add(table.iterator(EMPTY_KEY)));
+        } else {
+            iterators.add(runIterator(upper, EMPTY_KEY));
+        }
+        iterators.add(runIterator(lower, EMPTY_KEY));
+        // The deleted keys can only be dropped when there is no older value below them
+        var bottom = current.levels().size() <= level + 1;
+        var tables = writeTables(new MergingIterator(iterators), bottom);
+
+        synchronized (lock) {
+            var levels = new ArrayList<>(version.levels());
+            if (level > 0) {
+                levels.set(level - 1, List.of());
+            }
+            if (level < levels.size()) {
+                levels.set(level, tables);
+            } else {
+                levels.add(tables);
+            }
+            var level0 = level == 0 ? List.<SSTable>of() : version.level0();
+            version = new Version(version.immutable(), level0, List.copyOf(levels));
+            writeManifest(version);
+        }
+        Stream.concat(upper.stream(), lower.stream()).forEach(table -> deleteFile(filePath(table.number(), TABLE_SUFFIX)));
+    }
+
+    private SSTable writeTable(NavigableMap<byte[], byte[]> pairs) {
+        var number = nextFileNumber.getAndIncrement();
+        var writer = new SSTableWriter(filePath(number, TABLE_SUFFIX));
+        pairs.forEach(writer::add);
+        return finishTable(writer, number);
+    }
+
+    /**
+     * Writes the pairs to tables, starting a new table whenever one reaches its size.
+     */
+    private List<SSTable> writeTables(Iterator<Pair<byte[], byte[]>> pairs, boolean dropTombstones) {
+        var tables = new ArrayList<SSTable>();
+        SSTableWriter writer = null;
+        var number = 0L;
+        while (pairs.hasNext()) {
+            var pair = pairs.next();
+            if (dropTombstones && pair.second() == TOMBSTONE) continue;
+
+            if (writer == null) {
+                number = nextFileNumber.getAndIncrement();
+                writer = new SSTableWriter(filePath(number, TABLE_SUFFIX));
+            }
+            writer.add(pair.first(), pair.second());
+            if (writer.bytes() >= options.tableBytes()) {
+                tables.add(finishTable(writer, number));
+                writer = null;
+            }
+        }
+        if (writer != null) {
+            tables.add(finishTable(writer, number));
+        }
+        return tables;
+    }
+
+    private SSTable finishTable(SSTableWriter writer, long number) {
+        writtenBytes.add(writer.finish());
+        return openTable(number);
+    }
+
+    private SSTable openTable(long number) {
+        return SSTable.open(filePath(number, TABLE_SUFFIX), number);
+    }
+
+    private static List<SSTable> prepend(SSTable table, List<SSTable> tables) {
+        return Stream.concat(Stream.of(table), tables.stream()).toList();
+    }
+
+    private static long bytesOf(List<SSTable> tables) {
+        return tables.stream().mapToLong(SSTable::bytes).sum();
+    }
+
+    private Path filePath(long number, String suffix) {
+        return directory.resolve(STR."\{number}\{suffix}");
+    }
+
+    /**
+     * @return The number of a table or a log file, or null if it is another file
+     */
+    private static Long fileNumber(Path path) {
+        var name = path.getFileName().toString();
+        if (!name.endsWith(TABLE_SUFFIX) && !name.endsWith(LOG_SUFFIX)) return null;
+        try {
+            return Long.parseLong(name.substring(0, name.lastIndexOf('.')));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void deleteFile(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return The numbers of the tables in each level, starting from level 0
+     */
+    private List<List<Long>> readManifest() {
+        var path = directory.resolve(MANIFEST);
+        if (!Files.exists(path)) return List.of();
+
+        try {
+            return Files.readAllLines(path).stream()
+                    .map(line -> Arrays.stream(line.split(" ")).filter(s -> !s.isEmpty()).map(Long::parseLong).toList())
+                    .toList();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes a line of table numbers per level to a temporary file first, and then moves it over the manifest.
+     */
+    private void writeManifest(Version version) {
+        var lines = Stream.concat(Stream.of(version.level0()), version.levels().stream())
+                .map(tables -> tables.stream().map(table -> String.valueOf(table.number())).collect(Collectors.joining(" ")))
+                .toList();
+        try {
+            var tempFile = directory.resolve(STR."\{MANIFEST}.tmp");
+            Files.write(tempFile, lines, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE, StandardOpenOption.SYNC);
+            Files.move(tempFile, directory.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Waits for the background flushes and compactions, while the memtable is left in the log to be replayed.
+     */
+    @Override
+    public void close() {
+        compactor.close();
+        log.close();
+    }
+}
@@ -0,0 +1,58 @@
+package cn.sabercon.minidb.lsm;
+
+import cn.sabercon.minidb.util.Pair;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges sorted iterators into one, where a key in more than one of them takes the pair of the newest one.
+ */
+class MergingIterator extends AbstractIterator<Pair<byte[], byte[]>> {
+
+    /**
+     * @param age The position of the iterator in the given ones, where a smaller one is newer
+     */
+    private record Source(PeekingIterator<Pair<byte[], byte[]>> iterator, int age) {
+    }
+
+    private final PriorityQueue<Source> queue = new PriorityQueue<>(
+            Comparator.<Source, byte[]>comparing(source -> source.iterator().peek().first(), Arrays::compareUnsigned)
+                    .thenComparingInt(Source::age));
+
+    /**
+     * @param iterators The iterators from the newest to the oldest
+     */
+    MergingIterator(List<? extends Iterator<Pair<byte[], byte[]>>> iterators) {
+        for (int i = 0; i < iterators.size(); i++) {
+            offer(new Source(Iterators.peekingIterator(iterators.get(i)), i));
+        }
+    }
+
+    private void offer(Source source) {
+        if (source.iterator().hasNext()) {
+            queue.add(source);
+        }
+    }
+
+    @Override
+    protected Pair<byte[], byte[]> computeNext() {
+        var source = queue.poll();
+        if (source == null) return endOfData();
+
+        var pair = source.iterator().next();
+        offer(source);
+        while (!queue.isEmpty() && Arrays.equals(queue.peek().iterator().peek().first(), pair.first())) {
+            var older = queue.poll();
+            older.iterator().next();
+            offer(older);
+        }
+        return pair;
+    }
+}
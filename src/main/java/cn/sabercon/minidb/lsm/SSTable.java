@@ -0,0 +1,183 @@
+package cn.sabercon.minidb.lsm;
+
+import cn.sabercon.minidb.util.Pair;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static cn.sabercon.minidb.lsm.LsmStore.TOMBSTONE;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+/**
+ * An immutable table file written by {@link SSTableWriter}, mapped into memory.
+ * <p>
+ * The index and the Bloom filter are loaded when the table is opened, so a lookup reads at most one block,
+ * and none if the Bloom filter rules the key out. The mapping is released once the table is unreachable,
+ * so the file can be deleted while an iterator is still reading it.
+ */
+class SSTable {
+
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+    private static final int FOOTER_SIZE = Long.BYTES * 3;
+
+    private final long number;
+
+    private final MemorySegment data;
+
+    private final byte[][] blockFirstKeys;
+
+    /**
+     * The offsets of the blocks, followed by the end of the last one.
+     */
+    private final long[] blockOffsets;
+
+    private final BloomFilter<byte[]> bloomFilter;
+
+    private SSTable(long number, MemorySegment data) {
+        this.number = number;
+        this.data = data;
+
+        var footerOffset = data.byteSize() - FOOTER_SIZE;
+        Preconditions.checkState(footerOffset >= 0 && data.get(LONG, footerOffset + Long.BYTES * 2) == SSTableWriter.MAGIC,
+                "Not a table file");
+        var indexOffset = data.get(LONG, footerOffset);
+        var bloomFilterOffset = data.get(LONG, footerOffset + Long.BYTES);
+
+        var blocks = data.get(INT, indexOffset);
+        this.blockFirstKeys = new byte[blocks][];
+        this.blockOffsets = new long[blocks + 1];
+        var pos = indexOffset + Integer.BYTES;
+        for (int i = 0; i < blocks; i++) {
+            blockOffsets[i] = data.get(LONG, pos);
+            var keyLength = data.get(INT, pos + Long.BYTES);
+            blockFirstKeys[i] = getBytes(pos + Long.BYTES + Integer.BYTES, keyLength);
+            pos += Long.BYTES + Integer.BYTES + keyLength;
+        }
+        blockOffsets[blocks] = indexOffset;
+
+        var bloomFilterBytes = getBytes(bloomFilterOffset, (int) (footerOffset - bloomFilterOffset));
+        try {
+            this.bloomFilter = BloomFilter.readFrom(new ByteArrayInputStream(bloomFilterBytes), Funnels.byteArrayFunnel());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static SSTable open(Path path, long number) {
+        try (var channel = FileChannel.open(path)) {
+            return new SSTable(number, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), Arena.ofAuto()));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    long number() {
+        return number;
+    }
+
+    long bytes() {
+        return data.byteSize();
+    }
+
+    byte[] firstKey() {
+        return blockFirstKeys[0];
+    }
+
+    private byte[] getBytes(long offset, int length) {
+        var bytes = new byte[length];
+        MemorySegment.copy(data, JAVA_BYTE, offset, bytes, 0, length);
+        return bytes;
+    }
+
+    /**
+     * @return The index of the last block whose first key is not after the given key, or -1 if none
+     */
+    private int floorBlock(byte[] key) {
+        int low = 0, high = blockFirstKeys.length - 1;
+        while (low <= high) {
+            var mid = (low + high) >>> 1;
+            if (Arrays.compareUnsigned(blockFirstKeys[mid], key) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * @return The value, {@link LsmStore#TOMBSTONE} if the key is deleted, or null if the table doesn't have the key
+     */
+    byte[] find(byte[] key, LongAdder blockReads) {
+        if (!bloomFilter.mightContain(key)) return null;
+        var block = floorBlock(key);
+        if (block < 0) return null;
+
+        blockReads.increment();
+        var entries = new BlockIterator(block, blockOffsets[block + 1]);
+        while (entries.hasNext()) {
+            var entry = entries.next();
+            var order = Arrays.compareUnsigned(entry.first(), key);
+            if (order == 0) return entry.second();
+            if (order > 0) return null;
+        }
+        return null;
+    }
+
+    /**
+     * Iterates over the pairs from the given key, including the deleted ones.
+     */
+    Iterator<Pair<byte[], byte[]>> iterator(byte[] start) {
+        var entries = new BlockIterator(Math.max(floorBlock(start), 0), blockOffsets[blockOffsets.length - 1]);
+        while (entries.hasNext() && Arrays.compareUnsigned(entries.peek().first(), start) < 0) {
+            entries.next();
+        }
+        return entries;
+    }
+
+    /**
+     * Iterates over the entries from the start of a block to the given end.
+     */
+    private class BlockIterator extends AbstractIterator<Pair<byte[], byte[]>> {
+
+        private final long end;
+
+        private long pos;
+
+        BlockIterator(int block, long end) {
+            this.pos = blockOffsets[block];
+            this.end = end;
+        }
+
+        @Override
+        protected Pair<byte[], byte[]> computeNext() {
+            if (pos >= end) return endOfData();
+
+            var keyLength = data.get(INT, pos);
+            var valueLength = data.get(INT, pos + Integer.BYTES);
+            var key = getBytes(pos + Integer.BYTES * 2, keyLength);
+            pos += Integer.BYTES * 2 + keyLength;
+            if (valueLength < 0) return Pair.of(key, TOMBSTONE);
+
+            var value = getBytes(pos, valueLength);
+            pos += valueLength;
+            return Pair.of(key, value);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package cn.sabercon.minidb.lsm;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static cn.sabercon.minidb.lsm.LsmStore.TOMBSTONE;
+
+/**
+ * Writes the pairs in ascending key order to a new table file.
+ * <p>
+ * Layout: blocks | index | Bloom filter | index offset(8) | Bloom filter offset(8) | magic(8), where a block is
+ * a run of key length(4) | value length(4) | key | value, and the index keeps the first key of each block.
+ * A deleted key has a value length of -1.
+ */
+class SSTableWriter {
+
+    static final int BLOCK_SIZE = 4096;
+
+    static final long MAGIC = 0x6D696E6964622D31L;
+
+    static final double BLOOM_FILTER_FPP = 0.01;
+
+    private final FileChannel channel;
+
+    private final DataOutputStream out;
+
+    private final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE * 2);
+
+    private final DataOutputStream blockOut = new DataOutputStream(block);
+
+    private final List<byte[]> blockFirstKeys = new ArrayList<>();
+
+    private final List<Long> blockOffsets = new ArrayList<>();
+
+    /**
+     * The keys written, from which the Bloom filter is built once their number is known.
+     */
+    private final List<byte[]> keys = new ArrayList<>();
+
+    SSTableWriter(Path path) {
+        try {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BLOCK_SIZE * 4));
+    }
+
+    void add(byte[] key, byte[] value) {
+        Preconditions.checkArgument(keys.isEmpty() || Arrays.compareUnsigned(keys.getLast(), key) < 0);
+
+        try {
+            if (block.size() == 0) {
+                blockFirstKeys.add(key);
+                blockOffsets.add((long) out.size());
+            }
+            blockOut.writeInt(key.length);
+            blockOut.writeInt(value == TOMBSTONE ? -1 : value.length);
+            blockOut.write(key);
+            blockOut.write(value);
+            keys.add(key);
+            if (block.size() >= BLOCK_SIZE) {
+                writeBlock();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    /**
+     * @return The bytes written so far, including the pending block
+     */
+    long bytes() {
+        return out.size() + block.size();
+    }
+
+    private void writeBlock() throws IOException {
+        block.writeTo(out);
+        block.reset();
+    }
+
+    /**
+     * Writes the index and the Bloom filter, and syncs the file to the disk.
+     *
+     * @return The bytes of the file
+     */
+    long finish() {
+        try (channel) {
+            if (block.size() > 0) {
+                writeBlock();
+            }
+
+            var indexOffset = (long) out.size();
+            out.writeInt(blockFirstKeys.size());
+            for (int i = 0; i < blockFirstKeys.size(); i++) {
+                var key = blockFirstKeys.get(i);
+                out.writeLong(blockOffsets.get(i));
+                out.writeInt(key.length);
+                out.write(key);
+            }
+
+            var bloomFilterOffset = (long) out.size();
+            var bloomFilter = BloomFilter.create(Funnels.byteArrayFunnel(), Math.max(keys.size(), 1), BLOOM_FILTER_FPP);
+            keys.forEach(bloomFilter::put);
+            bloomFilter.writeTo(out);
+
+            out.writeLong(indexOffset);
+            out.writeLong(bloomFilterOffset);
+            out.writeLong(MAGIC);
+            out.flush();
+            channel.force(true);
+            return out.size();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
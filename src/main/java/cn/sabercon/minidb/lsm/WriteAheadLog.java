@@ -0,0 +1,130 @@
+package cn.sabercon.minidb.lsm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32C;
+
+import static cn.sabercon.minidb.lsm.LsmStore.TOMBSTONE;
+
+/**
+ * Logs the writes of the memtable, so that they survive a crash until it is flushed.
+ * <p>
+ * Each commit is a record of length(4) | checksum(4) | writes, where a write is
+ * key length(4) | value length(4) | key | value, and a deleted key has a value length of -1.
+ * A record torn by a crash fails its checksum, so a commit is replayed either entirely or not at all.
+ */
+class WriteAheadLog implements AutoCloseable {
+
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES * 2;
+
+    private final Path path;
+
+    private final FileChannel channel;
+
+    WriteAheadLog(Path path) {
+        this.path = path;
+        try {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    Path path() {
+        return path;
+    }
+
+    /**
+     * Appends the writes as a single record and syncs it to the disk.
+     *
+     * @return The bytes written
+     */
+    long append(Map<byte[], byte[]> writes) {
+        var payloadSize = writes.entrySet().stream()
+                .mapToInt(entry -> Integer.BYTES * 2 + entry.getKey().length + entry.getValue().length)
+                .sum();
+        var buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + payloadSize);
+        buffer.position(RECORD_HEADER_SIZE);
+        writes.forEach((key, value) -> {
+            buffer.putInt(key.length);
+            buffer.putInt(value == TOMBSTONE ? -1 : value.length);
+            buffer.put(key);
+            buffer.put(value);
+        });
+        var checksum = new CRC32C();
+        checksum.update(buffer.array(), RECORD_HEADER_SIZE, payloadSize);
+        buffer.putInt(0, payloadSize);
+        buffer.putInt(Integer.BYTES, (int) checksum.getValue());
+        buffer.flip();
+
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffer.limit();
+    }
+
+    /**
+     * Replays the complete records of a log in order, and stops at the first torn one.
+     */
+    static void replay(Path path, BiConsumer<byte[], byte[]> consumer) {
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            var payloadSize = buffer.getInt();
+            var expectedChecksum = buffer.getInt();
+            if (payloadSize < 0 || payloadSize > buffer.remaining()) return;
+
+            var checksum = new CRC32C();
+            checksum.update(buffer.array(), buffer.position(), payloadSize);
+            if ((int) checksum.getValue() != expectedChecksum) return;
+
+            var end = buffer.position() + payloadSize;
+            while (buffer.position() < end) {
+                var key = new byte[buffer.getInt()];
+                var valueLength = buffer.getInt();
+                buffer.get(key);
+                if (valueLength < 0) {
+                    consumer.accept(key, TOMBSTONE);
+                } else {
+                    var value = new byte[valueLength];
+                    buffer.get(value);
+                    consumer.accept(key, value);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void delete() {
+        close();
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
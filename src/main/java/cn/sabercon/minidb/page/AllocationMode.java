@@ -0,0 +1,19 @@
+package cn.sabercon.minidb.page;
+
+/**
+ * Decides where the pages created by a commit are placed in the file.
+ */
+public enum AllocationMode {
+
+    /**
+     * Reuses the free pages first, which keeps the file small but scatters the writes of a commit over it.
+     */
+    REUSE,
+
+    /**
+     * Places the pages of a commit one after another, either in a free segment or at the end of the file,
+     * so that a flush is mostly a single sequential write. The free pages are only reused once the cleaner
+     * has turned whole segments free, see {@link PageManager#reclaimSegments()}.
+     */
+    APPEND,
+}
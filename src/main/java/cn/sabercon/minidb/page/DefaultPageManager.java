@@ -5,25 +5,80 @@ import com.google.common.base.Preconditions;
 
 import java.lang.foreign.MemorySegment;
 import java.util.*;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
 
-import static cn.sabercon.minidb.page.PageConstants.NULL_POINTER;
-import static cn.sabercon.minidb.page.PageConstants.PAGE_BYTE_SIZE;
+import static cn.sabercon.minidb.page.PageConstants.*;
 
 class DefaultPageManager implements PageManager {
 
-    private final Map<Long, MemorySegment> updatedPages = new LinkedHashMap<>();
+    /**
+     * The max number of ranges flushed one by one in a commit, beyond which the span of them is flushed at once,
+     * as every range takes a system call.
+     */
+    private static final int MAX_FLUSHED_RANGES = 16;
 
-    private final Queue<Long> freedPages = new LinkedList<>();
+    private final PageTable updatedPages = new PageTable();
 
-    private final Queue<Long> freePages = new LinkedList<>();
+    private final LongDeque freedPages = new LongDeque();
+
+    /**
+     * The entries taken from the free list, which may be extents as well as single pages.
+     */
+    private final LongDeque freePages = new LongDeque();
+
+    /**
+     * The entries of the free list node being written, which is reused by every node.
+     */
+    private final long[] freeablePages = new long[FreeListNode.CAPACITY];
+
+    /**
+     * Holds the pages built since the last flush, which are copied to the file on flush.
+     */
+    private final PageSlab slab = new PageSlab();
 
     private final FileBuffer buffer;
 
-    private final PageMaster master;
+    private PageMaster master;
+
+    /**
+     * The master as of the last flush, which is restored on rollback.
+     */
+    private PageMaster syncedMaster;
+
+    /**
+     * The tracker of the recently read pages, or null if not tracked.
+     */
+    private final HotPageTracker hotPages;
 
-    DefaultPageManager(FileBuffer buffer) {
+    private final AllocationMode mode;
+
+    /**
+     * The rest of the free segment being filled by the append-only allocation, from the cursor to the end.
+     */
+    private long runCursor;
+
+    private long runEnd;
+
+    /**
+     * Whether the head of the free list may have an extent, which is false after finding it has none,
+     * so that the head is not popped again for every page.
+     */
+    private boolean extentAtHead = true;
+
+    DefaultPageManager(FileBuffer buffer, HotPageTracker hotPages) {
+        this(buffer, hotPages, AllocationMode.REUSE);
+    }
+
+    DefaultPageManager(FileBuffer buffer, HotPageTracker hotPages, AllocationMode mode) {
+        this.mode = mode;
         this.buffer = buffer;
         this.master = buffer.byteSize() == 0 ? PageMaster.empty() : PageMaster.of(buffer.get(0, PAGE_BYTE_SIZE));
+        this.syncedMaster = master.copy();
+        this.hotPages = hotPages;
+        if (hotPages != null) {
+            hotPages.load().forEach(this::prefetchPage);
+        }
     }
 
     @Override
@@ -40,22 +95,37 @@ class DefaultPageManager implements PageManager {
     public MemorySegment getPage(long pointer) {
         Preconditions.checkArgument(pointer > 0 && pointer < master.getTotal());
 
-        return getUpdatedPage(pointer).orElseGet(() -> getSyncedPage(pointer));
-    }
-
-    private Optional<MemorySegment> getUpdatedPage(long pointer) {
-        return Optional.ofNullable(updatedPages.get(pointer));
+        var page = updatedPages.get(pointer);
+        return page != null ? page : getSyncedPage(pointer);
     }
 
     private MemorySegment getSyncedPage(long pointer) {
+        if (hotPages != null) {
+            hotPages.record(pointer);
+        }
         return buffer.get(toOffset(pointer), PAGE_BYTE_SIZE);
     }
 
+    @Override
+    public void prefetchPage(long pointer) {
+        if (pointer <= 0 || pointer >= master.getTotal() || updatedPages.containsKey(pointer)) return;
+
+        buffer.prefetch(toOffset(pointer), PAGE_BYTE_SIZE);
+    }
+
     @Override
     public void deletePage(long pointer) {
         Preconditions.checkArgument(pointer > 0 && pointer < master.getTotal());
 
-        freedPages.add(pointer);
+        freedPages.addLast(pointer);
+        if (hotPages != null) {
+            hotPages.remove(pointer);
+        }
+    }
+
+    @Override
+    public MemorySegment allocate(int pageCount) {
+        return slab.allocate(pageCount);
     }
 
     @Override
@@ -68,16 +138,31 @@ class DefaultPageManager implements PageManager {
     }
 
     private long allocatePage() {
-        return allocateFreePage().orElseGet(this::allocateNewPage);
+        if (mode == AllocationMode.APPEND) {
+            return allocateAppendedPage();
+        }
+        var pointer = allocateFreePage();
+        return pointer != NULL_POINTER ? pointer : allocateNewPage();
     }
 
-    private Optional<Long> allocateFreePage() {
+    /**
+     * @return The pointer of a free page, or {@link PageConstants#NULL_POINTER} if none, which is not boxed
+     */
+    private long allocateFreePage() {
         if (!freePages.isEmpty()) {
-            return Optional.of(freePages.remove());
+            var entry = freePages.removeFirst();
+            if (!FreeListNode.isExtent(entry)) {
+                return entry;
+            }
+            var start = FreeListNode.extentStart(entry);
+            for (int i = 1; i < FreeListNode.extentLength(entry); i++) {
+                freePages.addLast(start + i);
+            }
+            return start;
         }
         var freeListHead = master.getFreeListHead();
         if (freeListHead == NULL_POINTER) {
-            return Optional.empty();
+            return NULL_POINTER;
         }
         // When the free list head is empty, free pages need to be updated twice.
         updateFreePages(freeListHead);
@@ -88,11 +173,53 @@ class DefaultPageManager implements PageManager {
         var node = FreeListNode.of(getPage(freeListHead));
         deletePage(freeListHead);
 
-        freePages.addAll(node.freePages());
-        assert freePages.size() <= FreeListNode.CAPACITY;
+        for (int i = 0; i < node.items(); i++) {
+            freePages.addLast(node.freePage(i));
+        }
         master.setFreeListHead(node.next());
     }
 
+    /**
+     * Takes the next page of the run, and starts a new run in a free segment when it is used up,
+     * or falls back to the end of the file if there is no free segment.
+     */
+    private long allocateAppendedPage() {
+        if (runCursor == runEnd) {
+            startRun();
+        }
+        return runCursor < runEnd ? runCursor++ : allocateNewPage();
+    }
+
+    private void startRun() {
+        if (!extentAtHead) return;
+
+        var extent = takeExtent();
+        if (extent == NULL_POINTER && master.getFreeListHead() != NULL_POINTER) {
+            updateFreePages(master.getFreeListHead());
+            extent = takeExtent();
+        }
+        if (extent == NULL_POINTER) {
+            extentAtHead = false;
+            return;
+        }
+        runCursor = FreeListNode.extentStart(extent);
+        runEnd = runCursor + FreeListNode.extentLength(extent);
+    }
+
+    /**
+     * Takes the last extent, as the entries written last are the ones at the head of the free list.
+     *
+     * @return The extent entry, or {@link PageConstants#NULL_POINTER} if none
+     */
+    private long takeExtent() {
+        for (int i = freePages.size() - 1; i >= 0; i--) {
+            if (FreeListNode.isExtent(freePages.get(i))) {
+                return freePages.remove(i);
+            }
+        }
+        return NULL_POINTER;
+    }
+
     private long allocateNewPage() {
         var pointer = master.getTotal();
         master.setTotal(pointer + 1);
@@ -101,48 +228,186 @@ class DefaultPageManager implements PageManager {
 
     @Override
     public void flush() {
+        if (runCursor < runEnd) {
+            // Puts the rest of the run back at the head of the free list, so that the next commit continues it
+            freePages.addLast(FreeListNode.extent(runCursor, (int) (runEnd - runCursor)));
+            runCursor = runEnd = 0;
+            extentAtHead = true;
+        }
         syncFreeList();
         syncUpdatedPages();
-        buffer.flush();
 
         syncMaster();
-        buffer.flush();
+        buffer.flush(0, PAGE_BYTE_SIZE);
     }
 
-    private void syncFreeList() {
-        if (freedPages.isEmpty() && freePages.isEmpty()) return;
+    @Override
+    public void close() {
+        if (hotPages != null) {
+            hotPages.close();
+        }
+        buffer.close();
+    }
 
-        var pointer = allocatePage();
-        var freeablePages = findFreeablePages();
-        var node = FreeListNode.of(master.getFreeListHead(), freeablePages);
-        updatedPages.put(pointer, node.data());
-        master.setFreeListHead(pointer);
+    @Override
+    public void rollback() {
+        // Nothing is written to the file before flush, and all the queues are empty after a flush.
+        updatedPages.clear();
+        freedPages.clear();
+        freePages.clear();
+        slab.reset();
+        master = syncedMaster.copy();
+        runCursor = runEnd = 0;
+        extentAtHead = true;
+    }
 
-        syncFreeList();
+    /**
+     * Counts the free pages of each segment in the free list, which is read as a whole.
+     */
+    @Override
+    public Set<Long> sparseSegments(double minFreeRatio) {
+        Preconditions.checkArgument(minFreeRatio > 0 && minFreeRatio <= 1);
+        if (mode != AllocationMode.APPEND) return Set.of();
+
+        var freeCounts = new HashMap<Long, Integer>();
+        forEachFreePage(pointer -> freeCounts.merge(pointer / SEGMENT_PAGE_COUNT, 1, Integer::sum));
+        var segments = master.getTotal() / SEGMENT_PAGE_COUNT;
+        // The first segment holds the master page, so it is never free
+        return freeCounts.entrySet().stream()
+                .filter(entry -> entry.getKey() > 0 && entry.getKey() < segments)
+                .filter(entry -> entry.getValue() < SEGMENT_PAGE_COUNT && entry.getValue() >= minFreeRatio * SEGMENT_PAGE_COUNT)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
     }
 
-    private List<Long> findFreeablePages() {
-        var size = Math.min(FreeListNode.CAPACITY, freedPages.size() + freePages.size());
-        var freeablePages = new ArrayList<Long>(size);
+    private void forEachFreePage(LongConsumer consumer) {
+        LongConsumer entryConsumer = entry -> forEachPageOfEntry(entry, consumer);
+        freedPages.forEach(entryConsumer);
+        freePages.forEach(entryConsumer);
+        for (var pointer = master.getFreeListHead(); pointer != NULL_POINTER; ) {
+            var node = FreeListNode.of(getPage(pointer));
+            for (int i = 0; i < node.items(); i++) {
+                entryConsumer.accept(node.freePage(i));
+            }
+            pointer = node.next();
+        }
+        for (var pointer = runCursor; pointer < runEnd; pointer++) {
+            consumer.accept(pointer);
+        }
+    }
 
-        while (freeablePages.size() < size) {
-            if (!freedPages.isEmpty()) {
-                freeablePages.add(freedPages.remove());
-            } else {
-                freeablePages.add(freePages.remove());
+    private static void forEachPageOfEntry(long entry, LongConsumer consumer) {
+        if (FreeListNode.isExtent(entry)) {
+            var start = FreeListNode.extentStart(entry);
+            for (int i = 0; i < FreeListNode.extentLength(entry); i++) {
+                consumer.accept(start + i);
             }
+        } else {
+            consumer.accept(entry);
         }
-        return freeablePages;
     }
 
+    /**
+     * Rewrites the whole free list, where the segments entirely free are kept as extents at its head.
+     */
+    @Override
+    public void reclaimSegments() {
+        if (mode != AllocationMode.APPEND) return;
+        Preconditions.checkState(updatedPages.isEmpty(), "Segments can only be reclaimed right after a flush");
+
+        // The pages of the old free list are free as well once it is rewritten
+        var nodes = new ArrayList<Long>();
+        for (var pointer = master.getFreeListHead(); pointer != NULL_POINTER; ) {
+            nodes.add(pointer);
+            pointer = FreeListNode.of(getPage(pointer)).next();
+        }
+        var pages = new TreeSet<Long>(nodes);
+        forEachFreePage(pages::add);
+        freedPages.clear();
+        freePages.clear();
+        runCursor = runEnd = 0;
+        master.setFreeListHead(NULL_POINTER);
+
+        var extents = new ArrayList<Long>();
+        for (var segment = 1L; segment < master.getTotal() / SEGMENT_PAGE_COUNT; segment++) {
+            var start = segment * SEGMENT_PAGE_COUNT;
+            var freeSegment = pages.subSet(start, start + SEGMENT_PAGE_COUNT);
+            if (freeSegment.size() == SEGMENT_PAGE_COUNT) {
+                freeSegment.clear();
+                extents.add(FreeListNode.extent(start, SEGMENT_PAGE_COUNT));
+            }
+        }
+        // The extents are written last, so that they end up at the head of the free list
+        pages.forEach(freePages::addLast);
+        extents.forEach(freePages::addLast);
+        extentAtHead = !extents.isEmpty();
+        flush();
+    }
+
+    private void syncFreeList() {
+        // Loops instead of recursion, as a range deletion may free a lot of pages at once
+        while (!freedPages.isEmpty() || !freePages.isEmpty()) {
+            // The append-only allocation puts the nodes at the end, so they never take the entries being written
+            var pointer = mode == AllocationMode.APPEND ? allocateNewPage() : allocatePage();
+            var count = takeFreeablePages();
+            var node = FreeListNode.of(slab, master.getFreeListHead(), freeablePages, count);
+            updatedPages.put(pointer, node.data());
+            master.setFreeListHead(pointer);
+        }
+    }
+
+    /**
+     * Moves the entries of the next free list node into {@link #freeablePages}.
+     *
+     * @return The number of entries moved
+     */
+    private int takeFreeablePages() {
+        var count = Math.min(FreeListNode.CAPACITY, freedPages.size() + freePages.size());
+        for (int i = 0; i < count; i++) {
+            freeablePages[i] = !freedPages.isEmpty() ? freedPages.removeFirst() : freePages.removeFirst();
+        }
+        return count;
+    }
+
+    /**
+     * Writes the pages in ascending order, and flushes each run of adjacent pages as a single range,
+     * or the span of all the pages as one range if there are too many runs.
+     */
     private void syncUpdatedPages() {
-        var updatablePages = Map.copyOf(updatedPages);
+        var count = updatedPages.size();
+        updatedPages.sortPointers();
+        var runs = 0;
+        for (int i = 0; i < count; i++) {
+            var pointer = updatedPages.pointerAt(i);
+            buffer.set(toOffset(pointer), updatedPages.get(pointer));
+            if (i == count - 1 || updatedPages.pointerAt(i + 1) != pointer + 1) {
+                runs += 1;
+            }
+        }
+
+        if (runs > MAX_FLUSHED_RANGES) {
+            flushPages(updatedPages.pointerAt(0), updatedPages.pointerAt(count - 1) + 1);
+        } else {
+            var runStart = 0;
+            for (int i = 0; i < count; i++) {
+                if (i == count - 1 || updatedPages.pointerAt(i + 1) != updatedPages.pointerAt(i) + 1) {
+                    flushPages(updatedPages.pointerAt(runStart), updatedPages.pointerAt(i) + 1);
+                    runStart = i + 1;
+                }
+            }
+        }
         updatedPages.clear();
-        updatablePages.forEach((pointer, page) -> buffer.set(toOffset(pointer), page));
+        slab.reset();
+    }
+
+    private void flushPages(long start, long end) {
+        buffer.flush(toOffset(start), toOffset(end) - toOffset(start));
     }
 
     private void syncMaster() {
+        master.nextGeneration();
         buffer.set(0, master.data());
+        syncedMaster = master.copy();
     }
 
     private static long toOffset(long pointer) {
@@ -3,8 +3,6 @@ package cn.sabercon.minidb.page;
 import com.google.common.base.Preconditions;
 
 import java.lang.foreign.MemorySegment;
-import java.util.List;
-import java.util.stream.IntStream;
 
 import static cn.sabercon.minidb.page.PageConstants.*;
 
@@ -12,6 +10,16 @@ class FreeListNode extends Page {
 
     static final int CAPACITY = (PAGE_BYTE_SIZE - (HEADER_SIZE + POINTER_SIZE)) / POINTER_SIZE;
 
+    /**
+     * Marks an entry as an extent of contiguous free pages instead of a single page,
+     * with the number of pages in the bits above {@link #EXTENT_LENGTH_SHIFT} and the first page below them.
+     */
+    static final long EXTENT_FLAG = 1L << 62;
+
+    private static final int EXTENT_LENGTH_SHIFT = 40;
+
+    private static final long EXTENT_START_MASK = (1L << EXTENT_LENGTH_SHIFT) - 1;
+
     private FreeListNode(MemorySegment data) {
         super(data);
     }
@@ -20,16 +28,18 @@ class FreeListNode extends Page {
         return new FreeListNode(data);
     }
 
-    static FreeListNode of(long next, List<Long> freePages) {
-        Preconditions.checkState(freePages.size() <= CAPACITY);
+    /**
+     * @param freePages The entries, of which only the first {@code count} ones are written
+     */
+    static FreeListNode of(PageAllocator allocator, long next, long[] freePages, int count) {
+        Preconditions.checkState(count <= CAPACITY);
 
-        var data = MemorySegment.ofArray(new byte[PAGE_BYTE_SIZE]);
-        var node = FreeListNode.of(data);
+        var node = FreeListNode.of(allocator.allocate(1));
         node.putInt(0, PageType.FREE_LIST.value());
-        node.putInt(NODE_TYPE_SIZE, freePages.size());
+        node.putInt(NODE_TYPE_SIZE, count);
         node.putLong(HEADER_SIZE, next);
-        for (int i = 0; i < freePages.size(); i++) {
-            node.putLong(pointerPos(i), freePages.get(i));
+        for (int i = 0; i < count; i++) {
+            node.putLong(pointerPos(i), freePages[i]);
         }
         return node;
     }
@@ -46,10 +56,25 @@ class FreeListNode extends Page {
         return getLong(HEADER_SIZE);
     }
 
-    List<Long> freePages() {
-        return IntStream.range(0, items())
-                .mapToObj(i -> getLong(pointerPos(i)))
-                .toList();
+    long freePage(int index) {
+        return getLong(pointerPos(index));
+    }
+
+    static long extent(long start, int length) {
+        Preconditions.checkArgument(start > 0 && start <= EXTENT_START_MASK && length > 0 && length <= SEGMENT_PAGE_COUNT);
+        return EXTENT_FLAG | (long) length << EXTENT_LENGTH_SHIFT | start;
+    }
+
+    static boolean isExtent(long entry) {
+        return (entry & EXTENT_FLAG) != 0;
+    }
+
+    static long extentStart(long entry) {
+        return entry & EXTENT_START_MASK;
+    }
+
+    static int extentLength(long entry) {
+        return (int) ((entry & ~EXTENT_FLAG) >>> EXTENT_LENGTH_SHIFT);
     }
 
     private static int pointerPos(int index) {
@@ -0,0 +1,183 @@
+package cn.sabercon.minidb.page;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the recently read pages in a sidecar file, so that they can be preloaded after the file is reopened.
+ * <p>
+ * Only one in {@link #SAMPLE_RATE} reads is recorded to keep the read path cheap.
+ * Internal pages are read by every lookup, so they always stay in the most recently used pages.
+ * <p>
+ * The pages are saved periodically in the background, independent of the writes, and once more on {@link #close()},
+ * so that read-only and read-mostly stores keep their hot pages too. The background task only holds the tracker
+ * weakly, and stops once the tracker is unreachable, so a store which is never closed is not kept alive by it.
+ */
+class HotPageTracker {
+
+    static final int SAMPLE_RATE = 16;
+
+    static final int CAPACITY = 64 * 1024;
+
+    static final Duration SAVE_INTERVAL = Duration.ofMinutes(1);
+
+    /**
+     * Saves the pages of all the trackers, in a daemon thread so that it never keeps the JVM alive.
+     */
+    private static final ScheduledExecutorService SAVER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("minidb-hot-pages-%d").build());
+
+    private final Path file;
+
+    private final LinkedHashMap<Long, Boolean> pages = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    private int reads;
+
+    /**
+     * Whether the pages have changed since the last save, so that an idle store doesn't rewrite the same file.
+     */
+    private volatile boolean changed;
+
+    private final SaveTask saveTask;
+
+    HotPageTracker(Path file) {
+        this(file, SAVE_INTERVAL);
+    }
+
+    HotPageTracker(Path file, Duration saveInterval) {
+        this.file = file;
+        this.saveTask = new SaveTask(this, saveInterval);
+    }
+
+    void record(long pointer) {
+        // The counter is not synchronized, as a lost count only shifts the sample.
+        if (reads++ % SAMPLE_RATE == 0) {
+            synchronized (pages) {
+                pages.put(pointer, Boolean.TRUE);
+            }
+            changed = true;
+        }
+    }
+
+    void remove(long pointer) {
+        synchronized (pages) {
+            if (pages.remove(pointer) != null) {
+                changed = true;
+            }
+        }
+    }
+
+    /**
+     * @return The pages saved last time, the most recently used first
+     */
+    List<Long> load() {
+        if (!Files.exists(file)) return List.of();
+
+        try {
+            var buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            var pointers = new ArrayList<Long>(buffer.remaining() / Long.BYTES);
+            while (buffer.remaining() >= Long.BYTES) {
+                pointers.add(buffer.getLong());
+            }
+            synchronized (pages) {
+                pointers.reversed().forEach(pointer -> pages.put(pointer, Boolean.TRUE));
+            }
+            return pointers;
+        } catch (IOException e) {
+            // The sidecar is only a hint, so a broken one is ignored.
+            return List.of();
+        }
+    }
+
+    private void saveInBackground() {
+        if (!changed) return;
+
+        try {
+            save();
+        } catch (UncheckedIOException e) {
+            // The sidecar is only a hint, and a failure must not stop the next saves.
+        }
+    }
+
+    /**
+     * Writes the pages to a temporary file first, so that a crash never leaves a partial sidecar.
+     */
+    synchronized void save() {
+        changed = false;
+        ByteBuffer buffer;
+        synchronized (pages) {
+            buffer = ByteBuffer.allocate(pages.size() * Long.BYTES);
+            pages.sequencedKeySet().reversed().forEach(buffer::putLong);
+        }
+
+        try {
+            var tempFile = file.resolveSibling(STR."\{file.getFileName()}.tmp");
+            Files.write(tempFile, buffer.array());
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stops the background saves and saves the pages a last time.
+     */
+    void close() {
+        saveTask.cancel();
+        save();
+    }
+
+    /**
+     * Saves the pages of a tracker periodically while it is reachable, and cancels itself once it is not.
+     */
+    private static final class SaveTask implements Runnable {
+
+        private final WeakReference<HotPageTracker> tracker;
+
+        private final ScheduledFuture<?> future;
+
+        private SaveTask(HotPageTracker tracker, Duration interval) {
+            this.tracker = new WeakReference<>(tracker);
+            var nanos = interval.toNanos();
+            this.future = SAVER.scheduleWithFixedDelay(this, nanos, nanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void run() {
+            var tracker = this.tracker.get();
+            if (tracker == null) {
+                cancel();
+            } else {
+                tracker.saveInBackground();
+            }
+        }
+
+        private void cancel() {
+            // The future is set before the first run, as the first run is an interval later
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+}
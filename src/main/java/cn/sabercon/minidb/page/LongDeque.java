@@ -0,0 +1,93 @@
+package cn.sabercon.minidb.page;
+
+import com.google.common.base.Preconditions;
+
+import java.util.NoSuchElementException;
+import java.util.function.LongConsumer;
+
+/**
+ * A deque of primitive longs in a ring buffer, which grows by doubling and never boxes the elements.
+ */
+class LongDeque {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The ring buffer, whose length is always a power of two.
+     */
+    private long[] elements = new long[INITIAL_CAPACITY];
+
+    private int head;
+
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void addLast(long element) {
+        if (size == elements.length) {
+            grow();
+        }
+        elements[slot(size)] = element;
+        size += 1;
+    }
+
+    long removeFirst() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        var element = elements[head];
+        head = slot(1);
+        size -= 1;
+        return element;
+    }
+
+    long get(int index) {
+        Preconditions.checkElementIndex(index, size);
+        return elements[slot(index)];
+    }
+
+    /**
+     * Removes the element at the index, where the elements after it are moved forward by one.
+     */
+    long remove(int index) {
+        var element = get(index);
+        for (int i = index + 1; i < size; i++) {
+            elements[slot(i - 1)] = elements[slot(i)];
+        }
+        size -= 1;
+        return element;
+    }
+
+    void forEach(LongConsumer consumer) {
+        for (int i = 0; i < size; i++) {
+            consumer.accept(elements[slot(i)]);
+        }
+    }
+
+    /**
+     * Keeps the buffer, so that the deque does not grow again after it is filled up the next time.
+     */
+    void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    private int slot(int index) {
+        return (head + index) & (elements.length - 1);
+    }
+
+    private void grow() {
+        var grown = new long[2 * elements.length];
+        for (int i = 0; i < size; i++) {
+            grown[i] = elements[slot(i)];
+        }
+        elements = grown;
+        head = 0;
+    }
+}
@@ -1,11 +1,19 @@
 package cn.sabercon.minidb.page;
 
 import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 
 import static java.lang.foreign.ValueLayout.*;
 
 public abstract class Page {
 
+    private static final ValueLayout.OfLong BIG_ENDIAN_LONG = JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+    private static final VarHandle BIG_ENDIAN_LONG_ARRAY = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
     protected final MemorySegment data;
 
     protected Page(MemorySegment data) {
@@ -26,6 +34,24 @@ public abstract class Page {
         MemorySegment.copy(bytes, 0, data, JAVA_BYTE, index, bytes.length);
     }
 
+    /**
+     * Compares the bytes in the given range with the given bytes lexicographically, as unsigned bytes.
+     */
+    protected int compareBytes(int index, int length, byte[] bytes) {
+        // Compares 8 bytes at a time as big-endian unsigned longs, without wrapping the bytes in a segment
+        var common = Math.min(length, bytes.length);
+        var i = 0;
+        for (; i + Long.BYTES <= common; i += Long.BYTES) {
+            var comparison = Long.compareUnsigned(data.get(BIG_ENDIAN_LONG, index + i), (long) BIG_ENDIAN_LONG_ARRAY.get(bytes, i));
+            if (comparison != 0) return comparison;
+        }
+        for (; i < common; i++) {
+            var comparison = Byte.compareUnsigned(data.get(JAVA_BYTE, index + i), bytes[i]);
+            if (comparison != 0) return comparison;
+        }
+        return Integer.compare(length, bytes.length);
+    }
+
     protected short getShort(int index) {
         return data.get(JAVA_SHORT_UNALIGNED, index);
     }
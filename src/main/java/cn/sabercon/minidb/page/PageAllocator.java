@@ -0,0 +1,22 @@
+package cn.sabercon.minidb.page;
+
+import java.lang.foreign.MemorySegment;
+
+import static cn.sabercon.minidb.page.PageConstants.PAGE_BYTE_SIZE;
+
+/**
+ * Allocates the buffers where new pages are built.
+ */
+@FunctionalInterface
+public interface PageAllocator {
+
+    /**
+     * Allocates the buffers on the heap, which live as long as they are referenced.
+     */
+    PageAllocator HEAP = pageCount -> MemorySegment.ofArray(new byte[PAGE_BYTE_SIZE * pageCount]);
+
+    /**
+     * @return A zero-filled buffer of the given number of pages
+     */
+    MemorySegment allocate(int pageCount);
+}
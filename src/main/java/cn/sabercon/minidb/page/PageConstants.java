@@ -21,4 +21,9 @@ public final class PageConstants {
     public static final int POINTER_SIZE = Long.BYTES;
 
     public static final long NULL_POINTER = 0;
+
+    /**
+     * The file is split into segments of contiguous pages, which the append-only allocation reuses as a whole.
+     */
+    public static final int SEGMENT_PAGE_COUNT = 256;
 }
@@ -3,11 +3,45 @@ package cn.sabercon.minidb.page;
 import cn.sabercon.minidb.base.FileBuffer;
 
 import java.lang.foreign.MemorySegment;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
 
-public interface PageManager {
+public interface PageManager extends PageAllocator, AutoCloseable {
 
     static PageManager of(FileBuffer buffer) {
-        return new DefaultPageManager(buffer);
+        return new DefaultPageManager(buffer, null);
+    }
+
+    /**
+     * Creates a page manager which keeps the recently read pages in the given file,
+     * and starts preloading the ones kept last time in the background.
+     */
+    static PageManager of(FileBuffer buffer, Path hotPagesFile) {
+        return new DefaultPageManager(buffer, new HotPageTracker(hotPagesFile));
+    }
+
+    static PageManager of(FileBuffer buffer, AllocationMode mode) {
+        return new DefaultPageManager(buffer, null, mode);
+    }
+
+    /**
+     * Creates a page manager which only reads the given buffer, usually a {@link FileBuffer#readOnly} one.
+     *
+     * @param refreshInterval The min time between two reads of the root written by the writer,
+     *                        where zero reads it every time
+     */
+    static PageManager readOnly(FileBuffer buffer, Duration refreshInterval) {
+        return new ReadOnlyPageManager(buffer, refreshInterval);
+    }
+
+    /**
+     * Tells whether the pages read since the last {@link #refresh()} may have been reused by the writer,
+     * which only happens to a manager by {@link #readOnly}, whose reads must be run again on the latest commit then.
+     * It must be asked after the data of the pages is read, as the pages are only valid up to that point.
+     */
+    default boolean readsStale() {
+        return false;
     }
 
     /**
@@ -15,6 +49,12 @@ public interface PageManager {
      */
     long getRoot();
 
+    /**
+     * Reads the root written by the writer of the file again, for a read-only page manager.
+     */
+    default void refresh() {
+    }
+
     /**
      * @param root The pointer of the root page
      */
@@ -25,6 +65,12 @@ public interface PageManager {
      */
     MemorySegment getPage(long pointer);
 
+    /**
+     * Hints that a page will be read soon, so it can be loaded into memory in the background.
+     */
+    default void prefetchPage(long pointer) {
+    }
+
     /**
      * Deletes a page.
      *
@@ -32,6 +78,14 @@ public interface PageManager {
      */
     void deletePage(long pointer);
 
+    /**
+     * Allocates a buffer to build a page in, which must not be accessed after the next flush or rollback.
+     */
+    @Override
+    default MemorySegment allocate(int pageCount) {
+        return HEAP.allocate(pageCount);
+    }
+
     /**
      * Allocates a new page.
      *
@@ -41,4 +95,34 @@ public interface PageManager {
     long createPage(MemorySegment page);
 
     void flush();
+
+    /**
+     * Discards all the changes since the last flush.
+     */
+    void rollback();
+
+    /**
+     * Finds the segments worth cleaning for the append-only allocation, whose live pages should be moved out.
+     *
+     * @param minFreeRatio The min fraction of free pages in a segment
+     * @return The numbers of the segments, where a page belongs to segment {@code pointer / SEGMENT_PAGE_COUNT}
+     */
+    default Set<Long> sparseSegments(double minFreeRatio) {
+        return Set.of();
+    }
+
+    /**
+     * Makes the segments whose pages are all free available to the append-only allocation again,
+     * and flushes. Must be called right after a flush.
+     */
+    default void reclaimSegments() {
+    }
+
+    /**
+     * Saves the state kept besides the commits, like the recently read pages, and closes the buffer,
+     * after which the manager must not be used anymore. The changes not flushed are discarded.
+     */
+    @Override
+    default void close() {
+    }
 }
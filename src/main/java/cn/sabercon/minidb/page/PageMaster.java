@@ -13,7 +13,9 @@ class PageMaster {
 
     static final MemorySegment SIGNATURE = MemorySegment.ofArray(Conversions.toBytes("MINIDB-SIGNATURE"));
 
-    static final int TOTAL_SIZE = (int) SIGNATURE.byteSize() + 3 * POINTER_SIZE;
+    static final int TOTAL_SIZE = (int) SIGNATURE.byteSize() + 4 * POINTER_SIZE;
+
+    private static final long GENERATION_OFFSET = SIGNATURE.byteSize() + 3 * POINTER_SIZE;
 
     private long total;
 
@@ -21,6 +23,12 @@ class PageMaster {
 
     private long freeListHead;
 
+    /**
+     * The number of commits so far, which tells the readers in other processes whether a commit happened,
+     * and is zero in the files written before it was added.
+     */
+    private long generation;
+
     private PageMaster() {
     }
 
@@ -39,6 +47,23 @@ class PageMaster {
         master.setTotal(data.get(JAVA_LONG_UNALIGNED, SIGNATURE.byteSize()));
         master.setRoot(data.get(JAVA_LONG_UNALIGNED, SIGNATURE.byteSize() + POINTER_SIZE));
         master.setFreeListHead(data.get(JAVA_LONG_UNALIGNED, SIGNATURE.byteSize() + 2 * POINTER_SIZE));
+        master.generation = generationOf(data);
+        return master;
+    }
+
+    /**
+     * Reads the generation only, which is cheap enough to be checked after every read.
+     */
+    static long generationOf(MemorySegment data) {
+        return data.get(JAVA_LONG_UNALIGNED, GENERATION_OFFSET);
+    }
+
+    PageMaster copy() {
+        var master = new PageMaster();
+        master.setTotal(total);
+        master.setRoot(root);
+        master.setFreeListHead(freeListHead);
+        master.generation = generation;
         return master;
     }
 
@@ -48,6 +73,7 @@ class PageMaster {
         data.set(JAVA_LONG_UNALIGNED, SIGNATURE.byteSize(), total);
         data.set(JAVA_LONG_UNALIGNED, SIGNATURE.byteSize() + POINTER_SIZE, root);
         data.set(JAVA_LONG_UNALIGNED, SIGNATURE.byteSize() + 2 * POINTER_SIZE, freeListHead);
+        data.set(JAVA_LONG_UNALIGNED, GENERATION_OFFSET, generation);
         return data;
     }
 
@@ -77,4 +103,12 @@ class PageMaster {
         Preconditions.checkArgument(freeListHead >= 0);
         this.freeListHead = freeListHead;
     }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    void nextGeneration() {
+        generation += 1;
+    }
 }
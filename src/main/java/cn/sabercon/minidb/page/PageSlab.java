@@ -0,0 +1,74 @@
+package cn.sabercon.minidb.page;
+
+import com.google.common.base.Preconditions;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.List;
+
+import static cn.sabercon.minidb.page.PageConstants.PAGE_BYTE_SIZE;
+
+/**
+ * Allocates page buffers off the heap from reusable chunks, where all the buffers are released at once by {@link #reset()}.
+ * <p>
+ * Each chunk has its own shared arena, so that it can be accessed by any thread and freed on its own.
+ */
+class PageSlab implements PageAllocator {
+
+    static final int CHUNK_BYTE_SIZE = 256 * PAGE_BYTE_SIZE;
+
+    /**
+     * The chunks kept for reuse after a reset, where the extra ones allocated by large batches are freed,
+     * so that one large batch does not pin its memory for the lifetime of the page manager.
+     */
+    static final int RETAINED_CHUNKS = 1;
+
+    private final List<Arena> arenas = new ArrayList<>();
+
+    private final List<MemorySegment> chunks = new ArrayList<>();
+
+    private int chunkIndex;
+
+    private long chunkOffset;
+
+    @Override
+    public MemorySegment allocate(int pageCount) {
+        Preconditions.checkArgument(pageCount > 0);
+
+        var byteSize = (long) PAGE_BYTE_SIZE * pageCount;
+        while (chunkIndex < chunks.size() && chunkOffset + byteSize > chunks.get(chunkIndex).byteSize()) {
+            chunkIndex += 1;
+            chunkOffset = 0;
+        }
+        if (chunkIndex == chunks.size()) {
+            var arena = Arena.ofShared();
+            arenas.add(arena);
+            chunks.add(arena.allocate(Math.max(byteSize, CHUNK_BYTE_SIZE), PAGE_BYTE_SIZE));
+        }
+
+        var segment = chunks.get(chunkIndex).asSlice(chunkOffset, byteSize);
+        chunkOffset += byteSize;
+        // A reused chunk still holds the pages built before the reset.
+        return segment.fill((byte) 0);
+    }
+
+    /**
+     * Releases all the buffers allocated, which must not be accessed anymore.
+     */
+    void reset() {
+        for (int i = chunks.size() - 1; i >= 0; i--) {
+            // An oversized chunk only serves the single large allocation it was made for.
+            if (i >= RETAINED_CHUNKS || chunks.get(i).byteSize() > CHUNK_BYTE_SIZE) {
+                chunks.remove(i);
+                arenas.remove(i).close();
+            }
+        }
+        chunkIndex = 0;
+        chunkOffset = 0;
+    }
+
+    int chunks() {
+        return chunks.size();
+    }
+}
@@ -0,0 +1,122 @@
+package cn.sabercon.minidb.page;
+
+import com.google.common.base.Preconditions;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+
+/**
+ * Maps the pointers to the pages written since the last flush, by open addressing over primitive arrays,
+ * so that neither the pointers nor the entries are boxed on the write path.
+ * <p>
+ * The pointers are also kept in an array, which is sorted in place for writing the pages back in order.
+ */
+class PageTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The pointers by slot, where zero marks an empty slot, as all the pointers are positive.
+     */
+    private long[] slots = new long[INITIAL_CAPACITY];
+
+    private MemorySegment[] pages = new MemorySegment[INITIAL_CAPACITY];
+
+    private long[] pointers = new long[INITIAL_CAPACITY / 2];
+
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return The page of the pointer, or null if none
+     */
+    MemorySegment get(long pointer) {
+        if (size == 0) return null;
+
+        var slot = slotOf(slots, pointer);
+        return slots[slot] == pointer ? pages[slot] : null;
+    }
+
+    boolean containsKey(long pointer) {
+        return get(pointer) != null;
+    }
+
+    void put(long pointer, MemorySegment page) {
+        Preconditions.checkArgument(pointer > 0);
+
+        if (2 * (size + 1) > slots.length) {
+            rehash();
+        }
+        var slot = slotOf(slots, pointer);
+        if (slots[slot] == 0) {
+            slots[slot] = pointer;
+            if (size == pointers.length) {
+                pointers = Arrays.copyOf(pointers, 2 * size);
+            }
+            pointers[size++] = pointer;
+        }
+        pages[slot] = page;
+    }
+
+    /**
+     * Sorts the pointers in ascending order, which are then read by {@link #pointerAt}.
+     */
+    void sortPointers() {
+        Arrays.sort(pointers, 0, size);
+    }
+
+    long pointerAt(int index) {
+        Preconditions.checkElementIndex(index, size);
+        return pointers[index];
+    }
+
+    /**
+     * Only empties the slots in use, so that it costs as much as the pages put rather than the capacity.
+     */
+    void clear() {
+        // Finds all the slots before emptying any, as an empty slot ends the probing
+        for (int i = 0; i < size; i++) {
+            pointers[i] = slotOf(slots, pointers[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            var slot = (int) pointers[i];
+            slots[slot] = 0;
+            pages[slot] = null;
+        }
+        size = 0;
+    }
+
+    private void rehash() {
+        var newSlots = new long[2 * slots.length];
+        var newPages = new MemorySegment[newSlots.length];
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != 0) {
+                var slot = slotOf(newSlots, slots[i]);
+                newSlots[slot] = slots[i];
+                newPages[slot] = pages[i];
+            }
+        }
+        slots = newSlots;
+        pages = newPages;
+    }
+
+    /**
+     * @return The slot of the pointer, or the empty slot where it would be put
+     */
+    private static int slotOf(long[] slots, long pointer) {
+        var mask = slots.length - 1;
+        // Spreads the pointers, which are mostly adjacent
+        var slot = Long.hashCode(pointer * 0x9E3779B97F4A7C15L) & mask;
+        while (slots[slot] != 0 && slots[slot] != pointer) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
@@ -5,6 +5,8 @@ public enum PageType {
     BTREE_INTERNAL(1),
     BTREE_LEAF(2),
     FREE_LIST(3),
+    HASH_DIRECTORY(4),
+    HASH_BUCKET(5),
     ;
 
     private final int value;
@@ -22,6 +24,8 @@ public enum PageType {
             case 1 -> BTREE_INTERNAL;
             case 2 -> BTREE_LEAF;
             case 3 -> FREE_LIST;
+            case 4 -> HASH_DIRECTORY;
+            case 5 -> HASH_BUCKET;
             default -> throw new IllegalArgumentException(STR."Unknown node type: \{value}");
         };
     }
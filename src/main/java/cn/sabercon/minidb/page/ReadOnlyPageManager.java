@@ -0,0 +1,146 @@
+package cn.sabercon.minidb.page;
+
+import cn.sabercon.minidb.base.FileBuffer;
+import com.google.common.base.Preconditions;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+
+import static cn.sabercon.minidb.page.PageConstants.PAGE_BYTE_SIZE;
+
+/**
+ * A page manager of a file written by another process, which never writes the file
+ * and picks up the commits of the writer by reading the master page again.
+ * <p>
+ * The pages are read from the mapping shared with the writer, which may reuse the pages of a commit
+ * once later commits free them, as soon as two commits later. So the caller reads the pages first,
+ * and asks {@link #readsStale()} afterwards whether the writer has committed since the master was read,
+ * in which case it refreshes and reads again, as the pages read may have been reused then.
+ */
+class ReadOnlyPageManager implements PageManager {
+
+    private final FileBuffer buffer;
+
+    private final long refreshIntervalNanos;
+
+    private PageMaster master = PageMaster.empty();
+
+    /**
+     * Whether the writer has written the master, where the size of the file is only checked until then.
+     */
+    private boolean masterWritten;
+
+    private long refreshedAt;
+
+    ReadOnlyPageManager(FileBuffer buffer, Duration refreshInterval) {
+        Preconditions.checkArgument(!refreshInterval.isNegative());
+
+        this.buffer = buffer;
+        this.refreshIntervalNanos = refreshInterval.toNanos();
+        refresh();
+    }
+
+    /**
+     * Only reads the generation of the master, and the rest of it when the generation has changed.
+     */
+    @Override
+    public void refresh() {
+        refreshedAt = System.nanoTime();
+        if (!masterWritten) {
+            masterWritten = buffer.byteSize() >= PAGE_BYTE_SIZE;
+            if (masterWritten) master = readMaster();
+        } else if (generationChanged()) {
+            master = readMaster();
+        }
+    }
+
+    private boolean generationChanged() {
+        return PageMaster.generationOf(buffer.get(0, PageMaster.TOTAL_SIZE)) != master.getGeneration();
+    }
+
+    /**
+     * Reads the master until two reads agree, as the writer may be writing it at the same time.
+     */
+    private PageMaster readMaster() {
+        var data = copyMaster();
+        for (var again = copyMaster(); data.mismatch(again) >= 0; again = copyMaster()) {
+            data = again;
+        }
+        return PageMaster.of(data);
+    }
+
+    private MemorySegment copyMaster() {
+        var data = MemorySegment.ofArray(new byte[PageMaster.TOTAL_SIZE]);
+        return data.copyFrom(buffer.get(0, PageMaster.TOTAL_SIZE));
+    }
+
+    @Override
+    public long getRoot() {
+        if (System.nanoTime() - refreshedAt >= refreshIntervalNanos) {
+            refresh();
+        }
+        return master.getRoot();
+    }
+
+    @Override
+    public void setRoot(long root) {
+        throw readOnly();
+    }
+
+    /**
+     * Only checks the pointer against the file, as the master read may be older than the pages.
+     * The page is the mapping itself, which the caller must check by {@link #readsStale()} after reading it.
+     */
+    @Override
+    public MemorySegment getPage(long pointer) {
+        Preconditions.checkArgument(pointer > 0);
+
+        return buffer.get(PAGE_BYTE_SIZE * pointer, PAGE_BYTE_SIZE);
+    }
+
+    @Override
+    public boolean readsStale() {
+        // The pages must be read before the generation is read again
+        VarHandle.acquireFence();
+        return masterWritten && generationChanged();
+    }
+
+    @Override
+    public void prefetchPage(long pointer) {
+        if (pointer <= 0) return;
+
+        buffer.prefetch(PAGE_BYTE_SIZE * pointer, PAGE_BYTE_SIZE);
+    }
+
+    @Override
+    public void deletePage(long pointer) {
+        throw readOnly();
+    }
+
+    @Override
+    public long createPage(MemorySegment page) {
+        throw readOnly();
+    }
+
+    @Override
+    public void flush() {
+        throw readOnly();
+    }
+
+    /**
+     * Does nothing, as nothing is changed.
+     */
+    @Override
+    public void rollback() {
+    }
+
+    @Override
+    public void close() {
+        buffer.close();
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("The page manager is read-only");
+    }
+}
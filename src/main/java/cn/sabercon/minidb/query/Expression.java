@@ -0,0 +1,51 @@
+package cn.sabercon.minidb.query;
+
+/**
+ * A boolean expression over the columns of a row in three-valued logic as in SQL,
+ * where comparisons involving nulls are unknown.
+ */
+sealed interface Expression {
+
+    record And(Expression left, Expression right) implements Expression {
+    }
+
+    record Or(Expression left, Expression right) implements Expression {
+    }
+
+    record Not(Expression expression) implements Expression {
+    }
+
+    record Comparison(String column, Operator operator, Object value) implements Expression {
+    }
+
+    record IsNull(String column, boolean negated) implements Expression {
+    }
+
+    enum Operator {
+        EQ, NE, LT, LE, GT, GE;
+
+        /**
+         * @return The operator giving the same result when the operands are swapped
+         */
+        Operator flip() {
+            return switch (this) {
+                case EQ, NE -> this;
+                case LT -> GT;
+                case LE -> GE;
+                case GT -> LT;
+                case GE -> LE;
+            };
+        }
+
+        boolean test(int comparison) {
+            return switch (this) {
+                case EQ -> comparison == 0;
+                case NE -> comparison != 0;
+                case LT -> comparison < 0;
+                case LE -> comparison <= 0;
+                case GT -> comparison > 0;
+                case GE -> comparison >= 0;
+            };
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package cn.sabercon.minidb.query;
+
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Splits a query into tokens, where keywords are returned as identifiers and matched by the parser.
+ */
+final class Lexer {
+
+    enum TokenType {
+        IDENTIFIER,
+        NUMBER,
+        STRING,
+        BYTES,
+        SYMBOL,
+        END,
+    }
+
+    record Token(TokenType type, String text, int position) {
+    }
+
+    private final String query;
+
+    private int pos;
+
+    private Lexer(String query) {
+        this.query = query;
+    }
+
+    static List<Token> tokenize(String query) {
+        var lexer = new Lexer(query);
+        var tokens = new ArrayList<Token>();
+        Token token;
+        do {
+            token = lexer.next();
+            tokens.add(token);
+        } while (token.type() != TokenType.END);
+        return tokens;
+    }
+
+    private Token next() {
+        while (pos < query.length() && Character.isWhitespace(query.charAt(pos))) {
+            pos += 1;
+        }
+        if (pos == query.length()) {
+            return new Token(TokenType.END, "", pos);
+        }
+
+        var start = pos;
+        var c = query.charAt(pos);
+        if ((c == 'x' || c == 'X') && pos + 1 < query.length() && query.charAt(pos + 1) == '\'') {
+            pos += 1;
+            var hex = readQuoted();
+            try {
+                HexFormat.of().parseHex(hex);
+            } catch (IllegalArgumentException e) {
+                throw error(start, "Invalid hex literal");
+            }
+            return new Token(TokenType.BYTES, hex, start);
+        } else if (Character.isLetter(c) || c == '_') {
+            while (pos < query.length() && (Character.isLetterOrDigit(query.charAt(pos)) || query.charAt(pos) == '_')) {
+                pos += 1;
+            }
+            return new Token(TokenType.IDENTIFIER, query.substring(start, pos), start);
+        } else if (Character.isDigit(c) || c == '-' && pos + 1 < query.length() && Character.isDigit(query.charAt(pos + 1))) {
+            pos += 1;
+            while (pos < query.length() && Character.isDigit(query.charAt(pos))) {
+                pos += 1;
+            }
+            return new Token(TokenType.NUMBER, query.substring(start, pos), start);
+        } else if (c == '\'') {
+            return new Token(TokenType.STRING, readQuoted(), start);
+        } else {
+            return new Token(TokenType.SYMBOL, readSymbol(), start);
+        }
+    }
+
+    /**
+     * Reads a single-quoted string, where a quote is escaped by doubling it.
+     */
+    private String readQuoted() {
+        var start = pos;
+        var builder = new StringBuilder();
+        pos += 1;
+        while (true) {
+            if (pos == query.length()) {
+                throw error(start, "Unterminated string");
+            }
+            var c = query.charAt(pos++);
+            if (c != '\'') {
+                builder.append(c);
+            } else if (pos < query.length() && query.charAt(pos) == '\'') {
+                builder.append(c);
+                pos += 1;
+            } else {
+                return builder.toString();
+            }
+        }
+    }
+
+    private String readSymbol() {
+        for (var symbol : List.of("<=", ">=", "!=", "<>")) {
+            if (query.startsWith(symbol, pos)) {
+                pos += symbol.length();
+                return symbol;
+            }
+        }
+
+        var c = query.charAt(pos);
+        if ("(),*=<>;".indexOf(c) < 0) {
+            throw error(pos, STR."Unexpected character: \{c}");
+        }
+        pos += 1;
+        return String.valueOf(c);
+    }
+
+    static IllegalArgumentException error(int position, String message) {
+        return new IllegalArgumentException(STR."\{message} at position \{position}");
+    }
+}
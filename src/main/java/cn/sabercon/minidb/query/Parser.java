@@ -0,0 +1,262 @@
+package cn.sabercon.minidb.query;
+
+import cn.sabercon.minidb.query.Expression.Operator;
+import cn.sabercon.minidb.query.Lexer.Token;
+import cn.sabercon.minidb.query.Lexer.TokenType;
+
+import java.util.*;
+
+import static cn.sabercon.minidb.query.Lexer.error;
+
+/**
+ * A recursive descent parser of the query language:
+ * <pre>
+ * SELECT (* | column, ...) FROM table [WHERE expression] [ORDER BY column [ASC | DESC], ...] [LIMIT number]
+ * INSERT INTO table (column, ...) VALUES (literal, ...), ...
+ * UPDATE table SET column = literal, ... [WHERE expression]
+ * DELETE FROM table [WHERE expression]
+ * </pre>
+ * where expressions are comparisons between columns and literals, {@code IS [NOT] NULL},
+ * {@code AND}, {@code OR}, {@code NOT} and parentheses.
+ */
+final class Parser {
+
+    private final List<Token> tokens;
+
+    private int pos;
+
+    private Parser(List<Token> tokens) {
+        this.tokens = tokens;
+    }
+
+    static Statement parse(String query) {
+        var parser = new Parser(Lexer.tokenize(query));
+        var statement = parser.statement();
+        parser.acceptSymbol(";");
+        parser.expect(TokenType.END);
+        return statement;
+    }
+
+    private Statement statement() {
+        if (acceptKeyword("SELECT")) return select();
+        if (acceptKeyword("INSERT")) return insert();
+        if (acceptKeyword("UPDATE")) return update();
+        if (acceptKeyword("DELETE")) return delete();
+        throw unexpected();
+    }
+
+    private Statement.Select select() {
+        var columns = new ArrayList<String>();
+        if (!acceptSymbol("*")) {
+            do {
+                columns.add(identifier());
+            } while (acceptSymbol(","));
+        }
+        expectKeyword("FROM");
+        var table = identifier();
+        var where = acceptKeyword("WHERE") ? expression() : null;
+
+        var orderBy = new ArrayList<Statement.Order>();
+        if (acceptKeyword("ORDER")) {
+            expectKeyword("BY");
+            do {
+                var column = identifier();
+                var ascending = !acceptKeyword("DESC");
+                if (ascending) acceptKeyword("ASC");
+                orderBy.add(new Statement.Order(column, ascending));
+            } while (acceptSymbol(","));
+        }
+
+        var limit = -1L;
+        if (acceptKeyword("LIMIT")) {
+            var token = expect(TokenType.NUMBER);
+            try {
+                limit = Long.parseLong(token.text());
+            } catch (NumberFormatException e) {
+                throw error(token.position(), "Limit out of range");
+            }
+            if (limit < 0) throw error(token.position(), "Negative limit");
+        }
+        return new Statement.Select(table, columns, where, orderBy, limit);
+    }
+
+    private Statement.Insert insert() {
+        expectKeyword("INTO");
+        var table = identifier();
+        var columns = new ArrayList<String>();
+        expectSymbol("(");
+        do {
+            columns.add(identifier());
+        } while (acceptSymbol(","));
+        expectSymbol(")");
+
+        expectKeyword("VALUES");
+        var rows = new ArrayList<List<Object>>();
+        do {
+            var start = peek().position();
+            var values = new ArrayList<>();
+            expectSymbol("(");
+            do {
+                values.add(literal());
+            } while (acceptSymbol(","));
+            expectSymbol(")");
+            if (values.size() != columns.size()) throw error(start, "Mismatched number of values");
+            rows.add(values);
+        } while (acceptSymbol(","));
+        return new Statement.Insert(table, columns, rows);
+    }
+
+    private Statement.Update update() {
+        var table = identifier();
+        expectKeyword("SET");
+        var assignments = new LinkedHashMap<String, Object>();
+        do {
+            var position = peek().position();
+            var column = identifier();
+            expectSymbol("=");
+            if (assignments.containsKey(column)) throw error(position, STR."Duplicate column: \{column}");
+            assignments.put(column, literal());
+        } while (acceptSymbol(","));
+        var where = acceptKeyword("WHERE") ? expression() : null;
+        return new Statement.Update(table, assignments, where);
+    }
+
+    private Statement.Delete delete() {
+        expectKeyword("FROM");
+        var table = identifier();
+        var where = acceptKeyword("WHERE") ? expression() : null;
+        return new Statement.Delete(table, where);
+    }
+
+    private Expression expression() {
+        var expression = conjunction();
+        while (acceptKeyword("OR")) {
+            expression = new Expression.Or(expression, conjunction());
+        }
+        return expression;
+    }
+
+    private Expression conjunction() {
+        var expression = negation();
+        while (acceptKeyword("AND")) {
+            expression = new Expression.And(expression, negation());
+        }
+        return expression;
+    }
+
+    private Expression negation() {
+        if (acceptKeyword("NOT")) {
+            return new Expression.Not(negation());
+        }
+        if (acceptSymbol("(")) {
+            var expression = expression();
+            expectSymbol(")");
+            return expression;
+        }
+        return predicate();
+    }
+
+    private Expression predicate() {
+        if (peek().type() != TokenType.IDENTIFIER || isKeyword(peek(), "NULL")) {
+            // Literal first, like "1 < id"
+            var value = literal();
+            var operator = operator();
+            return new Expression.Comparison(identifier(), operator.flip(), value);
+        }
+
+        var column = identifier();
+        if (acceptKeyword("IS")) {
+            var negated = acceptKeyword("NOT");
+            expectKeyword("NULL");
+            return new Expression.IsNull(column, negated);
+        }
+        var operator = operator();
+        return new Expression.Comparison(column, operator, literal());
+    }
+
+    private Operator operator() {
+        var token = expect(TokenType.SYMBOL);
+        return switch (token.text()) {
+            case "=" -> Operator.EQ;
+            case "!=", "<>" -> Operator.NE;
+            case "<" -> Operator.LT;
+            case "<=" -> Operator.LE;
+            case ">" -> Operator.GT;
+            case ">=" -> Operator.GE;
+            default -> throw error(token.position(), STR."Unexpected symbol: \{token.text()}");
+        };
+    }
+
+    private Object literal() {
+        var token = peek();
+        switch (token.type()) {
+            case NUMBER -> {
+                pos += 1;
+                try {
+                    return Long.parseLong(token.text());
+                } catch (NumberFormatException e) {
+                    throw error(token.position(), "Number out of range");
+                }
+            }
+            case STRING -> {
+                pos += 1;
+                return token.text();
+            }
+            case BYTES -> {
+                pos += 1;
+                return HexFormat.of().parseHex(token.text());
+            }
+            default -> {
+                expectKeyword("NULL");
+                return null;
+            }
+        }
+    }
+
+    private String identifier() {
+        var token = expect(TokenType.IDENTIFIER);
+        return token.text();
+    }
+
+    private Token peek() {
+        return tokens.get(pos);
+    }
+
+    private Token expect(TokenType type) {
+        var token = peek();
+        if (token.type() != type) throw unexpected();
+        pos += 1;
+        return token;
+    }
+
+    private boolean acceptKeyword(String keyword) {
+        if (!isKeyword(peek(), keyword)) return false;
+        pos += 1;
+        return true;
+    }
+
+    private void expectKeyword(String keyword) {
+        if (!acceptKeyword(keyword)) throw unexpected();
+    }
+
+    private boolean acceptSymbol(String symbol) {
+        var token = peek();
+        if (token.type() != TokenType.SYMBOL || !token.text().equals(symbol)) return false;
+        pos += 1;
+        return true;
+    }
+
+    private void expectSymbol(String symbol) {
+        if (!acceptSymbol(symbol)) throw unexpected();
+    }
+
+    private static boolean isKeyword(Token token, String keyword) {
+        return token.type() == TokenType.IDENTIFIER && token.text().equalsIgnoreCase(keyword);
+    }
+
+    private IllegalArgumentException unexpected() {
+        var token = peek();
+        var text = token.type() == TokenType.END ? "end of query" : token.text();
+        return error(token.position(), STR."Unexpected \{text}");
+    }
+}
@@ -0,0 +1,38 @@
+package cn.sabercon.minidb.query;
+
+import cn.sabercon.minidb.table.Row;
+import cn.sabercon.minidb.table.Table;
+import com.google.common.collect.Iterators;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.function.Predicate;
+
+/**
+ * How to read the rows of a query: a range scan over the primary key or a secondary index,
+ * followed by the filter and, if the scan order doesn't match the requested one, a sort.
+ *
+ * @param index     The index to scan, or null to scan the primary key
+ * @param indexOnly Whether the rows are built from the index only, since it covers all the columns used
+ * @param filter    The full filter of the query, since the range only narrows down the rows
+ * @param order     The order to sort the rows in, or null if the scan order already matches it
+ */
+record Plan(Table table, String index, boolean indexOnly,
+            Object[] from, boolean fromInclusive, Object[] to, boolean toInclusive,
+            Predicate<Row> filter, Comparator<Row> order) {
+
+    /**
+     * @return The filtered rows, which are read lazily so the scan stops as soon as the caller stops
+     */
+    Iterator<Row> scan() {
+        Iterator<Row> rows;
+        if (index == null) {
+            rows = table.scan(from, fromInclusive, to, toInclusive);
+        } else if (indexOnly) {
+            rows = table.scanIndexOnly(index, from, fromInclusive, to, toInclusive);
+        } else {
+            rows = table.scanIndex(index, from, fromInclusive, to, toInclusive);
+        }
+        return Iterators.filter(rows, filter::test);
+    }
+}
@@ -0,0 +1,232 @@
+package cn.sabercon.minidb.query;
+
+import cn.sabercon.minidb.query.Expression.Comparison;
+import cn.sabercon.minidb.query.Expression.IsNull;
+import cn.sabercon.minidb.query.Expression.Operator;
+import cn.sabercon.minidb.table.Column;
+import cn.sabercon.minidb.table.Row;
+import cn.sabercon.minidb.table.Schema;
+import cn.sabercon.minidb.table.Table;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Chooses between the primary key and the secondary indexes of a table for a query.
+ * <p>
+ * For each of them, the conjuncts of the filter are matched against its key columns in order:
+ * equalities on the leading columns and then at most one range on the next column
+ * become the bounds of a range scan. The one with the most matched columns wins,
+ * preferring the one whose order matches the requested order, and then the primary key.
+ */
+final class Planner {
+
+    private Planner() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param columns All the columns used by the query, deciding whether an index covers it
+     */
+    static Plan plan(Table table, Expression where, List<Statement.Order> orderBy, Set<String> columns) {
+        var schema = table.schema();
+        var conjuncts = new ArrayList<Expression>();
+        if (where != null) {
+            flatten(where, conjuncts);
+        }
+
+        var best = candidate(schema, null, primaryKeyColumns(schema), conjuncts, orderBy);
+        for (var index : schema.indexes()) {
+            var candidate = candidate(schema, index.name(), index.keyColumns(schema), conjuncts, orderBy);
+            if (candidate.score() > best.score()) {
+                best = candidate;
+            }
+        }
+
+        var indexOnly = best.index() != null && table.covers(best.index(), columns);
+        return new Plan(table, best.index(), indexOnly,
+                best.from().toArray(), best.fromInclusive(), best.to().toArray(), best.toInclusive(),
+                compile(schema, where), best.ordered() ? null : comparator(schema, orderBy));
+    }
+
+    private record Candidate(String index, List<Object> from, boolean fromInclusive,
+                             List<Object> to, boolean toInclusive, int equalities, boolean ranged, boolean ordered) {
+
+        int score() {
+            return 4 * equalities + (ranged ? 2 : 0) + (ordered ? 1 : 0);
+        }
+    }
+
+    private static Candidate candidate(Schema schema, String index, List<String> keyColumns,
+                                       List<Expression> conjuncts, List<Statement.Order> orderBy) {
+        var from = new ArrayList<>();
+        var to = new ArrayList<>();
+        var fromInclusive = true;
+        var toInclusive = true;
+        var equalities = 0;
+        var ranged = false;
+
+        for (var name : keyColumns) {
+            var column = schema.column(schema.columnIndex(name));
+            var equality = findEquality(column, conjuncts);
+            if (equality != null) {
+                var value = equality.value();
+                from.add(value);
+                to.add(value);
+                equalities += 1;
+                continue;
+            }
+
+            var lower = findComparison(column, conjuncts, Operator.GT, Operator.GE);
+            if (lower != null) {
+                from.add(Values.coerce(column, lower.value()));
+                fromInclusive = lower.operator() == Operator.GE;
+                ranged = true;
+            }
+            var upper = findComparison(column, conjuncts, Operator.LT, Operator.LE);
+            if (upper != null) {
+                to.add(Values.coerce(column, upper.value()));
+                toInclusive = upper.operator() == Operator.LE;
+                ranged = true;
+            }
+            break;
+        }
+
+        var ordered = isOrdered(keyColumns, equalities, orderBy);
+        return new Candidate(index, from, fromInclusive, to, toInclusive, equalities, ranged, ordered);
+    }
+
+    /**
+     * @return The equality on the column, which is {@code IS NULL} or a comparison with a coerced value
+     */
+    private static Comparison findEquality(Column column, List<Expression> conjuncts) {
+        for (var conjunct : conjuncts) {
+            if (conjunct instanceof IsNull(var name, var negated) && name.equals(column.name()) && !negated) {
+                return new Comparison(name, Operator.EQ, null);
+            }
+            if (conjunct instanceof Comparison(var name, var operator, var value)
+                    && name.equals(column.name()) && operator == Operator.EQ && value != null) {
+                return new Comparison(name, operator, Values.coerce(column, value));
+            }
+        }
+        return null;
+    }
+
+    private static Comparison findComparison(Column column, List<Expression> conjuncts, Operator... operators) {
+        for (var conjunct : conjuncts) {
+            if (conjunct instanceof Comparison comparison && comparison.column().equals(column.name())
+                    && comparison.value() != null && List.of(operators).contains(comparison.operator())) {
+                return comparison;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The scan order matches the requested order if the order columns, all ascending,
+     * are the key columns starting at or before the first column without an equality.
+     */
+    private static boolean isOrdered(List<String> keyColumns, int equalities, List<Statement.Order> orderBy) {
+        if (orderBy.isEmpty()) return true;
+        if (!orderBy.stream().allMatch(Statement.Order::ascending)) return false;
+
+        var orderColumns = orderBy.stream().map(Statement.Order::column).toList();
+        for (int start = 0; start <= equalities && start + orderColumns.size() <= keyColumns.size(); start++) {
+            if (keyColumns.subList(start, start + orderColumns.size()).equals(orderColumns)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> primaryKeyColumns(Schema schema) {
+        return schema.primaryKeyColumns().stream().map(Column::name).toList();
+    }
+
+    private static void flatten(Expression expression, List<Expression> conjuncts) {
+        if (expression instanceof Expression.And(var left, var right)) {
+            flatten(left, conjuncts);
+            flatten(right, conjuncts);
+        } else {
+            conjuncts.add(expression);
+        }
+    }
+
+    /**
+     * Binds the filter to the columns of the schema, so that evaluating it needs no lookups by name.
+     * Only the rows for which the filter is true are kept.
+     */
+    static Predicate<Row> compile(Schema schema, Expression expression) {
+        if (expression == null) return _ -> true;
+
+        var condition = condition(schema, expression);
+        return row -> condition.test(row) == Boolean.TRUE;
+    }
+
+    /**
+     * A condition in three-valued logic, where null means unknown.
+     */
+    private interface Condition {
+
+        Boolean test(Row row);
+    }
+
+    private static Condition condition(Schema schema, Expression expression) {
+        return switch (expression) {
+            case Expression.And(var left, var right) -> {
+                var l = condition(schema, left);
+                var r = condition(schema, right);
+                yield row -> {
+                    var a = l.test(row);
+                    if (a == Boolean.FALSE) return false;
+                    var b = r.test(row);
+                    if (b == Boolean.FALSE) return false;
+                    return a == null || b == null ? null : true;
+                };
+            }
+            case Expression.Or(var left, var right) -> {
+                var l = condition(schema, left);
+                var r = condition(schema, right);
+                yield row -> {
+                    var a = l.test(row);
+                    if (a == Boolean.TRUE) return true;
+                    var b = r.test(row);
+                    if (b == Boolean.TRUE) return true;
+                    return a == null || b == null ? null : false;
+                };
+            }
+            case Expression.Not(var inner) -> {
+                var c = condition(schema, inner);
+                yield row -> {
+                    var a = c.test(row);
+                    return a == null ? null : !a;
+                };
+            }
+            case IsNull(var name, var negated) -> {
+                var position = schema.columnIndex(name);
+                yield row -> (row.get(position) == null) != negated;
+            }
+            case Comparison(var name, var operator, var literal) -> {
+                var position = schema.columnIndex(name);
+                var value = Values.coerce(schema.column(position), literal);
+                yield row -> {
+                    var actual = row.get(position);
+                    return actual == null || value == null ? null : operator.test(Values.compare(actual, value));
+                };
+            }
+        };
+    }
+
+    static Comparator<Row> comparator(Schema schema, List<Statement.Order> orderBy) {
+        Comparator<Row> comparator = (_, _) -> 0;
+        for (var order : orderBy) {
+            var position = schema.columnIndex(order.column());
+            Comparator<Row> columnComparator = (a, b) -> Values.compareNullsFirst(a.get(position), b.get(position));
+            comparator = comparator.thenComparing(order.ascending() ? columnComparator : columnComparator.reversed());
+        }
+        return comparator;
+    }
+}
@@ -0,0 +1,164 @@
+package cn.sabercon.minidb.query;
+
+import cn.sabercon.minidb.base.KeyValueStore;
+import cn.sabercon.minidb.table.Column;
+import cn.sabercon.minidb.table.Row;
+import cn.sabercon.minidb.table.Schema;
+import cn.sabercon.minidb.table.Table;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Ordering;
+
+import java.util.*;
+
+/**
+ * Runs queries of the query language against the tables in a key-value store.
+ * Every query is committed in a single batch.
+ */
+public class QueryEngine {
+
+    private final KeyValueStore store;
+
+    private final Map<String, Table> tables = new HashMap<>();
+
+    private QueryEngine(KeyValueStore store) {
+        this.store = store;
+    }
+
+    public static QueryEngine of(KeyValueStore store, Schema... schemas) {
+        var engine = new QueryEngine(store);
+        for (var schema : schemas) {
+            Preconditions.checkArgument(engine.tables.put(schema.name(), Table.of(store, schema)) == null,
+                    STR."Duplicate table: \{schema.name()}");
+        }
+        return engine;
+    }
+
+    public QueryResult execute(String query) {
+        return switch (Parser.parse(query)) {
+            case Statement.Select select -> select(select);
+            case Statement.Insert insert -> insert(insert);
+            case Statement.Update update -> update(update);
+            case Statement.Delete delete -> delete(delete);
+        };
+    }
+
+    private Table table(String name) {
+        var table = tables.get(name);
+        Preconditions.checkArgument(table != null, STR."Unknown table: \{name}");
+        return table;
+    }
+
+    private QueryResult select(Statement.Select select) {
+        var table = table(select.table());
+        var schema = table.schema();
+        var columns = select.columns().isEmpty()
+                ? schema.columns().stream().map(Column::name).toList()
+                : select.columns();
+        var positions = columns.stream().mapToInt(schema::columnIndex).toArray();
+
+        var usedColumns = new HashSet<>(columns);
+        collectColumns(select.where(), usedColumns);
+        select.orderBy().forEach(order -> usedColumns.add(order.column()));
+
+        var plan = Planner.plan(table, select.where(), select.orderBy(), usedColumns);
+        var limit = select.limit() < 0 ? Integer.MAX_VALUE : (int) Math.min(select.limit(), Integer.MAX_VALUE);
+        List<Row> rows;
+        if (plan.order() == null) {
+            // The scan stops as soon as enough rows are found
+            rows = new ArrayList<>();
+            Iterators.limit(plan.scan(), limit).forEachRemaining(rows::add);
+        } else {
+            rows = Ordering.from(plan.order()).leastOf(plan.scan(), limit);
+        }
+
+        var result = rows.stream()
+                .map(row -> Arrays.asList(Arrays.stream(positions).mapToObj(row::get).toArray()))
+                .toList();
+        return QueryResult.selected(columns, result);
+    }
+
+    private QueryResult insert(Statement.Insert insert) {
+        var table = table(insert.table());
+        var schema = table.schema();
+        var positions = insert.columns().stream().mapToInt(schema::columnIndex).toArray();
+
+        store.batch(() -> {
+            for (var values : insert.rows()) {
+                var row = new Object[schema.columns().size()];
+                for (int i = 0; i < positions.length; i++) {
+                    row[positions[i]] = Values.coerce(schema.column(positions[i]), values.get(i));
+                }
+                if (!table.insert(Row.of(schema, row))) {
+                    throw new IllegalArgumentException(STR."Duplicate primary key: \{Arrays.deepToString(Arrays.copyOf(row, schema.primaryKeys()))}");
+                }
+            }
+        });
+        return QueryResult.updated(insert.rows().size());
+    }
+
+    private QueryResult update(Statement.Update update) {
+        var table = table(update.table());
+        var schema = table.schema();
+        var assignments = new LinkedHashMap<Integer, Object>();
+        update.assignments().forEach((name, literal) -> {
+            var position = schema.columnIndex(name);
+            Preconditions.checkArgument(position >= schema.primaryKeys(), STR."Cannot update primary key column: \{name}");
+            assignments.put(position, Values.coerce(schema.column(position), literal));
+        });
+
+        var usedColumns = new HashSet<String>();
+        schema.columns().forEach(column -> usedColumns.add(column.name()));
+        var rows = matchedRows(table, update.where(), usedColumns);
+
+        store.batch(() -> {
+            for (var row : rows) {
+                var values = new Object[schema.columns().size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = assignments.containsKey(i) ? assignments.get(i) : row.get(i);
+                }
+                table.upsert(Row.of(schema, values));
+            }
+        });
+        return QueryResult.updated(rows.size());
+    }
+
+    private QueryResult delete(Statement.Delete delete) {
+        var table = table(delete.table());
+        var usedColumns = new HashSet<String>();
+        collectColumns(delete.where(), usedColumns);
+        table.schema().primaryKeyColumns().forEach(column -> usedColumns.add(column.name()));
+        var rows = matchedRows(table, delete.where(), usedColumns);
+
+        store.batch(() -> rows.forEach(row -> table.delete(row.primaryKey())));
+        return QueryResult.updated(rows.size());
+    }
+
+    /**
+     * Collects the matched rows before writing, since a scan must not be used after the store is modified.
+     */
+    private static List<Row> matchedRows(Table table, Expression where, Set<String> usedColumns) {
+        var plan = Planner.plan(table, where, List.of(), usedColumns);
+        var rows = new ArrayList<Row>();
+        plan.scan().forEachRemaining(rows::add);
+        return rows;
+    }
+
+    private static void collectColumns(Expression expression, Set<String> columns) {
+        switch (expression) {
+            case null -> {
+            }
+            case Expression.And(var left, var right) -> {
+                collectColumns(left, columns);
+                collectColumns(right, columns);
+            }
+            case Expression.Or(var left, var right) -> {
+                collectColumns(left, columns);
+                collectColumns(right, columns);
+            }
+            case Expression.Not(var inner) -> collectColumns(inner, columns);
+            case Expression.IsNull(var column, var _) -> columns.add(column);
+            case Expression.Comparison(var column, var _, var _) -> columns.add(column);
+        }
+    }
+}
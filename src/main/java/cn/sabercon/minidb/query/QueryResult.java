@@ -0,0 +1,19 @@
+package cn.sabercon.minidb.query;
+
+import java.util.List;
+
+/**
+ * @param columns The selected columns, which are empty for writes
+ * @param rows    The selected rows, which are empty for writes
+ * @param updated The number of rows written
+ */
+public record QueryResult(List<String> columns, List<List<Object>> rows, int updated) {
+
+    static QueryResult selected(List<String> columns, List<List<Object>> rows) {
+        return new QueryResult(columns, rows, 0);
+    }
+
+    static QueryResult updated(int updated) {
+        return new QueryResult(List.of(), List.of(), updated);
+    }
+}
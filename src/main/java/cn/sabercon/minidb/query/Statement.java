@@ -0,0 +1,30 @@
+package cn.sabercon.minidb.query;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A parsed query, where literals are longs, strings, byte arrays or nulls until they are bound to columns.
+ */
+sealed interface Statement {
+
+    /**
+     * @param columns The selected columns, or empty for all the columns
+     * @param where   The filter, or null if all the rows are selected
+     * @param limit   The maximum number of rows, or -1 if unlimited
+     */
+    record Select(String table, List<String> columns, Expression where, List<Order> orderBy, long limit) implements Statement {
+    }
+
+    record Insert(String table, List<String> columns, List<List<Object>> rows) implements Statement {
+    }
+
+    record Update(String table, Map<String, Object> assignments, Expression where) implements Statement {
+    }
+
+    record Delete(String table, Expression where) implements Statement {
+    }
+
+    record Order(String column, boolean ascending) {
+    }
+}
@@ -0,0 +1,63 @@
+package cn.sabercon.minidb.query;
+
+import cn.sabercon.minidb.table.Column;
+
+import java.util.Arrays;
+
+/**
+ * Binds literals to column types and compares values in the same order as their encoded keys.
+ */
+final class Values {
+
+    private Values() {
+        throw new UnsupportedOperationException();
+    }
+
+    static Object coerce(Column column, Object literal) {
+        if (literal == null) return null;
+
+        var value = switch (column.type()) {
+            case INT -> literal instanceof Long l && l == l.intValue() ? l.intValue() : null;
+            case LONG, STRING, BYTES -> literal;
+        };
+        if (value == null || !column.type().accepts(value)) {
+            throw new IllegalArgumentException(STR."Invalid value for column: \{column.name()}");
+        }
+        return value;
+    }
+
+    /**
+     * Compares two non-null values of the same type, where strings are compared by code points
+     * and bytes as unsigned bytes, which are the orders of their UTF-8 encodings.
+     */
+    static int compare(Object a, Object b) {
+        return switch (a) {
+            case Integer i -> Integer.compare(i, (Integer) b);
+            case Long l -> Long.compare(l, (Long) b);
+            case String s -> compareCodePoints(s, (String) b);
+            case byte[] bytes -> Arrays.compareUnsigned(bytes, (byte[]) b);
+            default -> throw new IllegalArgumentException(STR."Uncomparable value: \{a}");
+        };
+    }
+
+    /**
+     * Compares two values where nulls come first, which is the order of the encoded keys.
+     */
+    static int compareNullsFirst(Object a, Object b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        return compare(a, b);
+    }
+
+    private static int compareCodePoints(String a, String b) {
+        for (int i = 0, j = 0; i < a.length() && j < b.length(); ) {
+            var ca = a.codePointAt(i);
+            var cb = b.codePointAt(j);
+            if (ca != cb) return Integer.compare(ca, cb);
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Integer.compare(a.length(), b.length());
+    }
+}
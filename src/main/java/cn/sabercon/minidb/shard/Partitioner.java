@@ -0,0 +1,83 @@
+package cn.sabercon.minidb.shard;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decides which shard a key belongs to.
+ */
+public interface Partitioner {
+
+    /**
+     * Spreads the keys evenly over the shards, where every scan has to read all the shards.
+     */
+    static Partitioner hash(int shards) {
+        Preconditions.checkArgument(shards > 0);
+        return new HashPartitioner(shards);
+    }
+
+    /**
+     * Splits the keys into ascending ranges, where the shard {@code i} holds the keys in
+     * {@code [splitKeys[i - 1], splitKeys[i])}, so there is one more shard than split keys.
+     */
+    static Partitioner range(List<byte[]> splitKeys) {
+        for (int i = 1; i < splitKeys.size(); i++) {
+            Preconditions.checkArgument(Arrays.compareUnsigned(splitKeys.get(i - 1), splitKeys.get(i)) < 0,
+                    "Split keys must be strictly ascending");
+        }
+        return new RangePartitioner(splitKeys.stream().map(byte[]::clone).toList());
+    }
+
+    int shards();
+
+    int shardOf(byte[] key);
+
+    /**
+     * @return Whether the shards hold ascending key ranges one after another
+     */
+    boolean ordered();
+
+    record HashPartitioner(int shards) implements Partitioner {
+
+        @Override
+        public int shardOf(byte[] key) {
+            return Math.floorMod(Hashing.murmur3_32_fixed().hashBytes(key).asInt(), shards);
+        }
+
+        @Override
+        public boolean ordered() {
+            return false;
+        }
+    }
+
+    record RangePartitioner(List<byte[]> splitKeys) implements Partitioner {
+
+        @Override
+        public int shards() {
+            return splitKeys.size() + 1;
+        }
+
+        @Override
+        public int shardOf(byte[] key) {
+            // Finds the number of split keys less than or equal to the key
+            int low = 0, high = splitKeys.size();
+            while (low < high) {
+                var mid = (low + high) >>> 1;
+                if (Arrays.compareUnsigned(splitKeys.get(mid), key) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        @Override
+        public boolean ordered() {
+            return true;
+        }
+    }
+}
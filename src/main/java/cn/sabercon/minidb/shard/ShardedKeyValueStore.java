@@ -0,0 +1,373 @@
+package cn.sabercon.minidb.shard;
+
+import cn.sabercon.minidb.base.KeyValueStore;
+import cn.sabercon.minidb.btree.BTree;
+import cn.sabercon.minidb.util.Pair;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * A key-value store partitioning the keys over independent stores, usually one {@link BTree} file each.
+ * <p>
+ * Every shard is only accessed by its own writer thread, so the callers from different threads
+ * read and write different shards in parallel. Writes in a batch are buffered in the calling thread
+ * and committed by all the involved shards in parallel, where each shard commits atomically on its own.
+ */
+public class ShardedKeyValueStore implements KeyValueStore, AutoCloseable {
+
+    static final int SCAN_CHUNK_SIZE = 256;
+
+    private static final Comparator<byte[]> KEY_ORDER = Arrays::compareUnsigned;
+
+    private final Partitioner partitioner;
+
+    private final List<KeyValueStore> shards;
+
+    private final List<ExecutorService> writers;
+
+    private final ThreadLocal<Batch> batches = new ThreadLocal<>();
+
+    /**
+     * Whether the shards are opened by the store, which closes them then.
+     */
+    private final boolean ownsShards;
+
+    ShardedKeyValueStore(Partitioner partitioner, List<? extends KeyValueStore> shards, boolean ownsShards) {
+        Preconditions.checkArgument(partitioner.shards() == shards.size());
+        this.partitioner = partitioner;
+        this.shards = List.copyOf(shards);
+        this.ownsShards = ownsShards;
+        var threadFactory = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("minidb-shard-%d").build();
+        this.writers = shards.stream().map(shard -> Executors.newSingleThreadExecutor(threadFactory)).toList();
+    }
+
+    /**
+     * The shards are left open on {@link #close()}, as they are opened by the caller.
+     */
+    public static ShardedKeyValueStore of(Partitioner partitioner, List<? extends KeyValueStore> shards) {
+        return new ShardedKeyValueStore(partitioner, shards, false);
+    }
+
+    /**
+     * Keeps each shard in a {@code shard-<i>.minidb} file in the given directory.
+     */
+    public static ShardedKeyValueStore from(Path directory, Partitioner partitioner) {
+        return from(directory, partitioner, BTree::from);
+    }
+
+    /**
+     * Opens each shard at a {@code shard-<i>.minidb} path in the given directory with the given engine,
+     * such as {@code BTree::from} or {@code LsmStore::from}. The shards are closed on {@link #close()}.
+     */
+    public static ShardedKeyValueStore from(Path directory, Partitioner partitioner,
+                                            Function<Path, ? extends KeyValueStore> engine) {
+        var shards = IntStream.range(0, partitioner.shards())
+                .mapToObj(i -> engine.apply(directory.resolve(STR."shard-\{i}.minidb")))
+                .toList();
+        return new ShardedKeyValueStore(partitioner, shards, true);
+    }
+
+    private <T> T call(int shard, Callable<T> task) {
+        return join(writers.get(shard).submit(task));
+    }
+
+    private static <T> T join(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public Optional<byte[]> find(byte[] key) {
+        var batch = batches.get();
+        if (batch != null && batch.writes.containsKey(key)) {
+            return Optional.ofNullable(batch.writes.get(key)).map(byte[]::clone);
+        }
+
+        var shard = partitioner.shardOf(key);
+        return call(shard, () -> shards.get(shard).find(key));
+    }
+
+    /**
+     * Looks up the keys of each shard on its writer thread, where the shards are read in parallel.
+     */
+    @Override
+    public List<Optional<byte[]>> findAll(Collection<byte[]> keys) {
+        if (batches.get() != null) {
+            return KeyValueStore.super.findAll(keys);
+        }
+
+        var keyList = List.copyOf(keys);
+        var positionsByShard = new HashMap<Integer, List<Integer>>();
+        for (int i = 0; i < keyList.size(); i++) {
+            positionsByShard.computeIfAbsent(partitioner.shardOf(keyList.get(i)), shard -> new ArrayList<>()).add(i);
+        }
+
+        var futures = new HashMap<Integer, Future<List<Optional<byte[]>>>>();
+        positionsByShard.forEach((shard, positions) -> {
+            var shardKeys = positions.stream().map(keyList::get).toList();
+            futures.put(shard, writers.get(shard).submit(() -> shards.get(shard).findAll(shardKeys)));
+        });
+
+        var results = new ArrayList<Optional<byte[]>>(Collections.nCopies(keyList.size(), Optional.empty()));
+        positionsByShard.forEach((shard, positions) -> {
+            var values = join(futures.get(shard));
+            for (int i = 0; i < positions.size(); i++) {
+                results.set(positions.get(i), values.get(i));
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Reads each shard in chunks on its writer thread, so every chunk is consistent on its own,
+     * while the writes between the chunks may or may not be seen.
+     */
+    @Override
+    public Iterator<Pair<byte[], byte[]>> scan(byte[] start, byte[] end) {
+        Iterator<Pair<byte[], byte[]>> iterator;
+        if (partitioner.ordered()) {
+            var first = partitioner.shardOf(start);
+            var last = end == null ? shards.size() - 1 : partitioner.shardOf(end);
+            iterator = Iterators.concat(IntStream.rangeClosed(first, last)
+                    .mapToObj(shard -> (Iterator<Pair<byte[], byte[]>>) new ShardIterator(shard, start, end))
+                    .iterator());
+        } else {
+            var iterators = IntStream.range(0, shards.size()).mapToObj(shard -> new ShardIterator(shard, start, end)).toList();
+            iterator = Iterators.mergeSorted(iterators, Comparator.<Pair<byte[], byte[]>, byte[]>comparing(Pair::first, KEY_ORDER));
+        }
+
+        var batch = batches.get();
+        if (batch == null) return iterator;
+        var writes = end == null ? batch.writes.tailMap(start, true) : batch.writes.subMap(start, true, end, false);
+        return new OverlayIterator(iterator, writes);
+    }
+
+    @Override
+    public void upsert(byte[] key, byte[] value) {
+        var batch = batches.get();
+        if (batch != null) {
+            // The caller may reuse the arrays before the batch is committed
+            batch.writes.put(key.clone(), value.clone());
+            return;
+        }
+
+        var shard = partitioner.shardOf(key);
+        call(shard, () -> {
+            shards.get(shard).upsert(key, value);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean delete(byte[] key) {
+        var batch = batches.get();
+        if (batch != null) {
+            var deleted = find(key).isPresent();
+            batch.writes.put(key.clone(), null);
+            return deleted;
+        }
+
+        var shard = partitioner.shardOf(key);
+        return call(shard, () -> shards.get(shard).delete(key));
+    }
+
+    /**
+     * Runs on the writer thread of the shard, so it is atomic unless in a batch.
+     */
+    @Override
+    public Optional<byte[]> compute(byte[] key, UnaryOperator<Optional<byte[]>> function) {
+        if (batches.get() != null) {
+            return KeyValueStore.super.compute(key, function);
+        }
+
+        var shard = partitioner.shardOf(key);
+        return call(shard, () -> shards.get(shard).compute(key, function));
+    }
+
+    /**
+     * Commits the writes of the involved shards in parallel. If any shard fails to commit,
+     * the exception is thrown after the others have finished, which may have been committed.
+     */
+    @Override
+    public void batch(Runnable writes) {
+        var batch = batches.get();
+        if (batch != null) {
+            writes.run();
+            return;
+        }
+
+        batch = new Batch();
+        batches.set(batch);
+        try {
+            writes.run();
+        } finally {
+            batches.remove();
+        }
+        commit(batch);
+    }
+
+    private void commit(Batch batch) {
+        var writesByShard = new HashMap<Integer, List<Map.Entry<byte[], byte[]>>>();
+        batch.writes.entrySet().forEach(entry ->
+                writesByShard.computeIfAbsent(partitioner.shardOf(entry.getKey()), shard -> new ArrayList<>()).add(entry));
+
+        var futures = new ArrayList<Future<?>>();
+        writesByShard.forEach((shard, entries) -> futures.add(writers.get(shard).submit(() -> {
+            var store = shards.get(shard);
+            store.batch(() -> entries.forEach(entry -> {
+                if (entry.getValue() == null) {
+                    store.delete(entry.getKey());
+                } else {
+                    store.upsert(entry.getKey(), entry.getValue());
+                }
+            }));
+        })));
+
+        RuntimeException failure = null;
+        for (var future : futures) {
+            try {
+                join(future);
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Stops the writer threads after the submitted operations are done,
+     * and closes the shards opened by {@link #from}, so that their files can be opened again.
+     */
+    @Override
+    public void close() {
+        writers.forEach(ExecutorService::close);
+        if (!ownsShards) return;
+
+        IllegalStateException failure = null;
+        for (var shard : shards) {
+            if (!(shard instanceof AutoCloseable closeable)) continue;
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                if (failure == null) {
+                    failure = new IllegalStateException("Failed to close the shards", e);
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * The writes of a batch not committed yet, where a null value marks a deleted key.
+     */
+    private static class Batch {
+
+        final NavigableMap<byte[], byte[]> writes = new TreeMap<>(KEY_ORDER);
+    }
+
+    /**
+     * Iterates over a shard by reading a chunk at a time on its writer thread.
+     */
+    private class ShardIterator extends AbstractIterator<Pair<byte[], byte[]>> {
+
+        private final int shard;
+
+        private final byte[] end;
+
+        private byte[] start;
+
+        /**
+         * Whether the start key has been returned in the last chunk and should be skipped.
+         */
+        private boolean startReturned;
+
+        private boolean exhausted;
+
+        private Iterator<Pair<byte[], byte[]>> chunk = Collections.emptyIterator();
+
+        ShardIterator(int shard, byte[] start, byte[] end) {
+            this.shard = shard;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Pair<byte[], byte[]> computeNext() {
+            if (!chunk.hasNext() && !exhausted) {
+                var pairs = call(shard, this::readChunk);
+                exhausted = pairs.size() < SCAN_CHUNK_SIZE;
+                if (!pairs.isEmpty()) {
+                    start = pairs.getLast().first();
+                    startReturned = true;
+                }
+                chunk = pairs.iterator();
+            }
+            return chunk.hasNext() ? chunk.next() : endOfData();
+        }
+
+        private List<Pair<byte[], byte[]>> readChunk() {
+            var iterator = shards.get(shard).scan(start, end);
+            var pairs = new ArrayList<Pair<byte[], byte[]>>(SCAN_CHUNK_SIZE);
+            while (iterator.hasNext() && pairs.size() < SCAN_CHUNK_SIZE) {
+                var pair = iterator.next();
+                if (!startReturned || !Arrays.equals(pair.first(), start)) {
+                    pairs.add(pair);
+                }
+            }
+            return pairs;
+        }
+    }
+
+    /**
+     * Overlays the uncommitted writes of a batch on the committed pairs.
+     */
+    private static class OverlayIterator extends AbstractIterator<Pair<byte[], byte[]>> {
+
+        private final PeekingIterator<Pair<byte[], byte[]>> committed;
+
+        private final PeekingIterator<Map.Entry<byte[], byte[]>> writes;
+
+        OverlayIterator(Iterator<Pair<byte[], byte[]>> committed, NavigableMap<byte[], byte[]> writes) {
+            this.committed = Iterators.peekingIterator(committed);
+            this.writes = Iterators.peekingIterator(writes.entrySet().iterator());
+        }
+
+        @Override
+        protected Pair<byte[], byte[]> computeNext() {
+            while (committed.hasNext() || writes.hasNext()) {
+                var order = !writes.hasNext() ? -1 : !committed.hasNext() ? 1
+                        : KEY_ORDER.compare(committed.peek().first(), writes.peek().getKey());
+                if (order < 0) return committed.next();
+                if (order == 0) committed.next();
+
+                var write = writes.next();
+                if (write.getValue() != null) return Pair.of(write.getKey().clone(), write.getValue().clone());
+            }
+            return endOfData();
+        }
+    }
+}
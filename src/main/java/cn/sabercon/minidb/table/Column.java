@@ -0,0 +1,17 @@
+package cn.sabercon.minidb.table;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Objects;
+
+public record Column(String name, ColumnType type) {
+
+    public Column {
+        Preconditions.checkArgument(!name.isEmpty());
+        Objects.requireNonNull(type);
+    }
+
+    public static Column of(String name, ColumnType type) {
+        return new Column(name, type);
+    }
+}
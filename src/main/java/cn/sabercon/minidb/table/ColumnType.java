@@ -0,0 +1,27 @@
+package cn.sabercon.minidb.table;
+
+public enum ColumnType {
+
+    INT(Integer.class),
+    LONG(Long.class),
+    STRING(String.class),
+    BYTES(byte[].class),
+    ;
+
+    private final Class<?> javaType;
+
+    ColumnType(Class<?> javaType) {
+        this.javaType = javaType;
+    }
+
+    public Class<?> javaType() {
+        return javaType;
+    }
+
+    /**
+     * @return Whether the value can be stored in a column of this type, where {@code null} is always accepted
+     */
+    public boolean accepts(Object value) {
+        return value == null || javaType.isInstance(value);
+    }
+}
@@ -0,0 +1,44 @@
+package cn.sabercon.minidb.table;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A secondary index, whose keys are the indexed columns followed by the primary key columns not indexed yet.
+ *
+ * @param prefix   The 4-byte prefix of all the keys of the index, which must be unique in a store
+ * @param includes The columns also stored in the values of the index, so that scans reading only the indexed
+ *                 and included columns never touch the rows
+ */
+public record Index(String name, int prefix, List<String> columns, List<String> includes) {
+
+    public Index {
+        Preconditions.checkArgument(!name.isEmpty());
+        Preconditions.checkArgument(!columns.isEmpty());
+        columns = List.copyOf(columns);
+        includes = List.copyOf(includes);
+    }
+
+    public static Index of(String name, int prefix, String... columns) {
+        return new Index(name, prefix, List.of(columns), List.of());
+    }
+
+    public Index including(String... columns) {
+        return new Index(name, prefix, this.columns, List.of(columns));
+    }
+
+    /**
+     * @return The columns making up the keys of the index, in key order
+     */
+    public List<String> keyColumns(Schema schema) {
+        var keyColumns = new ArrayList<>(columns);
+        for (var column : schema.primaryKeyColumns()) {
+            if (!keyColumns.contains(column.name())) {
+                keyColumns.add(column.name());
+            }
+        }
+        return keyColumns;
+    }
+}
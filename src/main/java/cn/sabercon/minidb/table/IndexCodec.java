@@ -0,0 +1,108 @@
+package cn.sabercon.minidb.table;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps the columns of a row to the keys and values of an index.
+ */
+final class IndexCodec {
+
+    private final Schema schema;
+
+    private final Index index;
+
+    /**
+     * The positions in the row of the columns making up the key, which end with the primary key columns.
+     */
+    private final int[] keyPositions;
+
+    private final List<Column> keyColumns;
+
+    private final int[] includePositions;
+
+    private final List<Column> includeColumns;
+
+    private final boolean[] covered;
+
+    IndexCodec(Schema schema, Index index) {
+        this.schema = schema;
+        this.index = index;
+
+        var keyColumnNames = index.keyColumns(schema);
+        this.keyPositions = keyColumnNames.stream().mapToInt(schema::columnIndex).toArray();
+        this.keyColumns = Arrays.stream(keyPositions).mapToObj(schema::column).toList();
+
+        this.includePositions = index.includes().stream()
+                .filter(column -> !keyColumnNames.contains(column))
+                .mapToInt(schema::columnIndex)
+                .toArray();
+        this.includeColumns = Arrays.stream(includePositions).mapToObj(schema::column).toList();
+
+        this.covered = new boolean[schema.columns().size()];
+        for (var position : keyPositions) covered[position] = true;
+        for (var position : includePositions) covered[position] = true;
+    }
+
+    Index index() {
+        return index;
+    }
+
+    /**
+     * @return Whether the column is stored in the index, so that it can be read without the row
+     */
+    boolean covers(int position) {
+        return covered[position];
+    }
+
+    byte[] encodeKey(Object[] row) {
+        var values = new Object[keyPositions.length];
+        for (int i = 0; i < keyPositions.length; i++) {
+            values[i] = row[keyPositions[i]];
+        }
+        return TupleCodec.encode(index.prefix(), keyColumns, values);
+    }
+
+    byte[] encodeValue(Object[] row) {
+        var values = new Object[includePositions.length];
+        for (int i = 0; i < includePositions.length; i++) {
+            values[i] = row[includePositions[i]];
+        }
+        return RowCodec.encode(includeColumns, values, 0);
+    }
+
+    /**
+     * Encodes the leading values of the key, used as a bound in range scans.
+     */
+    byte[] encodeBound(Object[] values) {
+        Preconditions.checkArgument(values.length <= keyColumns.size());
+        for (int i = 0; i < values.length; i++) {
+            var column = keyColumns.get(i);
+            Preconditions.checkArgument(column.type().accepts(values[i]), STR."Invalid value for column: \{column.name()}");
+        }
+
+        return TupleCodec.encode(index.prefix(), keyColumns, values);
+    }
+
+    /**
+     * Decodes an entry of the index, where the columns not covered by the index are left null.
+     */
+    Object[] decode(byte[] key, byte[] value) {
+        var row = new Object[schema.columns().size()];
+
+        var keyValues = new Object[keyPositions.length];
+        TupleCodec.decode(key, keyColumns, keyValues);
+        for (int i = 0; i < keyPositions.length; i++) {
+            row[keyPositions[i]] = keyValues[i];
+        }
+
+        var includeValues = new Object[includePositions.length];
+        RowCodec.decode(value, includeColumns, includeValues, 0);
+        for (int i = 0; i < includePositions.length; i++) {
+            row[includePositions[i]] = includeValues[i];
+        }
+        return row;
+    }
+}
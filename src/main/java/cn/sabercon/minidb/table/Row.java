@@ -0,0 +1,71 @@
+package cn.sabercon.minidb.table;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+public final class Row {
+
+    private final Schema schema;
+
+    private final Object[] values;
+
+    private Row(Schema schema, Object[] values) {
+        this.schema = schema;
+        this.values = values;
+    }
+
+    public static Row of(Schema schema, Object... values) {
+        Preconditions.checkArgument(values.length == schema.columns().size());
+        for (int i = 0; i < values.length; i++) {
+            var column = schema.column(i);
+            Preconditions.checkArgument(column.type().accepts(values[i]), STR."Invalid value for column: \{column.name()}");
+        }
+        return new Row(schema, values.clone());
+    }
+
+    /**
+     * Wraps the decoded values without copying or checking them.
+     */
+    static Row wrap(Schema schema, Object[] values) {
+        return new Row(schema, values);
+    }
+
+    public Schema schema() {
+        return schema;
+    }
+
+    public Object get(int index) {
+        return values[index];
+    }
+
+    public Object get(String column) {
+        return values[schema.columnIndex(column)];
+    }
+
+    public Object[] primaryKey() {
+        return Arrays.copyOf(values, schema.primaryKeys());
+    }
+
+    Object[] values() {
+        return values;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Row row)) return false;
+        return schema.equals(row.schema) && Arrays.deepEquals(values, row.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(schema, Arrays.deepHashCode(values));
+    }
+
+    @Override
+    public String toString() {
+        return STR."Row\{Arrays.deepToString(values)}";
+    }
+}
@@ -0,0 +1,153 @@
+package cn.sabercon.minidb.table;
+
+import com.google.common.base.Preconditions;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact encoding of the values of a row, which doesn't preserve the order.
+ * It starts with a bitmap of the null values, and is followed by the non-null values,
+ * where integers are written in big-endian, and strings (in UTF-8) and bytes are prefixed with their varint lengths.
+ */
+public final class RowCodec {
+
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private RowCodec() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Encodes a value for each of the columns from the array, starting from the given offset.
+     */
+    public static byte[] encode(List<Column> columns, Object[] values, int offset) {
+        Preconditions.checkArgument(offset + columns.size() <= values.length);
+
+        var bitmapSize = bitmapSize(columns.size());
+        var size = bitmapSize;
+        for (int i = 0; i < columns.size(); i++) {
+            size += sizeOf(columns.get(i).type(), values[offset + i]);
+        }
+
+        var bytes = new byte[size];
+        var pos = bitmapSize;
+        for (int i = 0; i < columns.size(); i++) {
+            var value = values[offset + i];
+            if (value == null) {
+                bytes[i / Byte.SIZE] |= (byte) (1 << i % Byte.SIZE);
+                continue;
+            }
+            switch (columns.get(i).type()) {
+                case INT -> {
+                    INT.set(bytes, pos, (int) value);
+                    pos += Integer.BYTES;
+                }
+                case LONG -> {
+                    LONG.set(bytes, pos, (long) value);
+                    pos += Long.BYTES;
+                }
+                case STRING -> {
+                    var string = (String) value;
+                    pos = writeVarint(bytes, pos, Utf8.length(string, false));
+                    pos = Utf8.write(bytes, pos, string, false);
+                }
+                case BYTES -> {
+                    var array = (byte[]) value;
+                    pos = writeVarint(bytes, pos, array.length);
+                    System.arraycopy(array, 0, bytes, pos, array.length);
+                    pos += array.length;
+                }
+            }
+        }
+        assert pos == size;
+        return bytes;
+    }
+
+    /**
+     * Decodes a value for each of the columns into the array, starting from the given offset.
+     */
+    public static void decode(byte[] bytes, List<Column> columns, Object[] values, int offset) {
+        var pos = bitmapSize(columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            if ((bytes[i / Byte.SIZE] & 1 << i % Byte.SIZE) != 0) {
+                values[offset + i] = null;
+                continue;
+            }
+            switch (columns.get(i).type()) {
+                case INT -> {
+                    values[offset + i] = (int) INT.get(bytes, pos);
+                    pos += Integer.BYTES;
+                }
+                case LONG -> {
+                    values[offset + i] = (long) LONG.get(bytes, pos);
+                    pos += Long.BYTES;
+                }
+                case STRING -> {
+                    var length = readVarint(bytes, pos);
+                    pos += varintSize(length);
+                    values[offset + i] = new String(bytes, pos, length, StandardCharsets.UTF_8);
+                    pos += length;
+                }
+                case BYTES -> {
+                    var length = readVarint(bytes, pos);
+                    pos += varintSize(length);
+                    values[offset + i] = Arrays.copyOfRange(bytes, pos, pos + length);
+                    pos += length;
+                }
+            }
+        }
+    }
+
+    private static int bitmapSize(int columns) {
+        return (columns + Byte.SIZE - 1) / Byte.SIZE;
+    }
+
+    private static int sizeOf(ColumnType type, Object value) {
+        if (value == null) return 0;
+
+        return switch (type) {
+            case INT -> Integer.BYTES;
+            case LONG -> Long.BYTES;
+            case STRING -> {
+                var length = Utf8.length((String) value, false);
+                yield varintSize(length) + length;
+            }
+            case BYTES -> {
+                var length = ((byte[]) value).length;
+                yield varintSize(length) + length;
+            }
+        };
+    }
+
+    private static int varintSize(int value) {
+        var size = 1;
+        while ((value >>>= 7) != 0) {
+            size += 1;
+        }
+        return size;
+    }
+
+    private static int writeVarint(byte[] dst, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            dst[pos++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        dst[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int readVarint(byte[] bytes, int pos) {
+        var value = 0;
+        for (int shift = 0; ; shift += 7) {
+            var b = bytes[pos++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+}
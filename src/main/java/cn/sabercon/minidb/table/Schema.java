@@ -0,0 +1,81 @@
+package cn.sabercon.minidb.table;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The definition of a table, where the first {@code primaryKeys} columns make up the primary key.
+ *
+ * @param prefix The 4-byte prefix of all the keys of the table, which must be unique in a store
+ */
+public record Schema(String name, int prefix, List<Column> columns, int primaryKeys, List<Index> indexes) {
+
+    public Schema {
+        Preconditions.checkArgument(!name.isEmpty());
+        Preconditions.checkArgument(primaryKeys > 0 && primaryKeys <= columns.size());
+        columns = List.copyOf(columns);
+        indexes = List.copyOf(indexes);
+
+        var names = new HashSet<String>();
+        for (var column : columns) {
+            Preconditions.checkArgument(names.add(column.name()), STR."Duplicate column: \{column.name()}");
+        }
+
+        var indexNames = new HashSet<String>();
+        var prefixes = new HashSet<Integer>();
+        prefixes.add(prefix);
+        for (var index : indexes) {
+            Preconditions.checkArgument(indexNames.add(index.name()), STR."Duplicate index: \{index.name()}");
+            Preconditions.checkArgument(prefixes.add(index.prefix()), STR."Duplicate prefix: \{index.prefix()}");
+            for (var column : index.columns()) {
+                Preconditions.checkArgument(names.contains(column), STR."Unknown column: \{column}");
+            }
+            for (var column : index.includes()) {
+                Preconditions.checkArgument(names.contains(column), STR."Unknown column: \{column}");
+            }
+        }
+    }
+
+    public static Schema of(String name, int prefix, int primaryKeys, Column... columns) {
+        return new Schema(name, prefix, List.of(columns), primaryKeys, List.of());
+    }
+
+    public Schema withIndex(Index index) {
+        var indexes = new ArrayList<>(this.indexes);
+        indexes.add(index);
+        return new Schema(name, prefix, columns, primaryKeys, indexes);
+    }
+
+    public Index index(String name) {
+        for (var index : indexes) {
+            if (index.name().equals(name)) {
+                return index;
+            }
+        }
+        throw new IllegalArgumentException(STR."Unknown index: \{name}");
+    }
+
+    public Column column(int index) {
+        return columns.get(index);
+    }
+
+    public int columnIndex(String column) {
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).name().equals(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(STR."Unknown column: \{column}");
+    }
+
+    public List<Column> primaryKeyColumns() {
+        return columns.subList(0, primaryKeys);
+    }
+
+    public List<Column> valueColumns() {
+        return columns.subList(primaryKeys, columns.size());
+    }
+}
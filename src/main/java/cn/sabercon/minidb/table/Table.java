@@ -0,0 +1,266 @@
+package cn.sabercon.minidb.table;
+
+import cn.sabercon.minidb.base.KeyValueStore;
+import cn.sabercon.minidb.util.Conversions;
+import cn.sabercon.minidb.util.Pair;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * A table of rows stored in a key-value store, keyed by the encoded primary key prefixed with the table prefix.
+ * The secondary indexes are stored in the same store under their own prefixes,
+ * and are always updated in the same batch as the rows.
+ */
+public class Table {
+
+    private final KeyValueStore store;
+
+    private final Schema schema;
+
+    private final Map<String, IndexCodec> indexes = new LinkedHashMap<>();
+
+    private Table(KeyValueStore store, Schema schema) {
+        this.store = store;
+        this.schema = schema;
+        schema.indexes().forEach(index -> indexes.put(index.name(), new IndexCodec(schema, index)));
+    }
+
+    public static Table of(KeyValueStore store, Schema schema) {
+        return new Table(store, schema);
+    }
+
+    public Schema schema() {
+        return schema;
+    }
+
+    public Optional<Row> find(Object... primaryKey) {
+        Preconditions.checkArgument(primaryKey.length == schema.primaryKeys());
+        checkValues(primaryKey);
+
+        var key = encodeKey(primaryKey, primaryKey.length);
+        return store.find(key).map(value -> decodeRow(key, value));
+    }
+
+    /**
+     * Inserts the row or replaces the row with the same primary key.
+     */
+    public void upsert(Row row) {
+        checkRow(row);
+
+        var key = encodeKey(row.values(), schema.primaryKeys());
+        store.batch(() -> {
+            var oldRow = indexes.isEmpty() ? null : findValues(key);
+            write(key, oldRow, row.values());
+        });
+    }
+
+    /**
+     * @return Whether the row is inserted, which is false if a row with the same primary key exists
+     */
+    public boolean insert(Row row) {
+        checkRow(row);
+
+        var key = encodeKey(row.values(), schema.primaryKeys());
+        var inserted = new boolean[1];
+        store.batch(() -> {
+            if (store.find(key).isPresent()) return;
+            write(key, null, row.values());
+            inserted[0] = true;
+        });
+        return inserted[0];
+    }
+
+    /**
+     * @return Whether the row is updated, which is false if no row with the same primary key exists
+     */
+    public boolean update(Row row) {
+        checkRow(row);
+
+        var key = encodeKey(row.values(), schema.primaryKeys());
+        var updated = new boolean[1];
+        store.batch(() -> {
+            var oldRow = findValues(key);
+            if (oldRow == null) return;
+            write(key, oldRow, row.values());
+            updated[0] = true;
+        });
+        return updated[0];
+    }
+
+    public boolean delete(Object... primaryKey) {
+        Preconditions.checkArgument(primaryKey.length == schema.primaryKeys());
+        checkValues(primaryKey);
+
+        var key = encodeKey(primaryKey, primaryKey.length);
+        if (indexes.isEmpty()) {
+            return store.delete(key);
+        }
+
+        var deleted = new boolean[1];
+        store.batch(() -> {
+            var oldRow = findValues(key);
+            if (oldRow == null) return;
+            store.delete(key);
+            updateIndexes(oldRow, null);
+            deleted[0] = true;
+        });
+        return deleted[0];
+    }
+
+    private Object[] findValues(byte[] key) {
+        return store.find(key).map(value -> decodeRow(key, value).values()).orElse(null);
+    }
+
+    private void write(byte[] key, Object[] oldRow, Object[] newRow) {
+        store.upsert(key, encodeValue(newRow));
+        updateIndexes(oldRow, newRow);
+    }
+
+    /**
+     * Replaces the index entries of the old row, if any, with the ones of the new row, if any,
+     * skipping the entries that are not changed.
+     */
+    private void updateIndexes(Object[] oldRow, Object[] newRow) {
+        for (var index : indexes.values()) {
+            var oldKey = oldRow == null ? null : index.encodeKey(oldRow);
+            var newKey = newRow == null ? null : index.encodeKey(newRow);
+            var sameKey = oldKey != null && newKey != null && Arrays.equals(oldKey, newKey);
+
+            if (oldKey != null && !sameKey) {
+                store.delete(oldKey);
+            }
+            if (newKey != null) {
+                var newValue = index.encodeValue(newRow);
+                if (!sameKey || !Arrays.equals(newValue, index.encodeValue(oldRow))) {
+                    store.upsert(newKey, newValue);
+                }
+            }
+        }
+    }
+
+    /**
+     * Iterates over the rows whose primary keys start with the given values, in primary key order.
+     */
+    public Iterator<Row> scan(Object... prefix) {
+        return scan(prefix, true, prefix, true);
+    }
+
+    /**
+     * Iterates over the rows in a range of primary keys, in primary key order.
+     * Each bound may contain only the leading columns of the primary key,
+     * in which case it covers all the rows starting with them.
+     *
+     * @param from The lower bound, or {@code null} if unbounded
+     * @param to   The upper bound, or {@code null} if unbounded
+     */
+    public Iterator<Row> scan(Object[] from, boolean fromInclusive, Object[] to, boolean toInclusive) {
+        var entries = scanRange(this::encodeBound, from, fromInclusive, to, toInclusive);
+        return Iterators.transform(entries, kv -> decodeRow(kv.first(), kv.second()));
+    }
+
+    /**
+     * Iterates over the rows whose indexed columns start with the given values, in index order.
+     */
+    public Iterator<Row> scanIndex(String index, Object... prefix) {
+        return scanIndex(index, prefix, true, prefix, true);
+    }
+
+    /**
+     * Iterates over the rows in a range of an index, in index order.
+     * The bounds are the leading columns of the index keys, which are the indexed columns followed by
+     * the primary key columns.
+     *
+     * @param from The lower bound, or {@code null} if unbounded
+     * @param to   The upper bound, or {@code null} if unbounded
+     */
+    public Iterator<Row> scanIndex(String index, Object[] from, boolean fromInclusive, Object[] to, boolean toInclusive) {
+        var codec = indexCodec(index);
+        var entries = scanRange(codec::encodeBound, from, fromInclusive, to, toInclusive);
+        return Iterators.transform(entries, kv -> {
+            var indexed = codec.decode(kv.first(), kv.second());
+            var key = encodeKey(indexed, schema.primaryKeys());
+            return decodeRow(key, store.find(key).orElseThrow());
+        });
+    }
+
+    /**
+     * Iterates over a range of an index like {@link #scanIndex}, but builds the rows from the index only.
+     * The columns neither indexed nor included by the index are left null.
+     */
+    public Iterator<Row> scanIndexOnly(String index, Object[] from, boolean fromInclusive, Object[] to, boolean toInclusive) {
+        var codec = indexCodec(index);
+        var entries = scanRange(codec::encodeBound, from, fromInclusive, to, toInclusive);
+        return Iterators.transform(entries, kv -> Row.wrap(schema, codec.decode(kv.first(), kv.second())));
+    }
+
+    /**
+     * @return Whether all the columns can be read from the index without touching the rows
+     */
+    public boolean covers(String index, Collection<String> columns) {
+        var codec = indexCodec(index);
+        return columns.stream().allMatch(column -> codec.covers(schema.columnIndex(column)));
+    }
+
+    private IndexCodec indexCodec(String index) {
+        var codec = indexes.get(index);
+        Preconditions.checkArgument(codec != null, STR."Unknown index: \{index}");
+        return codec;
+    }
+
+    private Iterator<Pair<byte[], byte[]>> scanRange(Function<Object[], byte[]> encoder,
+                                                     Object[] from, boolean fromInclusive,
+                                                     Object[] to, boolean toInclusive) {
+        var all = encoder.apply(new Object[0]);
+        var start = from == null ? all : inclusiveStart(encoder.apply(from), fromInclusive);
+        var end = to == null ? Conversions.successor(all) : exclusiveEnd(encoder.apply(to), toInclusive);
+
+        // No key is greater than an exclusive lower bound without a successor.
+        if (start == null) return Collections.emptyIterator();
+
+        return store.scan(start, end);
+    }
+
+    private static byte[] inclusiveStart(byte[] key, boolean inclusive) {
+        return inclusive ? key : Conversions.successor(key);
+    }
+
+    private static byte[] exclusiveEnd(byte[] key, boolean inclusive) {
+        return inclusive ? Conversions.successor(key) : key;
+    }
+
+    private void checkRow(Row row) {
+        Preconditions.checkArgument(row.schema().equals(schema));
+    }
+
+    private void checkValues(Object[] values) {
+        for (int i = 0; i < values.length; i++) {
+            var column = schema.column(i);
+            Preconditions.checkArgument(column.type().accepts(values[i]), STR."Invalid value for column: \{column.name()}");
+        }
+    }
+
+    private byte[] encodeBound(Object[] values) {
+        Preconditions.checkArgument(values.length <= schema.primaryKeys());
+        checkValues(values);
+
+        return encodeKey(values, values.length);
+    }
+
+    private byte[] encodeKey(Object[] values, int count) {
+        return TupleCodec.encode(schema.prefix(), schema.primaryKeyColumns(), values, count);
+    }
+
+    private byte[] encodeValue(Object[] values) {
+        return RowCodec.encode(schema.valueColumns(), values, schema.primaryKeys());
+    }
+
+    private Row decodeRow(byte[] key, byte[] value) {
+        var values = new Object[schema.columns().size()];
+        TupleCodec.decode(key, schema.primaryKeyColumns(), values);
+        RowCodec.decode(value, schema.valueColumns(), values, schema.primaryKeys());
+        return Row.wrap(schema, values);
+    }
+}
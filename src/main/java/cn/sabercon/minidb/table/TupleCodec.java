@@ -0,0 +1,209 @@
+package cn.sabercon.minidb.table;
+
+import com.google.common.base.Preconditions;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static cn.sabercon.minidb.table.Utf8.ESCAPE;
+
+/**
+ * An order-preserving encoding of tuples prefixed with a 4-byte big-endian key prefix.
+ * Comparing two encoded tuples as unsigned bytes gives the same result as comparing them column by column,
+ * with nulls first. The encoding of a tuple is also a prefix of the encoding of any longer tuple starting with it,
+ * so the keys starting with some leading values can be found by a single range scan.
+ * <ul>
+ *     <li>Every value starts with a tag, 0x00 for null and 0x01 for others.</li>
+ *     <li>Integers are written in big-endian with the sign bit flipped.</li>
+ *     <li>Strings (in UTF-8) and bytes are written with 0x00 and 0x01 escaped as 0x01 0x01 and 0x01 0x02,
+ *     and end with 0x00.</li>
+ * </ul>
+ */
+public final class TupleCodec {
+
+    public static final int PREFIX_SIZE = Integer.BYTES;
+
+    private static final byte NULL_TAG = 0x00;
+    private static final byte VALUE_TAG = 0x01;
+    private static final byte TERMINATOR = 0x00;
+
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private TupleCodec() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Encodes the first {@code count} values, which are of the types of the corresponding columns.
+     */
+    public static byte[] encode(int prefix, List<Column> columns, Object[] values, int count) {
+        Preconditions.checkArgument(count <= columns.size() && count <= values.length);
+
+        var size = PREFIX_SIZE;
+        for (int i = 0; i < count; i++) {
+            size += sizeOf(columns.get(i).type(), values[i]);
+        }
+
+        var bytes = new byte[size];
+        INT.set(bytes, 0, prefix);
+        var pos = PREFIX_SIZE;
+        for (int i = 0; i < count; i++) {
+            pos = write(bytes, pos, columns.get(i).type(), values[i]);
+        }
+        assert pos == size;
+        return bytes;
+    }
+
+    public static byte[] encode(int prefix, List<Column> columns, Object[] values) {
+        return encode(prefix, columns, values, values.length);
+    }
+
+    public static int prefix(byte[] bytes) {
+        return (int) INT.get(bytes, 0);
+    }
+
+    /**
+     * Decodes a value for each of the columns into the array, starting from the given position.
+     *
+     * @return The position after the decoded values
+     */
+    public static int decode(byte[] bytes, int pos, List<Column> columns, Object[] values, int offset) {
+        for (int i = 0; i < columns.size(); i++) {
+            if (bytes[pos++] == NULL_TAG) {
+                values[offset + i] = null;
+                continue;
+            }
+            switch (columns.get(i).type()) {
+                case INT -> {
+                    values[offset + i] = (int) INT.get(bytes, pos) ^ Integer.MIN_VALUE;
+                    pos += Integer.BYTES;
+                }
+                case LONG -> {
+                    values[offset + i] = (long) LONG.get(bytes, pos) ^ Long.MIN_VALUE;
+                    pos += Long.BYTES;
+                }
+                case STRING -> {
+                    var end = terminatorPos(bytes, pos);
+                    values[offset + i] = hasEscape(bytes, pos, end)
+                            ? new String(unescape(bytes, pos, end), StandardCharsets.UTF_8)
+                            : new String(bytes, pos, end - pos, StandardCharsets.UTF_8);
+                    pos = end + 1;
+                }
+                case BYTES -> {
+                    var end = terminatorPos(bytes, pos);
+                    values[offset + i] = unescape(bytes, pos, end);
+                    pos = end + 1;
+                }
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Decodes the values after the key prefix.
+     */
+    public static int decode(byte[] bytes, List<Column> columns, Object[] values) {
+        return decode(bytes, PREFIX_SIZE, columns, values, 0);
+    }
+
+    private static int sizeOf(ColumnType type, Object value) {
+        if (value == null) return 1;
+
+        return 1 + switch (type) {
+            case INT -> Integer.BYTES;
+            case LONG -> Long.BYTES;
+            case STRING -> Utf8.length((String) value, true) + 1;
+            case BYTES -> escapedLength((byte[]) value) + 1;
+        };
+    }
+
+    private static int write(byte[] dst, int pos, ColumnType type, Object value) {
+        if (value == null) {
+            dst[pos++] = NULL_TAG;
+            return pos;
+        }
+
+        dst[pos++] = VALUE_TAG;
+        switch (type) {
+            case INT -> {
+                INT.set(dst, pos, (int) value ^ Integer.MIN_VALUE);
+                pos += Integer.BYTES;
+            }
+            case LONG -> {
+                LONG.set(dst, pos, (long) value ^ Long.MIN_VALUE);
+                pos += Long.BYTES;
+            }
+            case STRING -> {
+                pos = Utf8.write(dst, pos, (String) value, true);
+                dst[pos++] = TERMINATOR;
+            }
+            case BYTES -> {
+                pos = writeEscaped(dst, pos, (byte[]) value);
+                dst[pos++] = TERMINATOR;
+            }
+        }
+        return pos;
+    }
+
+    private static int escapedLength(byte[] value) {
+        var length = value.length;
+        for (var b : value) {
+            if (b == TERMINATOR || b == ESCAPE) {
+                length += 1;
+            }
+        }
+        return length;
+    }
+
+    private static int writeEscaped(byte[] dst, int pos, byte[] value) {
+        for (var b : value) {
+            if (b == TERMINATOR || b == ESCAPE) {
+                dst[pos++] = ESCAPE;
+                dst[pos++] = (byte) (b + 1);
+            } else {
+                dst[pos++] = b;
+            }
+        }
+        return pos;
+    }
+
+    private static int terminatorPos(byte[] bytes, int pos) {
+        while (bytes[pos] != TERMINATOR) {
+            pos += 1;
+        }
+        return pos;
+    }
+
+    private static boolean hasEscape(byte[] bytes, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == ESCAPE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] unescape(byte[] bytes, int start, int end) {
+        var length = end - start;
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == ESCAPE) {
+                length -= 1;
+                i += 1;
+            }
+        }
+        if (length == end - start) {
+            return Arrays.copyOfRange(bytes, start, end);
+        }
+
+        var unescaped = new byte[length];
+        for (int i = start, j = 0; i < end; i++, j++) {
+            unescaped[j] = bytes[i] == ESCAPE ? (byte) (bytes[++i] - 1) : bytes[i];
+        }
+        return unescaped;
+    }
+}
@@ -0,0 +1,73 @@
+package cn.sabercon.minidb.table;
+
+/**
+ * Writes strings as UTF-8 directly into a byte array, optionally escaping the bytes 0x00 and 0x01
+ * as 0x01 0x01 and 0x01 0x02. Unpaired surrogates are written as '?' like {@link String#getBytes}.
+ */
+final class Utf8 {
+
+    static final byte ESCAPE = 0x01;
+
+    private Utf8() {
+        throw new UnsupportedOperationException();
+    }
+
+    static int length(String value, boolean escaped) {
+        var length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            if (c < 0x80) {
+                length += escaped && c <= ESCAPE ? 2 : 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (isSurrogatePair(value, i)) {
+                length += 4;
+                i += 1;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return The position after the written bytes
+     */
+    static int write(byte[] dst, int pos, String value, boolean escaped) {
+        for (int i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            if (c < 0x80) {
+                if (escaped && c <= ESCAPE) {
+                    dst[pos++] = ESCAPE;
+                    dst[pos++] = (byte) (c + 1);
+                } else {
+                    dst[pos++] = (byte) c;
+                }
+            } else if (c < 0x800) {
+                dst[pos++] = (byte) (0xC0 | c >> 6);
+                dst[pos++] = (byte) (0x80 | c & 0x3F);
+            } else if (isSurrogatePair(value, i)) {
+                var codePoint = Character.toCodePoint(c, value.charAt(++i));
+                dst[pos++] = (byte) (0xF0 | codePoint >> 18);
+                dst[pos++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                dst[pos++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                dst[pos++] = (byte) (0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                dst[pos++] = '?';
+            } else {
+                dst[pos++] = (byte) (0xE0 | c >> 12);
+                dst[pos++] = (byte) (0x80 | c >> 6 & 0x3F);
+                dst[pos++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return pos;
+    }
+
+    private static boolean isSurrogatePair(String value, int index) {
+        return Character.isHighSurrogate(value.charAt(index))
+                && index + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(index + 1));
+    }
+}
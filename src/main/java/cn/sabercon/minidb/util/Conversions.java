@@ -2,6 +2,7 @@ package cn.sabercon.minidb.util;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 public final class Conversions {
 
@@ -24,4 +25,18 @@ public final class Conversions {
     public static byte[] toBytes(String value) {
         return value.getBytes(StandardCharsets.UTF_8);
     }
+
+    /**
+     * @return The smallest key greater than all the keys starting with the given bytes, or null if there is none
+     */
+    public static byte[] successor(byte[] bytes) {
+        for (int i = bytes.length - 1; i >= 0; i--) {
+            if (bytes[i] != (byte) 0xFF) {
+                var successor = Arrays.copyOf(bytes, i + 1);
+                successor[i] += 1;
+                return successor;
+            }
+        }
+        return null;
+    }
 }
@@ -4,8 +4,10 @@ import cn.sabercon.minidb.page.PageConstants;
 import cn.sabercon.minidb.page.PageManager;
 
 import java.lang.foreign.MemorySegment;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -13,10 +15,20 @@ public class TestPageManager implements PageManager {
 
     private final Map<Long, MemorySegment> pages = new ConcurrentHashMap<>();
 
+    private final Set<Long> createdPages = new HashSet<>();
+
+    private final Set<Long> deletedPages = new HashSet<>();
+
     private final AtomicLong counter = new AtomicLong(1);
 
     private long root = PageConstants.NULL_POINTER;
 
+    private long syncedRoot = PageConstants.NULL_POINTER;
+
+    public int pageCount() {
+        return pages.size();
+    }
+
     @Override
     public long getRoot() {
         return root;
@@ -34,17 +46,33 @@ public class TestPageManager implements PageManager {
 
     @Override
     public void deletePage(long pointer) {
-        Objects.requireNonNull(pages.remove(pointer));
+        Objects.requireNonNull(pages.get(pointer));
+        if (!deletedPages.add(pointer)) {
+            throw new IllegalStateException();
+        }
     }
 
     @Override
     public long createPage(MemorySegment page) {
         var pointer = counter.getAndIncrement();
         pages.put(pointer, page);
+        createdPages.add(pointer);
         return pointer;
     }
 
     @Override
     public void flush() {
+        deletedPages.forEach(pages::remove);
+        deletedPages.clear();
+        createdPages.clear();
+        syncedRoot = root;
+    }
+
+    @Override
+    public void rollback() {
+        createdPages.forEach(pages::remove);
+        createdPages.clear();
+        deletedPages.clear();
+        root = syncedRoot;
     }
 }
@@ -23,7 +23,7 @@ class DefaultFileBufferTest {
 
     @AfterEach
     void tearDown() {
-        buffer = null;
+        buffer.close();
     }
 
     @Nested
@@ -110,6 +110,24 @@ class DefaultFileBufferTest {
         }
     }
 
+    @Nested
+    class Prefetch {
+
+        @Test
+        void keeps_data_unchanged() {
+            var data = MemorySegment.ofArray(randomBytes(4096));
+            buffer.set(0, data);
+            buffer.prefetch(0, 4096);
+
+            assertSegmentEquals(data, buffer.get(0, 4096));
+        }
+
+        @Test
+        void ignores_range_out_of_bounds() {
+            assertDoesNotThrow(() -> buffer.prefetch(0, 4096));
+        }
+    }
+
     @Nested
     class Flush {
 
@@ -117,5 +135,69 @@ class DefaultFileBufferTest {
         void succeeds_when_invoked() {
             assertDoesNotThrow(buffer::flush);
         }
+
+        @Test
+        void flushes_range_in_bounds() {
+            buffer.set(MIN_BYTE_SIZE, MemorySegment.ofArray(randomBytes(4096)));
+
+            assertDoesNotThrow(() -> buffer.flush(MIN_BYTE_SIZE, 4096));
+            assertThrows(IllegalArgumentException.class, () -> buffer.flush(buffer.byteSize(), 4096));
+        }
+    }
+
+    @Nested
+    class Close {
+
+        @Test
+        void returns_error_when_opened_twice_for_writing(@TempDir Path tempDir) {
+            var path = tempDir.resolve("write.minidb");
+            var writer = FileBuffer.from(path);
+
+            assertThrows(IllegalStateException.class, () -> FileBuffer.from(path));
+            assertThrows(IllegalStateException.class, () -> FileBuffer.from(path.resolveSibling("./write.minidb")));
+            writer.close();
+        }
+
+        @Test
+        void reopens_for_writing_after_closed(@TempDir Path tempDir) {
+            var path = tempDir.resolve("write.minidb");
+            var data = MemorySegment.ofArray(randomBytes(4096));
+            var writer = FileBuffer.from(path);
+            writer.set(0, data);
+            writer.flush();
+            writer.close();
+            writer.close();
+
+            var reopened = FileBuffer.from(path);
+            assertSegmentEquals(data, reopened.get(0, 4096));
+            reopened.close();
+        }
+    }
+
+    @Nested
+    class ReadOnly {
+
+        @Test
+        void reads_data_set_by_writer_after_opened(@TempDir Path tempDir) {
+            var path = tempDir.resolve("read.minidb");
+            var writer = FileBuffer.from(path);
+            writer.set(0, MemorySegment.ofArray(randomBytes(4096)));
+            var reader = FileBuffer.readOnly(path);
+
+            var data = MemorySegment.ofArray(randomBytes(4096));
+            writer.set(MIN_BYTE_SIZE * 2, data);
+
+            assertEquals(writer.byteSize(), reader.byteSize());
+            assertSegmentEquals(data, reader.get(MIN_BYTE_SIZE * 2, 4096));
+        }
+
+        @Test
+        void returns_error_when_setting_data(@TempDir Path tempDir) {
+            var path = tempDir.resolve("read.minidb");
+            FileBuffer.from(path).set(0, MemorySegment.ofArray(randomBytes(4096)));
+            var reader = FileBuffer.readOnly(path);
+
+            assertThrows(UnsupportedOperationException.class, () -> reader.set(0, MemorySegment.ofArray(randomBytes())));
+        }
     }
 }
@@ -0,0 +1,78 @@
+package cn.sabercon.minidb.base;
+
+import cn.sabercon.minidb.btree.BTree;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static cn.sabercon.minidb.TestUtils.*;
+import static cn.sabercon.minidb.base.DefaultFileBuffer.MIN_BYTE_SIZE;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MemoryFileBufferTest {
+
+    FileBuffer buffer;
+
+    @BeforeEach
+    void setUp() {
+        buffer = FileBuffer.inMemory();
+    }
+
+    @Test
+    void returns_zero_size_when_no_data_set() {
+        assertEquals(0, buffer.byteSize());
+        assertThrows(IllegalArgumentException.class, () -> buffer.get(0, 1));
+    }
+
+    @Test
+    void keeps_data_when_growing() {
+        var data1 = MemorySegment.ofArray(randomBytes(4096));
+        var data2 = MemorySegment.ofArray(randomBytes(4096));
+        buffer.set(0, data1);
+        assertEquals(MIN_BYTE_SIZE, buffer.byteSize());
+
+        buffer.set(MIN_BYTE_SIZE * 3, data2);
+        assertEquals(MIN_BYTE_SIZE * 4, buffer.byteSize());
+        assertSegmentEquals(data1, buffer.get(0, 4096));
+        assertSegmentEquals(data2, buffer.get(MIN_BYTE_SIZE * 3, 4096));
+    }
+
+    @Test
+    void keeps_chunks_in_place_when_growing() {
+        buffer.set(0, MemorySegment.ofArray(randomBytes(4096)));
+        var page = buffer.get(0, 4096);
+
+        buffer.set(MIN_BYTE_SIZE * 8L, MemorySegment.ofArray(randomBytes(4096)));
+        var data = MemorySegment.ofArray(randomBytes(4096));
+        buffer.set(0, data);
+        assertSegmentEquals(data, page);
+    }
+
+    @Test
+    void sets_data_across_chunks() {
+        var data = MemorySegment.ofArray(randomBytes(8192));
+        buffer.set(MIN_BYTE_SIZE - 4096, data);
+        assertEquals(MIN_BYTE_SIZE * 2L, buffer.byteSize());
+        assertSegmentEquals(data.asSlice(0, 4096), buffer.get(MIN_BYTE_SIZE - 4096, 4096));
+        assertSegmentEquals(data.asSlice(4096, 4096), buffer.get(MIN_BYTE_SIZE, 4096));
+        assertThrows(IllegalArgumentException.class, () -> buffer.get(MIN_BYTE_SIZE - 4096, 8192));
+    }
+
+    @Test
+    void runs_btree_on_top() {
+        var btree = BTree.inMemory();
+        var map = new TreeMap<byte[], byte[]>(Arrays::compareUnsigned);
+        Stream.generate(() -> randomBytes(1, 100)).limit(2000).forEach(key -> {
+            var value = randomBytes(1, 100);
+            map.put(key, value);
+            btree.upsert(key, value);
+        });
+
+        assertEquals(map.size(), btree.count());
+        map.forEach((key, value) -> assertArrayEquals(value, btree.find(key).orElseThrow()));
+    }
+}
@@ -1,16 +1,41 @@
 package cn.sabercon.minidb.btree;
 
 import cn.sabercon.minidb.TestPageManager;
+import cn.sabercon.minidb.base.FileBuffer;
 import cn.sabercon.minidb.base.KeyValueStore;
+import cn.sabercon.minidb.base.MergeOperator;
+import cn.sabercon.minidb.page.AllocationMode;
+import cn.sabercon.minidb.page.PageAllocator;
+import cn.sabercon.minidb.page.PageManager;
+import cn.sabercon.minidb.page.PageType;
 import cn.sabercon.minidb.util.Pair;
+import com.google.common.primitives.Bytes;
+import com.google.common.primitives.Longs;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static cn.sabercon.minidb.TestUtils.randomBytes;
+import static cn.sabercon.minidb.base.KeyValueStore.MAX_KEY_SIZE;
+import static cn.sabercon.minidb.btree.BTreeConstants.INTERNAL_FIXED_ITEM_BYTES;
+import static cn.sabercon.minidb.page.PageConstants.HEADER_SIZE;
+import static cn.sabercon.minidb.page.PageConstants.PAGE_BYTE_SIZE;
 import static org.junit.jupiter.api.Assertions.*;
 
 class BTreeTest {
@@ -48,6 +73,68 @@ class BTreeTest {
             assertTrue(result.isPresent());
             assertArrayEquals(value, result.get());
         }
+
+        @Test
+        void finds_all_keys_in_input_order() {
+            var btree = testBtree();
+            var keys = Stream.generate(() -> randomBytes(1, 10)).limit(3000).toList();
+            keys.stream().limit(2000).forEach(key -> btree.upsert(key, Bytes.concat(key, key)));
+
+            var lookedUp = new ArrayList<>(keys.subList(1000, 3000));
+            lookedUp.add(keys.get(1500));
+            var results = btree.findAll(lookedUp);
+
+            assertEquals(lookedUp.size(), results.size());
+            for (int i = 0; i < lookedUp.size(); i++) {
+                var expected = btree.find(lookedUp.get(i));
+                var result = results.get(i);
+                assertEquals(expected.isPresent(), result.isPresent());
+                expected.ifPresent(value -> assertArrayEquals(value, result.orElseThrow()));
+            }
+        }
+    }
+
+    @Nested
+    class Scan {
+
+        @Test
+        void returns_nothing_when_tree_is_empty() {
+            var btree = testBtree();
+
+            assertFalse(btree.scan(new byte[0], null).hasNext());
+        }
+
+        @Test
+        void returns_all_keys_in_order_when_unbounded() {
+            var btree = testBtree();
+            var keyMap = new TreeMap<byte[], byte[]>(Arrays::compareUnsigned);
+            Stream.generate(() -> randomBytes()).limit(1000).forEach(key -> keyMap.put(key, randomBytes()));
+            keyMap.forEach(btree::upsert);
+
+            var iterator = btree.scan(new byte[0], null);
+            keyMap.forEach((key, value) -> {
+                var kv = iterator.next();
+                assertArrayEquals(key, kv.first());
+                assertArrayEquals(value, kv.second());
+            });
+            assertFalse(iterator.hasNext());
+        }
+
+        @Test
+        void returns_keys_in_range_when_bounded() {
+            var btree = testBtree();
+            var keys = new TreeSet<byte[]>(Arrays::compareUnsigned);
+            Stream.generate(() -> randomBytes(1, 10)).limit(1000).forEach(keys::add);
+            keys.forEach(key -> btree.upsert(key, randomBytes(1)));
+
+            var start = randomBytes(1, 10);
+            var end = randomBytes(1, 10);
+            var expected = Arrays.compareUnsigned(start, end) < 0 ? keys.subSet(start, end) : new TreeSet<byte[]>();
+
+            var iterator = btree.scan(start, Arrays.compareUnsigned(start, end) < 0 ? end : start);
+            expected.forEach(key -> assertArrayEquals(key, iterator.next().first()));
+            assertFalse(iterator.hasNext());
+        }
     }
 
     @Nested
@@ -158,6 +245,23 @@ class BTreeTest {
             });
         }
 
+        @Test
+        void works_as_expected_when_inserting_many_keys_with_common_prefix() {
+            var btree = testBtree();
+            var prefix = randomBytes(12);
+            var keyMap = Stream.generate(() -> Pair.of(ByteBuffer.wrap(Bytes.concat(prefix, randomBytes(1, 8))), randomBytes()))
+                    .limit(1000)
+                    .collect(Collectors.toMap(Pair::first, Pair::second, (a, _) -> a));
+
+            keyMap.forEach((key, value) -> btree.upsert(key.array(), value));
+
+            keyMap.forEach((key, value) -> {
+                var result = btree.find(key.array());
+                assertTrue(result.isPresent());
+                assertArrayEquals(value, result.get());
+            });
+        }
+
         @Test
         void works_as_expected_when_updating_many_keys() {
             var btree = testBtree();
@@ -176,6 +280,95 @@ class BTreeTest {
         }
     }
 
+    @Nested
+    class Split {
+
+        @Test
+        void packs_leaves_when_keys_are_appended() {
+            var packedManager = new TestPageManager();
+            var halvedManager = new TestPageManager();
+            var packed = BTree.of(packedManager);
+            var halved = BTree.of(halvedManager, SplitPolicy.of(0.5, 0.5));
+            for (long i = 0; i < 10000; i++) {
+                var key = ByteBuffer.allocate(Long.BYTES).putLong(i).array();
+                var value = randomBytes(100);
+                packed.upsert(key, value);
+                halved.upsert(key, value);
+            }
+
+            assertEquals(10000, packed.count());
+            assertTrue(packedManager.pageCount() < halvedManager.pageCount() * 0.6);
+        }
+
+        @Test
+        void works_with_custom_fill_factor() {
+            var btree = BTree.of(new TestPageManager(), SplitPolicy.of(0.9, 0.9));
+            var keyMap = new TreeMap<byte[], byte[]>(Arrays::compareUnsigned);
+            Stream.generate(() -> randomBytes(1, 100)).limit(2000).forEach(key -> {
+                var value = randomBytes(1, 500);
+                keyMap.put(key, value);
+                btree.upsert(key, value);
+            });
+
+            keyMap.forEach((key, value) -> assertArrayEquals(value, btree.find(key).orElseThrow()));
+            assertEquals(keyMap.size(), btree.count());
+        }
+
+        @Test
+        void truncates_separators_of_long_keys() {
+            var btree = new BTree(new TestPageManager());
+            var keys = new TreeSet<byte[]>(Arrays::compareUnsigned);
+            Stream.generate(() -> randomBytes(MAX_KEY_SIZE)).limit(500).forEach(key -> {
+                keys.add(key);
+                btree.upsert(key, randomBytes(1, 100));
+            });
+            keys.stream().limit(100).forEach(btree::delete);
+
+            assertEquals(PageType.BTREE_INTERNAL, btree.getRoot().type());
+            assertSeparatorsTruncated(btree, btree.getRoot());
+            var remaining = keys.stream().skip(100).toList();
+            remaining.forEach(key -> assertTrue(btree.find(key).isPresent()));
+            var scanned = new ArrayList<byte[]>();
+            btree.scan(new byte[0], null).forEachRemaining(pair -> scanned.add(pair.first()));
+            assertEquals(remaining.size(), scanned.size());
+            for (int i = 0; i < remaining.size(); i++) {
+                assertArrayEquals(remaining.get(i), scanned.get(i));
+            }
+        }
+
+        private static void assertSeparatorsTruncated(BTree btree, BTreeNode node) {
+            if (node.type() != PageType.BTREE_INTERNAL) return;
+
+            for (int i = 0; i < node.items(); i++) {
+                assertTrue(node.getKey(i).length <= Long.BYTES);
+                assertSeparatorsTruncated(btree, btree.getNode(node.getPointer(i)));
+            }
+        }
+    }
+
+    @Nested
+    class InternalNode {
+
+        @Test
+        void keeps_children_in_fixed_width_arrays() {
+            var children = List.of(
+                    new ChildPointer(new byte[0], 3, 10),
+                    new ChildPointer("apple".getBytes(), 7, 20),
+                    new ChildPointer("banana".getBytes(), 5, 30));
+            var node = BTreeUtils.createRoot(PageAllocator.HEAP, children);
+
+            var keyBytes = children.stream().mapToInt(child -> child.key().length).sum();
+            assertEquals(HEADER_SIZE + INTERNAL_FIXED_ITEM_BYTES * children.size() + keyBytes, node.bytes());
+            for (int i = 0; i < children.size(); i++) {
+                assertArrayEquals(children.get(i).key(), node.getKey(i));
+                assertEquals(children.get(i).pointer(), node.getPointer(i));
+                assertEquals(children.get(i).count(), node.getCount(i));
+            }
+            assertEquals(60, node.keyCount());
+            assertEquals(1, node.lookUp(children.get(1).key()));
+        }
+    }
+
     @Nested
     class Delete {
 
@@ -251,5 +444,367 @@ class BTreeTest {
             keySet.forEach(key -> assertTrue(btree.delete(key.array())));
             keySet.forEach(key -> assertTrue(btree.find(key.array()).isEmpty()));
         }
+
+        @Test
+        void keeps_leaves_dense_after_deleting_most_keys() {
+            var btree = new BTree(new TestPageManager());
+            var keys = new TreeSet<byte[]>(Arrays::compareUnsigned);
+            Stream.generate(() -> randomBytes(1, 100)).limit(5000).forEach(keys::add);
+            keys.forEach(key -> btree.upsert(key, randomBytes(1, 100)));
+            var deletedKeys = keys.stream().filter(key -> Math.random() < 0.9).toList();
+            deletedKeys.forEach(key -> assertTrue(btree.delete(key)));
+
+            var leaves = new ArrayList<BTreeNode>();
+            collectLeaves(btree, btree.getRoot(), leaves);
+            var averageBytes = leaves.stream().mapToInt(BTreeNode::bytes).average().orElseThrow();
+            assertTrue(averageBytes >= PAGE_BYTE_SIZE / 4.0);
+            assertEquals(keys.size() - deletedKeys.size(), btree.count());
+        }
+
+        private void collectLeaves(BTree btree, BTreeNode node, List<BTreeNode> leaves) {
+            if (node.type() == PageType.BTREE_LEAF) {
+                leaves.add(node);
+                return;
+            }
+            for (int i = 0; i < node.items(); i++) {
+                collectLeaves(btree, btree.getNode(node.getPointer(i)), leaves);
+            }
+        }
+    }
+
+    @Nested
+    class DeleteRange {
+
+        @Test
+        void deletes_keys_in_range() {
+            for (int round = 0; round < 20; round++) {
+                var btree = new BTree(new TestPageManager());
+                var keyMap = new TreeMap<byte[], byte[]>(Arrays::compareUnsigned);
+                Stream.generate(() -> randomBytes(1, 10)).limit(3000).forEach(key -> {
+                    keyMap.put(key, key);
+                    btree.upsert(key, key);
+                });
+
+                var start = randomBytes(1, 2);
+                var end = randomBytes(1, 2);
+                var range = Arrays.compareUnsigned(start, end) < 0 ? keyMap.subMap(start, end) : new TreeMap<byte[], byte[]>();
+                var expected = range.size();
+                range.clear();
+
+                assertEquals(expected, btree.deleteRange(start, end));
+                assertEquals(keyMap.size(), btree.count());
+                var iterator = btree.scan(new byte[0], null);
+                keyMap.forEach((key, value) -> assertArrayEquals(key, iterator.next().first()));
+                assertFalse(iterator.hasNext());
+            }
+        }
+
+        @Test
+        void deletes_all_keys_and_frees_their_pages() {
+            var manager = new TestPageManager();
+            var btree = new BTree(manager);
+            Stream.generate(() -> randomBytes(1, 100)).limit(5000).forEach(key -> btree.upsert(key, randomBytes(1, 100)));
+            var count = btree.count();
+
+            assertEquals(count, btree.deleteRange(new byte[0], null));
+            assertEquals(0, btree.count());
+            assertEquals(1, manager.pageCount());
+
+            var key = randomBytes();
+            btree.upsert(key, key);
+            assertArrayEquals(key, btree.find(key).orElseThrow());
+        }
+
+        @Test
+        void deletes_keys_with_prefix() {
+            var btree = new BTree(new TestPageManager());
+            var prefixes = List.of(new byte[]{1}, new byte[]{2}, new byte[]{-1});
+            for (var prefix : prefixes) {
+                for (int i = 0; i < 1000; i++) {
+                    btree.upsert(Bytes.concat(prefix, randomBytes(1, 10)), randomBytes(1, 100));
+                }
+            }
+            var count = btree.count(new byte[]{2}, new byte[]{3});
+            var total = btree.count();
+
+            assertEquals(count, btree.deletePrefix(new byte[]{2}));
+            assertEquals(total - count, btree.count());
+            assertEquals(0, btree.count(new byte[]{2}, new byte[]{3}));
+            assertEquals(btree.count(new byte[]{-1}, null), btree.deletePrefix(new byte[]{-1}));
+            assertEquals(0, btree.count(new byte[]{-1}, null));
+        }
+    }
+
+    @Nested
+    class Compute {
+
+        @Test
+        void inserts_updates_and_deletes_key() {
+            var btree = testBtree();
+            var key = randomBytes();
+            var value = randomBytes();
+
+            assertArrayEquals(value, btree.compute(key, current -> Optional.of(value)).orElseThrow());
+            assertArrayEquals(value, btree.find(key).orElseThrow());
+            var newValue = btree.compute(key, current -> Optional.of(Bytes.concat(current.orElseThrow(), value)));
+            assertArrayEquals(Bytes.concat(value, value), btree.find(key).orElseThrow());
+            assertArrayEquals(newValue.orElseThrow(), btree.find(key).orElseThrow());
+            assertTrue(btree.compute(key, current -> Optional.empty()).isEmpty());
+            assertTrue(btree.find(key).isEmpty());
+        }
+
+        @Test
+        void puts_if_absent_and_replaces_if_expected() {
+            var btree = testBtree();
+            var key = randomBytes();
+            var value1 = randomBytes();
+            var value2 = randomBytes();
+
+            assertTrue(btree.putIfAbsent(key, value1).isEmpty());
+            assertArrayEquals(value1, btree.putIfAbsent(key, value2).orElseThrow());
+            assertFalse(btree.replace(key, value2, value2));
+            assertTrue(btree.replace(key, value1, value2));
+            assertArrayEquals(value2, btree.find(key).orElseThrow());
+        }
+
+        @Test
+        void merges_counters_and_appends() {
+            var btree = testBtree();
+            var counters = Stream.generate(() -> randomBytes(1, 10)).limit(200).toList();
+            for (int round = 0; round < 10; round++) {
+                counters.forEach(key -> btree.merge(key, Longs.toByteArray(1), MergeOperator.INCREMENT));
+            }
+            var key = randomBytes();
+            btree.merge(key, new byte[]{1}, MergeOperator.APPEND);
+            btree.merge(key, new byte[]{2}, MergeOperator.APPEND);
+
+            var expected = counters.stream().collect(Collectors.toMap(ByteBuffer::wrap, counter -> 1L, Long::sum));
+            expected.forEach((counter, count) ->
+                    assertEquals(count * 10, Longs.fromByteArray(btree.find(counter.array()).orElseThrow())));
+            assertArrayEquals(new byte[]{1, 2}, btree.find(key).orElseThrow());
+        }
+    }
+
+    @Nested
+    class Batch {
+
+        @Test
+        void applies_all_writes_when_succeeds() {
+            var btree = testBtree();
+            var key1 = randomBytes();
+            var key2 = randomBytes();
+
+            btree.batch(() -> {
+                btree.upsert(key1, key1);
+                btree.upsert(key2, key2);
+            });
+
+            assertArrayEquals(key1, btree.find(key1).orElseThrow());
+            assertArrayEquals(key2, btree.find(key2).orElseThrow());
+        }
+
+        @Test
+        void discards_all_writes_when_fails() {
+            var btree = testBtree();
+            var key1 = randomBytes();
+            var key2 = randomBytes();
+            btree.upsert(key1, key1);
+
+            assertThrows(IllegalStateException.class, () -> btree.batch(() -> {
+                btree.delete(key1);
+                btree.upsert(key2, key2);
+                throw new IllegalStateException();
+            }));
+
+            assertArrayEquals(key1, btree.find(key1).orElseThrow());
+            assertTrue(btree.find(key2).isEmpty());
+        }
+    }
+
+    @Nested
+    class Count {
+
+        @Test
+        void returns_zero_when_tree_is_empty() {
+            var btree = new BTree(new TestPageManager());
+
+            assertEquals(0, btree.count());
+            assertEquals(0, btree.rank(randomBytes()));
+            assertThrows(IndexOutOfBoundsException.class, () -> btree.keyAt(0));
+        }
+
+        @Test
+        void works_as_expected_after_inserting_and_deleting_many_keys() {
+            var btree = new BTree(new TestPageManager());
+            var keys = new TreeSet<byte[]>(Arrays::compareUnsigned);
+            Stream.generate(() -> randomBytes(1, 100)).limit(2000).forEach(key -> {
+                keys.add(key);
+                btree.upsert(key, randomBytes(1, 100));
+            });
+            keys.stream().limit(500).toList().forEach(key -> {
+                keys.remove(key);
+                btree.delete(key);
+            });
+
+            assertEquals(keys.size(), btree.count());
+            var sortedKeys = List.copyOf(keys);
+            for (int i = 0; i < sortedKeys.size(); i += 37) {
+                assertArrayEquals(sortedKeys.get(i), btree.keyAt(i));
+                assertEquals(i, btree.rank(sortedKeys.get(i)));
+            }
+
+            var start = randomBytes(1, 2);
+            var end = randomBytes(1, 2);
+            var expected = Arrays.compareUnsigned(start, end) < 0 ? keys.subSet(start, end).size() : 0;
+            assertEquals(expected, btree.count(start, end));
+        }
+    }
+
+    @Nested
+    class Clean {
+
+        @Test
+        void moves_live_pages_out_of_sparse_segments(@TempDir Path tempDir) {
+            var pageManager = PageManager.of(FileBuffer.from(tempDir.resolve("test.minidb")), AllocationMode.APPEND);
+            var btree = BTree.of(pageManager);
+            var keys = Stream.generate(() -> randomBytes(16)).limit(2000).toList();
+            btree.batch(() -> keys.forEach(key -> btree.upsert(key, key)));
+            keys.stream().limit(1600).forEach(btree::delete);
+
+            var sparseSegments = pageManager.sparseSegments(0.5);
+            assertFalse(sparseSegments.isEmpty());
+            btree.clean(0.5);
+
+            var remainingSegments = pageManager.sparseSegments(0.5);
+            assertTrue(sparseSegments.stream().noneMatch(remainingSegments::contains));
+            var key = randomBytes(16);
+            btree.upsert(key, key);
+            assertArrayEquals(key, btree.find(key).orElseThrow());
+            assertEquals(401, btree.count());
+            keys.stream().skip(1600).forEach(k -> assertArrayEquals(k, btree.find(k).orElseThrow()));
+        }
+    }
+
+    @Nested
+    class WarmUp {
+
+        @Test
+        void keeps_keys_readable_after_reopening(@TempDir Path tempDir) {
+            var path = tempDir.resolve("test.minidb");
+            var btree = BTree.from(path);
+            var map = new TreeMap<byte[], byte[]>(Arrays::compareUnsigned);
+            Stream.generate(() -> randomBytes(1, 100)).limit(2000).forEach(key -> {
+                var value = randomBytes(1, 100);
+                map.put(key, value);
+                btree.upsert(key, value);
+            });
+            btree.close();
+
+            var reopened = BTree.from(path);
+            reopened.warmUp();
+
+            assertEquals(map.size(), reopened.count());
+            map.forEach((key, value) -> assertArrayEquals(value, reopened.find(key).orElseThrow()));
+        }
+    }
+
+    @Nested
+    class ReadOnly {
+
+        @Test
+        void reads_commits_of_writer(@TempDir Path tempDir) {
+            var path = tempDir.resolve("test.minidb");
+            var writer = BTree.from(path);
+            var key1 = randomBytes(1, 100);
+            writer.upsert(key1, key1);
+
+            var reader = BTree.readOnly(path, Duration.ZERO);
+            assertArrayEquals(key1, reader.find(key1).orElseThrow());
+
+            var key2 = randomBytes(101, 200);
+            writer.upsert(key2, key2);
+            assertArrayEquals(key2, reader.find(key2).orElseThrow());
+        }
+
+        @Test
+        void reads_latest_commit_when_writer_committed_within_refresh_interval(@TempDir Path tempDir) {
+            var path = tempDir.resolve("test.minidb");
+            var writer = BTree.from(path);
+            writer.upsert(randomBytes(1, 100), randomBytes());
+
+            var reader = BTree.readOnly(path, Duration.ofDays(1));
+            var key = randomBytes(101, 200);
+            writer.upsert(key, key);
+
+            // The pages of the old commit may be reused, so they are never read after a commit
+            assertArrayEquals(key, reader.find(key).orElseThrow());
+        }
+
+        @Test
+        void reads_consistent_commits_while_writer_process_reuses_pages(@TempDir Path tempDir) throws Exception {
+            var path = tempDir.resolve("test.minidb");
+            var java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+            var process = new ProcessBuilder(java, "--enable-preview", "-cp", System.getProperty("java.class.path"),
+                    WriterProcess.class.getName(), path.toString(), "3000")
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            try {
+                var output = new BufferedReader(new InputStreamReader(process.getInputStream()));
+                assertEquals("ready", output.readLine());
+
+                var reader = BTree.readOnly(path, Duration.ZERO);
+                var reads = 0;
+                while (process.isAlive() || reads == 0) {
+                    // All the values of a single read come from the same commit
+                    var values = reader.findAll(WriterProcess.KEYS).stream().map(Optional::orElseThrow).toList();
+                    assertTrue(values.stream().allMatch(value -> Arrays.equals(value, values.getFirst())));
+                    assertEquals(WriterProcess.KEYS.size(), reader.count());
+                    reads += 1;
+                }
+
+                assertTrue(process.waitFor(1, TimeUnit.MINUTES));
+                assertEquals(0, process.exitValue());
+            } finally {
+                process.destroyForcibly();
+            }
+        }
+
+        @Test
+        void returns_error_when_writing(@TempDir Path tempDir) {
+            var path = tempDir.resolve("test.minidb");
+            var key = randomBytes(1, 100);
+            BTree.from(path).upsert(key, key);
+            var reader = BTree.readOnly(path, Duration.ZERO);
+
+            assertThrows(UnsupportedOperationException.class, () -> reader.upsert(randomBytes(1, 100), randomBytes()));
+            assertThrows(UnsupportedOperationException.class, () -> reader.delete(key));
+            assertArrayEquals(key, reader.find(key).orElseThrow());
+        }
+    }
+
+    /**
+     * Rewrites all the keys in each commit of another process, so that the pages of a commit are soon reused.
+     */
+    static class WriterProcess {
+
+        static final List<byte[]> KEYS = IntStream.range(0, 300).mapToObj(Longs::toByteArray).toList();
+
+        static final int VALUE_SIZE = 100;
+
+        public static void main(String[] args) {
+            var path = Path.of(args[0]);
+            var commits = Integer.parseInt(args[1]);
+            try (var btree = BTree.from(path)) {
+                for (int generation = 1; generation <= commits; generation++) {
+                    var value = new byte[VALUE_SIZE];
+                    Arrays.fill(value, (byte) generation);
+                    btree.batch(() -> KEYS.forEach(key -> btree.upsert(key, value)));
+                    if (generation == 1) {
+                        System.out.println("ready");
+                        System.out.flush();
+                    }
+                }
+            }
+        }
     }
 }
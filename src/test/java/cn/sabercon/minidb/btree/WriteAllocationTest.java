@@ -0,0 +1,58 @@
+package cn.sabercon.minidb.btree;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Guards the heap allocated by steady-state writes, the same way as {@code WriteAllocationBenchmark},
+ * by counting the bytes allocated by the thread.
+ */
+class WriteAllocationTest {
+
+    static final int KEYS = 100_000;
+
+    static final int BATCH_SIZE = 100;
+
+    /**
+     * Half of a heap copy of a single page, which leaves room for the small wrappers of the page buffers
+     * on the copied path and for the occasional split, while catching any page copied to the heap.
+     */
+    static final long MAX_BYTES_PER_WRITE = 2048;
+
+    @Test
+    void allocates_little_heap_per_upsert() {
+        var bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var btree = BTree.inMemory();
+        var random = ThreadLocalRandom.current();
+        var keys = new byte[KEYS][];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = new byte[16];
+            random.nextBytes(keys[i]);
+        }
+        var value = new byte[100];
+        random.nextBytes(value);
+        writeBatches(btree, keys, value, KEYS / BATCH_SIZE);
+
+        var before = bean.getCurrentThreadAllocatedBytes();
+        var batches = 200;
+        writeBatches(btree, keys, value, batches);
+        var bytesPerWrite = (bean.getCurrentThreadAllocatedBytes() - before) / (batches * BATCH_SIZE);
+
+        assertTrue(bytesPerWrite <= MAX_BYTES_PER_WRITE, STR."\{bytesPerWrite} bytes allocated per upsert");
+    }
+
+    private static void writeBatches(BTree btree, byte[][] keys, byte[] value, int batches) {
+        var random = ThreadLocalRandom.current();
+        for (int i = 0; i < batches; i++) {
+            btree.batch(() -> {
+                for (int j = 0; j < BATCH_SIZE; j++) {
+                    btree.upsert(keys[random.nextInt(KEYS)], value);
+                }
+            });
+        }
+    }
+}
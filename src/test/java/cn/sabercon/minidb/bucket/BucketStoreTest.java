@@ -0,0 +1,170 @@
+package cn.sabercon.minidb.bucket;
+
+import cn.sabercon.minidb.TestPageManager;
+import cn.sabercon.minidb.base.FileBuffer;
+import cn.sabercon.minidb.page.AllocationMode;
+import cn.sabercon.minidb.page.PageManager;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static cn.sabercon.minidb.TestUtils.randomBytes;
+import static org.junit.jupiter.api.Assertions.*;
+
+class BucketStoreTest {
+
+    @Test
+    void keeps_keys_of_buckets_apart() {
+        var store = BucketStore.of(new TestPageManager());
+        var users = store.createBucket("users");
+        var orders = store.createBucket("orders");
+        var key = randomBytes(1, 100);
+        users.upsert(key, "user".getBytes());
+        orders.upsert(key, "order".getBytes());
+
+        assertArrayEquals("user".getBytes(), users.find(key).orElseThrow());
+        assertArrayEquals("order".getBytes(), orders.find(key).orElseThrow());
+        assertEquals(List.of("orders", "users"), store.bucketNames());
+        assertSame(users, store.bucket("users").orElseThrow());
+        assertTrue(store.bucket("items").isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> store.createBucket("users"));
+    }
+
+    @Test
+    void commits_writes_to_buckets_once_in_batch() {
+        var pageManager = new TestPageManager() {
+
+            int flushes;
+
+            @Override
+            public void flush() {
+                flushes += 1;
+                super.flush();
+            }
+        };
+        var store = BucketStore.of(pageManager);
+        var users = store.createBucket("users");
+        var orders = store.createBucket("orders");
+        var flushes = pageManager.flushes;
+
+        store.batch(() -> {
+            for (int i = 0; i < 100; i++) {
+                users.upsert(randomBytes(1, 100), randomBytes());
+                orders.upsert(randomBytes(1, 100), randomBytes());
+            }
+        });
+        assertEquals(flushes + 1, pageManager.flushes);
+
+        users.upsert(randomBytes(1, 100), randomBytes());
+        assertEquals(flushes + 2, pageManager.flushes);
+    }
+
+    @Test
+    void discards_writes_to_all_buckets_when_batch_fails() {
+        var store = BucketStore.of(new TestPageManager());
+        var users = store.createBucket("users");
+        var orders = store.createBucket("orders");
+        var key = randomBytes(1, 100);
+
+        assertThrows(IllegalStateException.class, () -> store.batch(() -> {
+            users.upsert(key, key);
+            orders.upsert(key, key);
+            throw new IllegalStateException();
+        }));
+
+        assertTrue(users.find(key).isEmpty());
+        assertTrue(orders.find(key).isEmpty());
+    }
+
+    @Test
+    void discards_whole_batch_when_batch_of_bucket_fails_in_it() {
+        var store = BucketStore.of(new TestPageManager());
+        var users = store.createBucket("users");
+        var orders = store.createBucket("orders");
+        var key = randomBytes(1, 100);
+
+        assertThrows(IllegalStateException.class, () -> store.batch(() -> {
+            users.upsert(key, key);
+            assertThrows(IllegalArgumentException.class, () -> orders.batch(() -> {
+                orders.upsert(key, key);
+                throw new IllegalArgumentException();
+            }));
+            // The writes to the other buckets are kept until the batch ends
+            assertArrayEquals(key, users.find(key).orElseThrow());
+        }));
+
+        assertTrue(users.find(key).isEmpty());
+        assertTrue(orders.find(key).isEmpty());
+        assertEquals(List.of("orders", "users"), store.bucketNames());
+
+        users.upsert(key, key);
+        assertArrayEquals(key, users.find(key).orElseThrow());
+    }
+
+    @Test
+    void frees_pages_of_deleted_bucket() {
+        var pageManager = new TestPageManager();
+        var store = BucketStore.of(pageManager);
+        store.createBucket("users");
+        var pageCount = pageManager.pageCount();
+
+        var orders = store.createBucket("orders");
+        for (int i = 0; i < 1000; i++) {
+            orders.upsert(randomBytes(1, 100), randomBytes());
+        }
+        assertTrue(store.deleteBucket("orders"));
+
+        assertEquals(pageCount, pageManager.pageCount());
+        assertEquals(List.of("users"), store.bucketNames());
+        assertThrows(IllegalStateException.class, () -> orders.find(randomBytes(1, 100)));
+        assertFalse(store.deleteBucket("orders"));
+    }
+
+    @Test
+    void keeps_buckets_after_reopening(@TempDir Path tempDir) {
+        var path = tempDir.resolve("test.minidb");
+        var key = randomBytes(1, 100);
+        var store = BucketStore.from(path);
+        store.createBucket("users").upsert(key, key);
+        assertThrows(IllegalStateException.class, () -> BucketStore.from(path));
+        store.close();
+
+        var reopened = BucketStore.from(path);
+        assertArrayEquals(key, reopened.bucket("users").orElseThrow().find(key).orElseThrow());
+    }
+
+    @Test
+    void cleans_sparse_segments_shared_by_buckets(@TempDir Path tempDir) {
+        var pageManager = PageManager.of(FileBuffer.from(tempDir.resolve("test.minidb")), AllocationMode.APPEND);
+        var store = BucketStore.of(pageManager);
+        var users = store.createBucket("users");
+        var orders = store.createBucket("orders");
+        var keys = Stream.generate(() -> randomBytes(16)).limit(2000).toList();
+        // Interleaves the pages of both buckets in the same segments
+        store.batch(() -> keys.forEach(key -> {
+            users.upsert(key, key);
+            orders.upsert(key, key);
+        }));
+        keys.stream().limit(1600).forEach(key -> store.batch(() -> {
+            users.delete(key);
+            orders.delete(key);
+        }));
+
+        var sparseSegments = pageManager.sparseSegments(0.5);
+        assertFalse(sparseSegments.isEmpty());
+        store.clean(0.5);
+
+        var remainingSegments = pageManager.sparseSegments(0.5);
+        assertTrue(sparseSegments.stream().noneMatch(remainingSegments::contains));
+        assertEquals(List.of("orders", "users"), store.bucketNames());
+        assertEquals(400, users.count());
+        assertEquals(400, orders.count());
+        keys.stream().skip(1600).forEach(key -> {
+            assertArrayEquals(key, users.find(key).orElseThrow());
+            assertArrayEquals(key, orders.find(key).orElseThrow());
+        });
+    }
+}
@@ -0,0 +1,107 @@
+package cn.sabercon.minidb.cache;
+
+import cn.sabercon.minidb.TestPageManager;
+import cn.sabercon.minidb.btree.BTree;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import static cn.sabercon.minidb.TestUtils.randomBytes;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachedKeyValueStoreTest {
+
+    static CachedKeyValueStore testStore(long maxBytes) {
+        return CachedKeyValueStore.of(BTree.of(new TestPageManager()), maxBytes);
+    }
+
+    @Test
+    void serves_repeated_reads_from_cache() {
+        var store = testStore(1024 * 1024);
+        var key = randomBytes();
+        var value = randomBytes();
+        store.upsert(key, value);
+
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(value, store.find(key).orElseThrow());
+        }
+
+        var stats = store.stats();
+        assertEquals(9, stats.hits());
+        assertEquals(1, stats.misses());
+        assertEquals(0.9, stats.hitRate(), 1e-9);
+    }
+
+    @Test
+    void counts_key_repeated_in_lookup_once() {
+        var store = testStore(1024 * 1024);
+        var single = testStore(1024 * 1024);
+        var key = randomBytes();
+        var value = randomBytes();
+        store.upsert(key, value);
+        single.upsert(key, value);
+
+        store.findAll(List.of(key, key));
+        single.find(key);
+
+        assertEquals(1, store.stats().entries());
+        assertEquals(single.stats().bytes(), store.stats().bytes());
+    }
+
+    @Test
+    void never_returns_stale_values_after_writes() {
+        var store = testStore(1024 * 1024);
+        var key = randomBytes();
+        store.upsert(key, new byte[]{1});
+        store.find(key);
+
+        store.upsert(key, new byte[]{2});
+        assertArrayEquals(new byte[]{2}, store.find(key).orElseThrow());
+
+        store.delete(key);
+        assertTrue(store.find(key).isEmpty());
+
+        store.upsert(key, new byte[]{3});
+        store.find(key);
+        store.deletePrefix(key);
+        assertTrue(store.find(key).isEmpty());
+    }
+
+    @Test
+    void never_caches_values_not_committed() {
+        var store = testStore(1024 * 1024);
+        var key = randomBytes();
+        store.upsert(key, new byte[]{1});
+        store.find(key);
+
+        assertThrows(IllegalStateException.class, () -> store.batch(() -> {
+            store.upsert(key, new byte[]{2});
+            assertArrayEquals(new byte[]{2}, store.find(key).orElseThrow());
+            throw new IllegalStateException();
+        }));
+
+        assertArrayEquals(new byte[]{1}, store.find(key).orElseThrow());
+    }
+
+    @Test
+    void keeps_frequent_keys_within_budget() {
+        var maxBytes = 100 * (CachedKeyValueStore.ENTRY_OVERHEAD + 8 + 8);
+        var store = testStore(maxBytes);
+        var keys = IntStream.range(0, 1000).mapToObj(i -> randomBytes(8)).toList();
+        keys.forEach(key -> store.upsert(key, randomBytes(8)));
+        var hotKeys = keys.subList(0, 50);
+
+        for (int round = 0; round < 5; round++) {
+            hotKeys.forEach(store::find);
+        }
+        keys.forEach(store::find);
+        var hitsBefore = store.stats().hits();
+        hotKeys.forEach(store::find);
+
+        assertTrue(store.stats().bytes() <= maxBytes);
+        assertEquals(hotKeys.size(), store.stats().hits() - hitsBefore);
+        assertTrue(store.findAll(hotKeys).stream().allMatch(Optional::isPresent));
+    }
+}
@@ -0,0 +1,32 @@
+package cn.sabercon.minidb.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static cn.sabercon.minidb.TestUtils.randomBytes;
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrequencySketchTest {
+
+    @Test
+    void sizes_table_from_expected_entries() {
+        assertEquals(4, new FrequencySketch(0).tableSize());
+        assertEquals(512, new FrequencySketch(100).tableSize());
+        assertEquals(FrequencySketch.MAX_TABLE_SIZE, new FrequencySketch(Long.MAX_VALUE / 8).tableSize());
+    }
+
+    @Test
+    void counts_up_to_max_count() {
+        var sketch = new FrequencySketch(1000);
+        var key = randomBytes(8);
+
+        for (int i = 0; i < 3; i++) {
+            sketch.increment(key);
+        }
+        assertEquals(3, sketch.frequency(key));
+
+        for (int i = 0; i < 2 * FrequencySketch.MAX_COUNT; i++) {
+            sketch.increment(key);
+        }
+        assertEquals(FrequencySketch.MAX_COUNT, sketch.frequency(key));
+    }
+}
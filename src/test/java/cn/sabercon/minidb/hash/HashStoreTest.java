@@ -0,0 +1,128 @@
+package cn.sabercon.minidb.hash;
+
+import cn.sabercon.minidb.TestPageManager;
+import cn.sabercon.minidb.util.Pair;
+import com.google.common.primitives.Bytes;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static cn.sabercon.minidb.TestUtils.randomBytes;
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashStoreTest {
+
+    private static void assertValue(HashStore store, byte[] key, byte[] expected) {
+        var result = store.find(key);
+        assertTrue(result.isPresent());
+        assertArrayEquals(expected, result.get());
+    }
+
+    @Test
+    void returns_error_when_key_is_empty() {
+        var store = HashStore.of(new TestPageManager());
+
+        assertThrows(IllegalArgumentException.class, () -> store.find(new byte[0]));
+        assertThrows(IllegalArgumentException.class, () -> store.upsert(new byte[0], randomBytes()));
+    }
+
+    @Test
+    void returns_empty_when_store_is_empty() {
+        var store = HashStore.of(new TestPageManager());
+
+        assertTrue(store.find(randomBytes()).isEmpty());
+        assertFalse(store.delete(randomBytes()));
+    }
+
+    @Test
+    void finds_all_keys_after_directory_grows_over_pages() {
+        var store = HashStore.of(new TestPageManager());
+        var keys = Stream.generate(() -> randomBytes(16)).limit(10000).toList();
+        keys.forEach(key -> store.upsert(key, Bytes.concat(key, randomBytes(100))));
+        keys.forEach(key -> store.upsert(key, Bytes.concat(key, key)));
+
+        assertTrue(store.depth() > 8);
+        keys.forEach(key -> assertValue(store, key, Bytes.concat(key, key)));
+    }
+
+    @Test
+    void deletes_keys() {
+        var store = HashStore.of(new TestPageManager());
+        var keys = Stream.generate(() -> randomBytes(16)).limit(3000).toList();
+        keys.forEach(key -> store.upsert(key, key));
+
+        for (int i = 0; i < keys.size(); i += 2) {
+            assertTrue(store.delete(keys.get(i)));
+            assertFalse(store.delete(keys.get(i)));
+        }
+
+        for (int i = 0; i < keys.size(); i++) {
+            if (i % 2 == 0) {
+                assertTrue(store.find(keys.get(i)).isEmpty());
+            } else {
+                assertValue(store, keys.get(i), keys.get(i));
+            }
+        }
+    }
+
+    @Test
+    void chains_overflow_pages_at_max_depth() {
+        var pageManager = new TestPageManager();
+        var store = new HashStore(pageManager, 1);
+        var keys = new ArrayList<byte[]>();
+        for (int i = 0; i < 1000; i++) {
+            var key = ByteBuffer.allocate(Integer.BYTES).putInt(i).array();
+            keys.add(key);
+            store.upsert(key, randomBytes(100));
+        }
+        keys.forEach(key -> store.upsert(key, key));
+
+        assertEquals(1, store.depth());
+        assertTrue(pageManager.pageCount() > 4);
+        keys.forEach(key -> assertValue(store, key, key));
+
+        keys.forEach(key -> assertTrue(store.delete(key)));
+        keys.forEach(key -> assertTrue(store.find(key).isEmpty()));
+    }
+
+    @Test
+    void scans_in_key_order() {
+        var store = HashStore.of(new TestPageManager());
+        var expected = new TreeMap<byte[], byte[]>(Arrays::compareUnsigned);
+        Stream.generate(() -> randomBytes(1, 20)).limit(2000).forEach(key -> {
+            store.upsert(key, key);
+            expected.put(key, key);
+        });
+        var start = expected.keySet().stream().skip(500).findFirst().orElseThrow();
+        var end = expected.keySet().stream().skip(1500).findFirst().orElseThrow();
+
+        var pairs = new ArrayList<Pair<byte[], byte[]>>();
+        store.scan(start, end).forEachRemaining(pairs::add);
+
+        var expectedKeys = new ArrayList<>(expected.subMap(start, end).keySet());
+        assertEquals(expectedKeys.size(), pairs.size());
+        for (int i = 0; i < pairs.size(); i++) {
+            assertArrayEquals(expectedKeys.get(i), pairs.get(i).first());
+        }
+    }
+
+    @Test
+    void rolls_back_failed_batch() {
+        var store = HashStore.of(new TestPageManager());
+        var key = randomBytes(1, 100);
+        store.upsert(key, key);
+
+        assertThrows(IllegalStateException.class, () -> store.batch(() -> {
+            store.delete(key);
+            Stream.generate(() -> randomBytes(16)).limit(500).forEach(k -> store.upsert(k, k));
+            throw new IllegalStateException();
+        }));
+
+        assertEquals(0, store.depth());
+        assertValue(store, key, key);
+    }
+}
@@ -0,0 +1,134 @@
+package cn.sabercon.minidb.lsm;
+
+import cn.sabercon.minidb.util.Pair;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static cn.sabercon.minidb.TestUtils.randomBytes;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LsmStoreTest {
+
+    /**
+     * Small enough to flush and compact many times in a test.
+     */
+    private static final LsmOptions OPTIONS = LsmOptions.of(16 * 1024, 2, 64 * 1024, 2, 16 * 1024);
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Writes in batches of 100, so that the log is not synced on every write.
+     */
+    private static TreeMap<byte[], byte[]> writeRandomly(LsmStore store, int writes) {
+        var expected = new TreeMap<byte[], byte[]>(Arrays::compareUnsigned);
+        var random = ThreadLocalRandom.current();
+        for (int i = 0; i < writes; i += 100) {
+            store.batch(() -> {
+                for (int j = 0; j < 100; j++) {
+                    var key = String.valueOf(random.nextInt(writes / 2)).getBytes();
+                    if (random.nextInt(4) == 0) {
+                        assertEquals(expected.remove(key) != null, store.delete(key));
+                    } else {
+                        var value = randomBytes(1, 100);
+                        store.upsert(key, value);
+                        expected.put(key, value);
+                    }
+                }
+            });
+        }
+        return expected;
+    }
+
+    private static void assertContent(Map<byte[], byte[]> expected, LsmStore store, int keys) {
+        for (int i = 0; i < keys; i++) {
+            var key = String.valueOf(i).getBytes();
+            var value = store.find(key);
+            assertEquals(expected.containsKey(key), value.isPresent());
+            value.ifPresent(v -> assertArrayEquals(expected.get(key), v));
+        }
+    }
+
+    @Test
+    void finds_latest_values_across_levels() {
+        try (var store = LsmStore.of(directory, OPTIONS)) {
+            var expected = writeRandomly(store, 20000);
+            assertContent(expected, store, 10000);
+
+            store.awaitBackground();
+            assertTrue(store.tableCounts().size() > 2);
+            assertContent(expected, store, 10000);
+        }
+    }
+
+    @Test
+    void scans_latest_values_in_key_order() {
+        try (var store = LsmStore.of(directory, OPTIONS)) {
+            var expected = writeRandomly(store, 10000);
+            store.awaitBackground();
+            var start = "3".getBytes();
+            var end = "7".getBytes();
+
+            var pairs = new ArrayList<Pair<byte[], byte[]>>();
+            store.scan(start, end).forEachRemaining(pairs::add);
+
+            var expectedPairs = new ArrayList<>(expected.subMap(start, end).entrySet());
+            assertEquals(expectedPairs.size(), pairs.size());
+            for (int i = 0; i < pairs.size(); i++) {
+                assertArrayEquals(expectedPairs.get(i).getKey(), pairs.get(i).first());
+                assertArrayEquals(expectedPairs.get(i).getValue(), pairs.get(i).second());
+            }
+        }
+    }
+
+    @Test
+    void recovers_writes_after_reopen() {
+        TreeMap<byte[], byte[]> expected;
+        try (var store = LsmStore.of(directory, OPTIONS)) {
+            expected = writeRandomly(store, 5000);
+        }
+
+        try (var store = LsmStore.of(directory, OPTIONS)) {
+            assertContent(expected, store, 2500);
+        }
+    }
+
+    @Test
+    void discards_failed_batch() {
+        try (var store = LsmStore.of(directory, OPTIONS)) {
+            var key = randomBytes(1, 100);
+            store.upsert(key, key);
+
+            assertThrows(IllegalStateException.class, () -> store.batch(() -> {
+                store.delete(key);
+                assertTrue(store.find(key).isEmpty());
+                throw new IllegalStateException();
+            }));
+
+            assertArrayEquals(key, store.find(key).orElseThrow());
+        }
+    }
+
+    @Test
+    void rewrites_pairs_when_compacting() {
+        try (var store = LsmStore.of(directory, OPTIONS)) {
+            for (int i = 0; i < 50; i++) {
+                store.batch(() -> {
+                    for (int j = 0; j < 100; j++) {
+                        store.upsert(randomBytes(16), randomBytes(100));
+                    }
+                });
+            }
+            store.awaitBackground();
+
+            assertTrue(store.stats().writeAmplification() > 2);
+        }
+    }
+}
@@ -12,6 +12,8 @@ import org.junit.jupiter.params.provider.ValueSource;
 
 import java.lang.foreign.MemorySegment;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -19,6 +21,7 @@ import static cn.sabercon.minidb.TestUtils.assertSegmentEquals;
 import static cn.sabercon.minidb.TestUtils.randomBytes;
 import static cn.sabercon.minidb.page.PageConstants.NULL_POINTER;
 import static cn.sabercon.minidb.page.PageConstants.PAGE_BYTE_SIZE;
+import static cn.sabercon.minidb.page.PageConstants.SEGMENT_PAGE_COUNT;
 import static org.junit.jupiter.api.Assertions.*;
 
 class DefaultPageManagerTest {
@@ -126,6 +129,121 @@ class DefaultPageManagerTest {
         void succeeds_when_empty() {
             assertDoesNotThrow(manager::flush);
         }
+
+        @Test
+        void flushes_only_ranges_of_pages_written() {
+            var buffer = new RangeRecordingBuffer();
+            var recordingManager = PageManager.of(buffer);
+            var pointers = Stream.generate(() -> recordingManager.createPage(randomPage())).limit(3).toList();
+            recordingManager.flush();
+            buffer.ranges.clear();
+
+            recordingManager.deletePage(pointers.get(1));
+            recordingManager.createPage(randomPage());
+            recordingManager.createPage(randomPage());
+            recordingManager.flush();
+
+            assertFalse(buffer.flushedAll);
+            assertFalse(buffer.ranges.isEmpty());
+            assertEquals(Pair.of(0L, (long) PAGE_BYTE_SIZE), buffer.ranges.getLast());
+            for (var range : buffer.ranges.subList(0, buffer.ranges.size() - 1)) {
+                assertTrue(range.first() >= PAGE_BYTE_SIZE);
+                assertEquals(0, range.second() % PAGE_BYTE_SIZE);
+            }
+        }
+    }
+
+    /**
+     * Records the ranges flushed, and whether the whole buffer is flushed.
+     */
+    static class RangeRecordingBuffer implements FileBuffer {
+
+        private final FileBuffer buffer = FileBuffer.inMemory();
+
+        final List<Pair<Long, Long>> ranges = new ArrayList<>();
+
+        boolean flushedAll;
+
+        @Override
+        public MemorySegment get(long offset, long byteSize) {
+            return buffer.get(offset, byteSize);
+        }
+
+        @Override
+        public void set(long pointer, MemorySegment data, long byteSize) {
+            buffer.set(pointer, data, byteSize);
+        }
+
+        @Override
+        public long byteSize() {
+            return buffer.byteSize();
+        }
+
+        @Override
+        public void flush() {
+            flushedAll = true;
+        }
+
+        @Override
+        public void flush(long offset, long byteSize) {
+            ranges.add(Pair.of(offset, byteSize));
+        }
+    }
+
+    @Nested
+    class Rollback {
+
+        @Test
+        void discards_changes_since_last_flush() {
+            var pointer1 = manager.createPage(randomPage());
+            manager.setRoot(pointer1);
+            manager.flush();
+
+            var pointer2 = manager.createPage(randomPage());
+            manager.setRoot(pointer2);
+            manager.deletePage(pointer1);
+            manager.rollback();
+
+            assertEquals(pointer1, manager.getRoot());
+            assertThrows(IllegalArgumentException.class, () -> manager.getPage(pointer2));
+            assertEquals(pointer2, manager.createPage(randomPage()));
+        }
+    }
+
+    @Nested
+    class Append {
+
+        @BeforeEach
+        void setUp(@TempDir Path tempDir) {
+            manager = PageManager.of(FileBuffer.from(tempDir.resolve("append.minidb")), AllocationMode.APPEND);
+        }
+
+        @Test
+        void deleted_page_should_not_be_reused() {
+            var pointer1 = manager.createPage(randomPage());
+            manager.deletePage(pointer1);
+            manager.flush();
+
+            var pointer2 = manager.createPage(randomPage());
+            var pointer3 = manager.createPage(randomPage());
+            assertTrue(pointer2 > pointer1);
+            assertEquals(pointer2 + 1, pointer3);
+        }
+
+        @Test
+        void free_segments_should_be_reused_after_reclaimed() {
+            var pointers = Stream.generate(() -> manager.createPage(randomPage())).limit(3 * SEGMENT_PAGE_COUNT).toList();
+            manager.flush();
+            pointers.forEach(manager::deletePage);
+            manager.flush();
+            manager.reclaimSegments();
+
+            assertEquals(2 * SEGMENT_PAGE_COUNT, manager.createPage(randomPage()));
+            assertEquals(2 * SEGMENT_PAGE_COUNT + 1, manager.createPage(randomPage()));
+            manager.flush();
+            // The next commit continues the run
+            assertEquals(2 * SEGMENT_PAGE_COUNT + 2, manager.createPage(randomPage()));
+        }
     }
 
     static MemorySegment randomPage() {
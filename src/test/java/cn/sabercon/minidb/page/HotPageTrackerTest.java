@@ -0,0 +1,83 @@
+package cn.sabercon.minidb.page;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HotPageTrackerTest {
+
+    @Test
+    void loads_nothing_when_file_not_exists(@TempDir Path tempDir) {
+        var tracker = new HotPageTracker(tempDir.resolve("test.minidb.hot"));
+
+        assertTrue(tracker.load().isEmpty());
+    }
+
+    @Test
+    void loads_the_sampled_pages_saved_most_recent_first(@TempDir Path tempDir) {
+        var file = tempDir.resolve("test.minidb.hot");
+        var tracker = new HotPageTracker(file);
+        LongStream.range(0, 100).forEach(tracker::record);
+        tracker.remove(HotPageTracker.SAMPLE_RATE);
+        tracker.save();
+
+        var expected = List.of(96L, 80L, 64L, 48L, 32L, 0L);
+        assertEquals(expected, new HotPageTracker(file).load());
+    }
+
+    @Test
+    void saves_periodically_without_writes(@TempDir Path tempDir) throws InterruptedException {
+        var file = tempDir.resolve("test.minidb.hot");
+        var tracker = new HotPageTracker(file, Duration.ofMillis(10));
+        tracker.record(1);
+
+        for (int i = 0; i < 500 && !Files.exists(file); i++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(List.of(1L), new HotPageTracker(file).load());
+        tracker.close();
+    }
+
+    @Test
+    void saves_on_close(@TempDir Path tempDir) {
+        var file = tempDir.resolve("test.minidb.hot");
+        var tracker = new HotPageTracker(file);
+        tracker.record(1);
+
+        tracker.close();
+
+        assertEquals(List.of(1L), new HotPageTracker(file).load());
+    }
+
+    @Test
+    void is_not_kept_alive_by_background_saves(@TempDir Path tempDir) throws InterruptedException {
+        var tracker = new WeakReference<>(new HotPageTracker(tempDir.resolve("test.minidb.hot"), Duration.ofMillis(10)));
+
+        for (int i = 0; i < 100 && tracker.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertNull(tracker.get());
+    }
+
+    @Test
+    void ignores_broken_file(@TempDir Path tempDir) throws IOException {
+        var file = tempDir.resolve("test.minidb.hot");
+        Files.write(file, new byte[]{1, 2, 3});
+
+        assertTrue(new HotPageTracker(file).load().isEmpty());
+    }
+}
@@ -0,0 +1,62 @@
+package cn.sabercon.minidb.page;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongDequeTest {
+
+    @Test
+    void removes_in_the_order_added_across_growth() {
+        var deque = new LongDeque();
+        // Moves the head forward first, so that the elements wrap around the buffer when it grows
+        for (long i = 0; i < 10; i++) {
+            deque.addLast(i);
+        }
+        for (long i = 0; i < 10; i++) {
+            assertEquals(i, deque.removeFirst());
+        }
+        for (long i = 0; i < 100; i++) {
+            deque.addLast(i);
+        }
+
+        assertEquals(100, deque.size());
+        for (long i = 0; i < 100; i++) {
+            assertEquals(i, deque.removeFirst());
+        }
+        assertTrue(deque.isEmpty());
+        assertThrows(NoSuchElementException.class, deque::removeFirst);
+    }
+
+    @Test
+    void removes_at_index_keeping_the_order_of_the_rest() {
+        var deque = new LongDeque();
+        for (long i = 0; i < 5; i++) {
+            deque.addLast(i);
+        }
+
+        assertEquals(3, deque.remove(3));
+        assertEquals(0, deque.remove(0));
+
+        var rest = new ArrayList<Long>();
+        deque.forEach(rest::add);
+        assertEquals(List.of(1L, 2L, 4L), rest);
+        assertEquals(4, deque.get(2));
+        assertThrows(IndexOutOfBoundsException.class, () -> deque.get(3));
+    }
+
+    @Test
+    void is_empty_after_clear() {
+        var deque = new LongDeque();
+        deque.addLast(1);
+        deque.clear();
+
+        assertTrue(deque.isEmpty());
+        deque.addLast(2);
+        assertEquals(2, deque.removeFirst());
+    }
+}
@@ -10,4 +10,17 @@ class PageMasterTest {
     void signature_size_should_be_16() {
         assertEquals(16, PageMaster.SIGNATURE.byteSize());
     }
+
+    @Test
+    void keeps_generation_in_data() {
+        var master = PageMaster.empty();
+        master.nextGeneration();
+        master.nextGeneration();
+
+        var data = master.data();
+
+        assertEquals(2, PageMaster.generationOf(data));
+        assertEquals(2, PageMaster.of(data).getGeneration());
+        assertEquals(2, master.copy().getGeneration());
+    }
 }
@@ -0,0 +1,66 @@
+package cn.sabercon.minidb.page;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+import static cn.sabercon.minidb.page.PageConstants.PAGE_BYTE_SIZE;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PageSlabTest {
+
+    @Test
+    void allocates_zeroed_pages_of_given_size() {
+        var slab = new PageSlab();
+
+        var segment = slab.allocate(2);
+
+        assertEquals(2L * PAGE_BYTE_SIZE, segment.byteSize());
+        assertEquals(-1, segment.mismatch(MemorySegment.ofArray(new byte[2 * PAGE_BYTE_SIZE])));
+    }
+
+    @Test
+    void reuses_chunks_after_reset() {
+        var slab = new PageSlab();
+        var pages = PageSlab.CHUNK_BYTE_SIZE / PAGE_BYTE_SIZE;
+
+        var first = slab.allocate(1);
+        first.fill((byte) 1);
+        for (int i = 1; i < pages * 3; i++) {
+            slab.allocate(1);
+        }
+        assertEquals(3, slab.chunks());
+
+        slab.reset();
+        var reused = slab.allocate(1);
+
+        assertEquals(first.address(), reused.address());
+        assertEquals(0, reused.get(ValueLayout.JAVA_BYTE, 0));
+        assertEquals(PageSlab.RETAINED_CHUNKS, slab.chunks());
+    }
+
+    @Test
+    void frees_oversized_chunks_on_reset() {
+        var slab = new PageSlab();
+        var pages = PageSlab.CHUNK_BYTE_SIZE / PAGE_BYTE_SIZE;
+        slab.allocate(pages * 2);
+
+        slab.reset();
+
+        assertEquals(0, slab.chunks());
+    }
+
+    @Test
+    void frees_extra_chunks_on_reset() {
+        var slab = new PageSlab();
+        var pages = PageSlab.CHUNK_BYTE_SIZE / PAGE_BYTE_SIZE;
+        for (int i = 0; i < pages * (PageSlab.RETAINED_CHUNKS + 2); i++) {
+            slab.allocate(1);
+        }
+
+        slab.reset();
+
+        assertEquals(PageSlab.RETAINED_CHUNKS, slab.chunks());
+    }
+}
@@ -0,0 +1,62 @@
+package cn.sabercon.minidb.page;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.MemorySegment;
+import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PageTableTest {
+
+    @Test
+    void finds_the_pages_put_across_growth() {
+        var table = new PageTable();
+        var expected = new HashMap<Long, MemorySegment>();
+        var random = ThreadLocalRandom.current();
+        for (int i = 0; i < 1000; i++) {
+            var pointer = random.nextLong(1, 5000);
+            var page = MemorySegment.ofArray(new byte[1]);
+            table.put(pointer, page);
+            expected.put(pointer, page);
+        }
+
+        assertEquals(expected.size(), table.size());
+        expected.forEach((pointer, page) -> assertSame(page, table.get(pointer)));
+        assertNull(table.get(5000));
+        assertFalse(table.containsKey(5000));
+    }
+
+    @Test
+    void sorts_the_pointers() {
+        var table = new PageTable();
+        for (long pointer : new long[]{5, 1, 9, 3}) {
+            table.put(pointer, MemorySegment.ofArray(new byte[1]));
+        }
+
+        table.sortPointers();
+
+        assertArrayEquals(new long[]{1, 3, 5, 9}, new long[]{
+                table.pointerAt(0), table.pointerAt(1), table.pointerAt(2), table.pointerAt(3)});
+        assertNotNull(table.get(9));
+    }
+
+    @Test
+    void is_empty_after_clear() {
+        var table = new PageTable();
+        for (long pointer = 1; pointer <= 100; pointer++) {
+            table.put(pointer, MemorySegment.ofArray(new byte[1]));
+        }
+
+        table.clear();
+
+        assertTrue(table.isEmpty());
+        for (long pointer = 1; pointer <= 100; pointer++) {
+            assertNull(table.get(pointer));
+        }
+        table.put(50, MemorySegment.ofArray(new byte[1]));
+        assertTrue(table.containsKey(50));
+        assertEquals(1, table.size());
+    }
+}
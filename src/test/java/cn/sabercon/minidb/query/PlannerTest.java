@@ -0,0 +1,65 @@
+package cn.sabercon.minidb.query;
+
+import cn.sabercon.minidb.TestPageManager;
+import cn.sabercon.minidb.btree.BTree;
+import cn.sabercon.minidb.table.Table;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlannerTest {
+
+    final Table table = Table.of(BTree.of(new TestPageManager()), QueryEngineTest.SCHEMA);
+
+    private Plan plan(String query, Set<String> columns) {
+        var select = (Statement.Select) Parser.parse(query);
+        return Planner.plan(table, select.where(), select.orderBy(), columns);
+    }
+
+    @Test
+    void uses_primary_key_when_no_predicate_matches() {
+        var plan = plan("SELECT * FROM users WHERE name != 'a'", Set.of("name"));
+
+        assertNull(plan.index());
+        assertArrayEquals(new Object[0], plan.from());
+        assertArrayEquals(new Object[0], plan.to());
+    }
+
+    @Test
+    void pushes_equalities_and_range_into_primary_key_bounds() {
+        var plan = plan("SELECT * FROM users WHERE id < 10 AND tenant = 1 AND 3 < id", Set.of("id"));
+
+        assertNull(plan.index());
+        assertArrayEquals(new Object[]{1, 3L}, plan.from());
+        assertFalse(plan.fromInclusive());
+        assertArrayEquals(new Object[]{1, 10L}, plan.to());
+        assertFalse(plan.toInclusive());
+    }
+
+    @Test
+    void uses_secondary_index_matching_more_columns() {
+        var plan = plan("SELECT * FROM users WHERE name = 'a'", Set.of("tenant", "name", "age"));
+
+        assertEquals("by_name", plan.index());
+        assertFalse(plan.indexOnly());
+        assertArrayEquals(new Object[]{"a"}, plan.from());
+    }
+
+    @Test
+    void reads_index_only_when_covered() {
+        var plan = plan("SELECT name FROM users WHERE age >= 20", Set.of("name", "age"));
+
+        assertEquals("by_age", plan.index());
+        assertTrue(plan.indexOnly());
+    }
+
+    @Test
+    void skips_sort_when_scan_order_matches() {
+        assertNull(plan("SELECT * FROM users WHERE tenant = 1 ORDER BY id", Set.of()).order());
+        assertNull(plan("SELECT * FROM users WHERE age > 1 ORDER BY age", Set.of()).order());
+        assertNotNull(plan("SELECT * FROM users ORDER BY id", Set.of()).order());
+        assertNotNull(plan("SELECT * FROM users ORDER BY tenant DESC", Set.of()).order());
+    }
+}
@@ -0,0 +1,127 @@
+package cn.sabercon.minidb.query;
+
+import cn.sabercon.minidb.TestPageManager;
+import cn.sabercon.minidb.btree.BTree;
+import cn.sabercon.minidb.table.Column;
+import cn.sabercon.minidb.table.ColumnType;
+import cn.sabercon.minidb.table.Index;
+import cn.sabercon.minidb.table.Schema;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryEngineTest {
+
+    static final Schema SCHEMA = Schema.of("users", 1, 2,
+                    Column.of("tenant", ColumnType.INT),
+                    Column.of("id", ColumnType.LONG),
+                    Column.of("name", ColumnType.STRING),
+                    Column.of("age", ColumnType.INT))
+            .withIndex(Index.of("by_name", 2, "name"))
+            .withIndex(Index.of("by_age", 3, "age").including("name"));
+
+    QueryEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        engine = QueryEngine.of(BTree.of(new TestPageManager()), SCHEMA);
+        engine.execute("""
+                INSERT INTO users (tenant, id, name, age) VALUES
+                (1, 1, 'alice', 30), (1, 2, 'bob', 25), (1, 3, 'carol', 35),
+                (2, 1, 'dave', 40), (2, 2, 'erin', NULL)
+                """);
+    }
+
+    private List<List<Object>> rows(String query) {
+        return engine.execute(query).rows();
+    }
+
+    @Nested
+    class Select {
+
+        @Test
+        void returns_all_rows_in_primary_key_order() {
+            var result = engine.execute("SELECT * FROM users");
+            assertEquals(List.of("tenant", "id", "name", "age"), result.columns());
+            assertEquals(5, result.rows().size());
+            assertEquals(List.of(1, 1L, "alice", 30), result.rows().getFirst());
+        }
+
+        @Test
+        void returns_rows_matching_primary_key_range() {
+            assertEquals(List.of(List.of(2L), List.of(3L)), rows("SELECT id FROM users WHERE tenant = 1 AND id >= 2"));
+        }
+
+        @Test
+        void returns_rows_matching_secondary_index() {
+            assertEquals(List.of(List.of(2, 1L)), rows("SELECT tenant, id FROM users WHERE name = 'dave'"));
+        }
+
+        @Test
+        void returns_rows_matching_non_key_filter() {
+            assertEquals(List.of(List.of("carol"), List.of("dave")), rows("SELECT name FROM users WHERE NOT (age < 35) OR name = 'x'"));
+        }
+
+        @Test
+        void returns_rows_with_null_values() {
+            assertEquals(List.of(List.of("erin")), rows("SELECT name FROM users WHERE age IS NULL"));
+            assertEquals(4, rows("SELECT name FROM users WHERE age IS NOT NULL").size());
+        }
+
+        @Test
+        void returns_rows_in_requested_order_with_limit() {
+            assertEquals(List.of(List.of("dave"), List.of("carol")), rows("SELECT name FROM users ORDER BY age DESC LIMIT 2"));
+            assertEquals(List.of(List.of("bob"), List.of("alice")), rows("SELECT name FROM users WHERE age > 0 ORDER BY age LIMIT 2"));
+        }
+
+        @Test
+        void returns_error_when_query_is_invalid() {
+            assertThrows(IllegalArgumentException.class, () -> engine.execute("SELECT FROM users"));
+            assertThrows(IllegalArgumentException.class, () -> engine.execute("SELECT * FROM unknown"));
+            assertThrows(IllegalArgumentException.class, () -> engine.execute("SELECT * FROM users WHERE age = 'x'"));
+        }
+
+        @Test
+        void returns_error_with_position_when_limit_is_out_of_range() {
+            var e = assertThrows(IllegalArgumentException.class,
+                    () -> engine.execute("SELECT * FROM users LIMIT 99999999999999999999"));
+            assertEquals("Limit out of range at position 26", e.getMessage());
+        }
+    }
+
+    @Nested
+    class Write {
+
+        @Test
+        void insert_fails_as_a_whole_when_primary_key_exists() {
+            assertThrows(IllegalArgumentException.class,
+                    () -> engine.execute("INSERT INTO users (tenant, id, name) VALUES (3, 1, 'x'), (1, 1, 'y')"));
+            assertTrue(rows("SELECT * FROM users WHERE tenant = 3").isEmpty());
+        }
+
+        @Test
+        void update_changes_matched_rows_and_indexes() {
+            assertEquals(2, engine.execute("UPDATE users SET name = 'zed' WHERE tenant = 1 AND age < 32").updated());
+
+            assertEquals(List.of(List.of(1L), List.of(2L)), rows("SELECT id FROM users WHERE name = 'zed'"));
+            assertTrue(rows("SELECT id FROM users WHERE name = 'alice'").isEmpty());
+        }
+
+        @Test
+        void update_fails_when_primary_key_is_changed() {
+            assertThrows(IllegalArgumentException.class, () -> engine.execute("UPDATE users SET id = 1"));
+        }
+
+        @Test
+        void delete_removes_matched_rows() {
+            assertEquals(2, engine.execute("DELETE FROM users WHERE tenant = 2").updated());
+
+            assertEquals(3, rows("SELECT * FROM users").size());
+            assertTrue(rows("SELECT id FROM users WHERE name = 'dave'").isEmpty());
+        }
+    }
+}
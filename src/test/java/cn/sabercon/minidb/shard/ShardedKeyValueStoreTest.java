@@ -0,0 +1,145 @@
+package cn.sabercon.minidb.shard;
+
+import cn.sabercon.minidb.TestPageManager;
+import cn.sabercon.minidb.btree.BTree;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static cn.sabercon.minidb.TestUtils.randomBytes;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedKeyValueStoreTest {
+
+    static ShardedKeyValueStore testStore(Partitioner partitioner) {
+        var shards = IntStream.range(0, partitioner.shards()).mapToObj(i -> BTree.of(new TestPageManager())).toList();
+        return ShardedKeyValueStore.of(partitioner, shards);
+    }
+
+    static List<Partitioner> partitioners() {
+        return List.of(Partitioner.hash(4), Partitioner.range(List.of(new byte[]{64}, new byte[]{-128}, new byte[]{-64})));
+    }
+
+    @Nested
+    class Partitioners {
+
+        @Test
+        void range_partitioner_finds_shard_by_split_keys() {
+            var partitioner = Partitioner.range(List.of(new byte[]{10}, new byte[]{20}));
+
+            assertEquals(0, partitioner.shardOf(new byte[0]));
+            assertEquals(0, partitioner.shardOf(new byte[]{9, 99}));
+            assertEquals(1, partitioner.shardOf(new byte[]{10}));
+            assertEquals(2, partitioner.shardOf(new byte[]{-1}));
+        }
+
+        @Test
+        void range_partitioner_requires_ascending_split_keys() {
+            assertThrows(IllegalArgumentException.class, () -> Partitioner.range(List.of(new byte[]{2}, new byte[]{1})));
+        }
+    }
+
+    @Test
+    void works_as_a_single_store() {
+        for (var partitioner : partitioners()) {
+            try (var store = testStore(partitioner)) {
+                var map = new TreeMap<byte[], byte[]>(Arrays::compareUnsigned);
+                Stream.generate(() -> randomBytes(1, 10)).limit(2000).forEach(key -> {
+                    map.put(key, key);
+                    store.upsert(key, key);
+                });
+                map.keySet().stream().limit(500).toList().forEach(key -> {
+                    map.remove(key);
+                    assertTrue(store.delete(key));
+                });
+
+                map.forEach((key, value) -> assertArrayEquals(value, store.find(key).orElseThrow()));
+                var start = randomBytes(1, 2);
+                var iterator = store.scan(start, null);
+                map.tailMap(start, true).keySet().forEach(key -> assertArrayEquals(key, iterator.next().first()));
+                assertFalse(iterator.hasNext());
+            }
+        }
+    }
+
+    @Test
+    void closes_shards_it_opened(@TempDir Path tempDir) {
+        var key = randomBytes(1, 10);
+        try (var store = ShardedKeyValueStore.from(tempDir, Partitioner.hash(2))) {
+            store.upsert(key, key);
+        }
+
+        try (var reopened = ShardedKeyValueStore.from(tempDir, Partitioner.hash(2))) {
+            assertArrayEquals(key, reopened.find(key).orElseThrow());
+        }
+    }
+
+    @Nested
+    class Batch {
+
+        @Test
+        void reads_own_writes_before_commit() {
+            try (var store = testStore(Partitioner.hash(4))) {
+                var key1 = new byte[]{1};
+                var key2 = new byte[]{2};
+                var key3 = new byte[]{3};
+                store.upsert(key1, key1);
+                store.upsert(key2, key2);
+
+                store.batch(() -> {
+                    store.delete(key1);
+                    store.upsert(key3, key3);
+
+                    assertTrue(store.find(key1).isEmpty());
+                    var iterator = store.scan(new byte[0], null);
+                    assertArrayEquals(key2, iterator.next().first());
+                    assertArrayEquals(key3, iterator.next().first());
+                    assertFalse(iterator.hasNext());
+                });
+
+                assertTrue(store.find(key1).isEmpty());
+                assertArrayEquals(key3, store.find(key3).orElseThrow());
+            }
+        }
+
+        @Test
+        void keeps_writes_apart_from_arrays_of_caller() {
+            try (var store = testStore(Partitioner.hash(4))) {
+                var key = new byte[]{1};
+                var value = new byte[]{1};
+
+                store.batch(() -> {
+                    store.upsert(key, value);
+                    value[0] = 2;
+                    store.find(key).orElseThrow()[0] = 3;
+                    key[0] = 4;
+                });
+
+                assertArrayEquals(new byte[]{1}, store.find(new byte[]{1}).orElseThrow());
+                assertTrue(store.find(key).isEmpty());
+            }
+        }
+
+        @Test
+        void discards_all_writes_when_fails() {
+            try (var store = testStore(Partitioner.hash(4))) {
+                var key = randomBytes();
+
+                assertThrows(IllegalStateException.class, () -> store.batch(() -> {
+                    store.upsert(key, key);
+                    throw new IllegalStateException();
+                }));
+
+                assertTrue(store.find(key).isEmpty());
+                assertFalse(store.scan(new byte[0], null).hasNext());
+            }
+        }
+    }
+}
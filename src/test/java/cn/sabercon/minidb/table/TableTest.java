@@ -0,0 +1,229 @@
+package cn.sabercon.minidb.table;
+
+import cn.sabercon.minidb.TestPageManager;
+import cn.sabercon.minidb.btree.BTree;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TableTest {
+
+    static final Schema SCHEMA = Schema.of("users", 1, 2,
+            Column.of("tenant", ColumnType.INT),
+            Column.of("id", ColumnType.LONG),
+            Column.of("name", ColumnType.STRING),
+            Column.of("avatar", ColumnType.BYTES)
+    );
+
+    private Table testTable() {
+        return Table.of(BTree.of(new TestPageManager()), SCHEMA);
+    }
+
+    private static Row row(int tenant, long id, String name) {
+        return Row.of(SCHEMA, tenant, id, name, new byte[]{(byte) id});
+    }
+
+    private static List<Row> toList(Iterator<Row> iterator) {
+        var rows = new ArrayList<Row>();
+        iterator.forEachRemaining(rows::add);
+        return rows;
+    }
+
+    @Nested
+    class Find {
+
+        @Test
+        void returns_empty_when_row_does_not_exist() {
+            var table = testTable();
+
+            assertTrue(table.find(1, 1L).isEmpty());
+        }
+
+        @Test
+        void returns_row_when_row_exists() {
+            var table = testTable();
+            var row = row(1, 1L, "alice");
+            table.upsert(row);
+
+            assertEquals(row, table.find(1, 1L).orElseThrow());
+        }
+
+        @Test
+        void returns_row_with_null_values() {
+            var table = testTable();
+            var row = Row.of(SCHEMA, 1, null, null, null);
+            table.upsert(row);
+
+            assertEquals(row, table.find(1, null).orElseThrow());
+        }
+
+        @Test
+        void returns_error_when_value_type_is_wrong() {
+            var table = testTable();
+
+            assertThrows(IllegalArgumentException.class, () -> table.find(1, 1));
+        }
+    }
+
+    @Nested
+    class Write {
+
+        @Test
+        void insert_returns_false_when_row_exists() {
+            var table = testTable();
+            table.upsert(row(1, 1L, "alice"));
+
+            assertFalse(table.insert(row(1, 1L, "bob")));
+            assertEquals("alice", table.find(1, 1L).orElseThrow().get("name"));
+        }
+
+        @Test
+        void update_returns_false_when_row_does_not_exist() {
+            var table = testTable();
+
+            assertFalse(table.update(row(1, 1L, "alice")));
+            assertTrue(table.find(1, 1L).isEmpty());
+        }
+
+        @Test
+        void delete_removes_the_row() {
+            var table = testTable();
+            table.upsert(row(1, 1L, "alice"));
+
+            assertTrue(table.delete(1, 1L));
+            assertFalse(table.delete(1, 1L));
+            assertTrue(table.find(1, 1L).isEmpty());
+        }
+    }
+
+    @Nested
+    class Scan {
+
+        @Test
+        void returns_rows_with_primary_key_prefix_in_order() {
+            var table = testTable();
+            for (long id = 5; id >= -5; id--) {
+                table.upsert(row(1, id, "a"));
+                table.upsert(row(2, id, "b"));
+            }
+
+            var rows = toList(table.scan(2));
+            assertEquals(11, rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                assertEquals(row(2, i - 5, "b"), rows.get(i));
+            }
+        }
+
+        @Test
+        void returns_rows_in_range() {
+            var table = testTable();
+            for (long id = 0; id < 10; id++) {
+                table.upsert(row(1, id, "a"));
+            }
+
+            var rows = toList(table.scan(new Object[]{1, 2L}, false, new Object[]{1, 6L}, true));
+            assertEquals(List.of(row(1, 3, "a"), row(1, 4, "a"), row(1, 5, "a"), row(1, 6, "a")), rows);
+        }
+
+        @Test
+        void returns_rows_of_the_table_only_when_unbounded() {
+            var store = BTree.of(new TestPageManager());
+            var table = Table.of(store, SCHEMA);
+            var other = Table.of(store, Schema.of("other", 2, 1, Column.of("id", ColumnType.INT)));
+            table.upsert(row(1, 1L, "a"));
+            other.upsert(Row.of(other.schema(), 1));
+
+            assertEquals(List.of(row(1, 1L, "a")), toList(table.scan(null, true, null, true)));
+        }
+    }
+
+    @Nested
+    class SecondaryIndex {
+
+        static final Schema INDEXED_SCHEMA = SCHEMA
+                .withIndex(Index.of("by_name", 2, "name"))
+                .withIndex(Index.of("by_tenant_name", 3, "tenant", "name").including("avatar"));
+
+        private Table indexedTable() {
+            return Table.of(BTree.of(new TestPageManager()), INDEXED_SCHEMA);
+        }
+
+        private static Row indexedRow(int tenant, long id, String name) {
+            return Row.of(INDEXED_SCHEMA, tenant, id, name, new byte[]{(byte) id});
+        }
+
+        @Test
+        void returns_rows_by_indexed_column() {
+            var table = indexedTable();
+            table.upsert(indexedRow(1, 1L, "bob"));
+            table.upsert(indexedRow(1, 2L, "alice"));
+            table.upsert(indexedRow(2, 3L, "bob"));
+
+            assertEquals(List.of(indexedRow(1, 1L, "bob"), indexedRow(2, 3L, "bob")), toList(table.scanIndex("by_name", "bob")));
+        }
+
+        @Test
+        void returns_rows_in_index_range() {
+            var table = indexedTable();
+            table.upsert(indexedRow(1, 1L, "a"));
+            table.upsert(indexedRow(1, 2L, "b"));
+            table.upsert(indexedRow(1, 3L, "c"));
+            table.upsert(indexedRow(1, 4L, "d"));
+
+            var rows = toList(table.scanIndex("by_name", new Object[]{"a"}, false, new Object[]{"c"}, true));
+            assertEquals(List.of(indexedRow(1, 2L, "b"), indexedRow(1, 3L, "c")), rows);
+        }
+
+        @Test
+        void updates_index_when_row_changes() {
+            var table = indexedTable();
+            table.upsert(indexedRow(1, 1L, "bob"));
+            table.upsert(indexedRow(1, 1L, "alice"));
+
+            assertFalse(table.scanIndex("by_name", "bob").hasNext());
+            assertEquals(List.of(indexedRow(1, 1L, "alice")), toList(table.scanIndex("by_name", "alice")));
+        }
+
+        @Test
+        void removes_index_entries_when_row_is_deleted() {
+            var table = indexedTable();
+            table.upsert(indexedRow(1, 1L, "bob"));
+
+            assertTrue(table.delete(1, 1L));
+            assertFalse(table.scanIndex("by_name", "bob").hasNext());
+            assertFalse(table.scanIndex("by_tenant_name", 1).hasNext());
+        }
+
+        @Test
+        void reads_covered_columns_from_index_only() {
+            var table = indexedTable();
+            table.upsert(indexedRow(1, 1L, "bob"));
+
+            assertTrue(table.covers("by_tenant_name", List.of("tenant", "id", "name", "avatar")));
+            assertFalse(table.covers("by_name", List.of("avatar")));
+
+            var rows = toList(table.scanIndexOnly("by_tenant_name", new Object[]{1}, true, new Object[]{1}, true));
+            assertEquals(List.of(indexedRow(1, 1L, "bob")), rows);
+        }
+
+        @Test
+        void leaves_rows_and_indexes_unchanged_when_batch_fails() {
+            var store = BTree.of(new TestPageManager());
+            var table = Table.of(store, INDEXED_SCHEMA);
+            table.upsert(indexedRow(1, 1L, "bob"));
+
+            assertThrows(IllegalStateException.class, () -> store.batch(() -> {
+                table.upsert(indexedRow(1, 1L, "alice"));
+                throw new IllegalStateException();
+            }));
+            assertEquals(indexedRow(1, 1L, "bob"), table.find(1, 1L).orElseThrow());
+            assertEquals(1, toList(table.scanIndex("by_name", "bob")).size());
+            assertFalse(table.scanIndex("by_name", "alice").hasNext());
+        }
+    }
+}
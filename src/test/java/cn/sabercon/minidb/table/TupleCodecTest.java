@@ -0,0 +1,99 @@
+package cn.sabercon.minidb.table;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static cn.sabercon.minidb.TestUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TupleCodecTest {
+
+    static final List<Column> COLUMNS = List.of(
+            Column.of("a", ColumnType.INT),
+            Column.of("b", ColumnType.LONG),
+            Column.of("c", ColumnType.STRING),
+            Column.of("d", ColumnType.BYTES)
+    );
+
+    static final Comparator<String> STRING_ORDER = TupleCodecTest::compareCodePoints;
+
+    static final Comparator<byte[]> BYTES_ORDER = Arrays::compareUnsigned;
+
+    static final Comparator<Object[]> TUPLE_ORDER = Comparator
+            .comparing((Object[] t) -> (Integer) t[0], Comparator.nullsFirst(Comparator.<Integer>naturalOrder()))
+            .thenComparing((Object[] t) -> (Long) t[1], Comparator.nullsFirst(Comparator.<Long>naturalOrder()))
+            .thenComparing((Object[] t) -> (String) t[2], Comparator.nullsFirst(STRING_ORDER))
+            .thenComparing((Object[] t) -> (byte[]) t[3], Comparator.nullsFirst(BYTES_ORDER));
+
+    @Nested
+    class Encode {
+
+        @RepeatedTest(100)
+        void decodes_to_the_encoded_values() {
+            var values = randomTuple();
+            var bytes = TupleCodec.encode(1, COLUMNS, values);
+
+            var decoded = new Object[COLUMNS.size()];
+            assertEquals(bytes.length, TupleCodec.decode(bytes, COLUMNS, decoded));
+            assertArrayEquals(values, decoded);
+        }
+
+        @RepeatedTest(100)
+        void preserves_the_order_of_values() {
+            var values1 = randomTuple();
+            var values2 = randomTuple();
+            var bytes1 = TupleCodec.encode(1, COLUMNS, values1);
+            var bytes2 = TupleCodec.encode(1, COLUMNS, values2);
+
+            assertEquals(Integer.signum(TUPLE_ORDER.compare(values1, values2)), Integer.signum(Arrays.compareUnsigned(bytes1, bytes2)));
+        }
+
+        @Test
+        void encodes_leading_values_as_a_prefix() {
+            var values = randomTuple();
+            var bytes = TupleCodec.encode(1, COLUMNS, values);
+            var prefix = TupleCodec.encode(1, COLUMNS, values, 2);
+
+            assertArrayEquals(prefix, Arrays.copyOf(bytes, prefix.length));
+        }
+
+        @Test
+        void sorts_strings_with_escaped_bytes() {
+            var bytes1 = TupleCodec.encode(1, COLUMNS.subList(2, 3), new Object[]{"a"});
+            var bytes2 = TupleCodec.encode(1, COLUMNS.subList(2, 3), new Object[]{"a\0"});
+            var bytes3 = TupleCodec.encode(1, COLUMNS.subList(2, 3), new Object[]{"a\1"});
+            var bytes4 = TupleCodec.encode(1, COLUMNS.subList(2, 3), new Object[]{"a\2"});
+
+            assertTrue(Arrays.compareUnsigned(bytes1, bytes2) < 0);
+            assertTrue(Arrays.compareUnsigned(bytes2, bytes3) < 0);
+            assertTrue(Arrays.compareUnsigned(bytes3, bytes4) < 0);
+        }
+    }
+
+    static Object[] randomTuple() {
+        return new Object[]{
+                randomInt(0, 3) == 0 ? null : randomInt(-3, 3),
+                randomInt(0, 3) == 0 ? null : randomLong(Long.MIN_VALUE, Long.MAX_VALUE - 1),
+                randomInt(0, 3) == 0 ? null : randomString(),
+                randomInt(0, 3) == 0 ? null : randomBytes(0, 3),
+        };
+    }
+
+    static String randomString() {
+        var chars = new char[]{'\0', '\1', 'a', 'é', '中'};
+        var builder = new StringBuilder();
+        for (int i = randomInt(0, 3); i > 0; i--) {
+            builder.append(chars[randomInt(0, chars.length - 1)]);
+        }
+        return builder.toString();
+    }
+
+    static int compareCodePoints(String a, String b) {
+        return Arrays.compare(a.codePoints().toArray(), b.codePoints().toArray());
+    }
+}
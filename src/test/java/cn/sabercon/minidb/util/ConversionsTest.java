@@ -0,0 +1,24 @@
+package cn.sabercon.minidb.util;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversionsTest {
+
+    @Nested
+    class Successor {
+
+        @Test
+        void returns_the_next_prefix() {
+            assertArrayEquals(new byte[]{1, 3}, Conversions.successor(new byte[]{1, 2}));
+            assertArrayEquals(new byte[]{2}, Conversions.successor(new byte[]{1, (byte) 0xFF}));
+        }
+
+        @Test
+        void returns_null_when_all_bytes_are_max() {
+            assertNull(Conversions.successor(new byte[]{(byte) 0xFF, (byte) 0xFF}));
+        }
+    }
+}